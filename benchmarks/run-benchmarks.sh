@@ -0,0 +1,12 @@
+#!/bin/sh
+# Builds the analyzer and the JMH benchmarks, then runs every benchmark with the
+# GC profiler (allocation rate). Extra arguments are passed to JMH, for example:
+#   benchmarks/run-benchmarks.sh ParseBenchmark -p track=data,1000
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -B -q install -DskipTests
+mvn -B -q -f benchmarks/pom.xml package
+
+java -jar benchmarks/target/benchmarks.jar -prof gc \
+     -rf json -rff benchmarks/target/jmh-result.json "$@"
@@ -0,0 +1,29 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import com.github.ledlogic.gpxanalyzer.DistanceMethod;
+import com.github.ledlogic.gpxanalyzer.TrackBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the pass that fills in cumulative distances, per distance method
+ */
+@State(Scope.Benchmark)
+public class DistanceBenchmark extends BenchmarkDefaults {
+    
+    @Param({"haversine", "vincenty", "fast"})
+    public String method;
+    
+    @Benchmark
+    public void computeDistances(TrackState state, Blackhole blackhole) {
+        DistanceMethod distanceMethod = DistanceMethod.fromName(method);
+        for (TrackBuffer track : state.tracks) {
+            track.computeDistances(distanceMethod);
+            blackhole.consume(track.totalDistance());
+        }
+    }
+}
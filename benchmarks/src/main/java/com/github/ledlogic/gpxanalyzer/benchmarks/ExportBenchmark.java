@@ -0,0 +1,43 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import com.github.ledlogic.gpxanalyzer.GPXElevationProfile;
+import com.github.ledlogic.gpxanalyzer.TrackBuffer;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of CSV export, plain and gzip-compressed
+ */
+@State(Scope.Benchmark)
+public class ExportBenchmark extends BenchmarkDefaults {
+    
+    @Param({"false", "true"})
+    public boolean gzip;
+    
+    private File output;
+    
+    @Setup(Level.Trial)
+    public void createOutput() throws Exception {
+        output = File.createTempFile("bench", gzip ? ".csv.gz" : ".csv");
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        output.delete();
+    }
+    
+    @Benchmark
+    public void exportToCSV(TrackState state) throws Exception {
+        for (TrackBuffer track : state.tracks) {
+            GPXElevationProfile.exportToCSV(track, output.getPath(), gzip);
+        }
+    }
+}
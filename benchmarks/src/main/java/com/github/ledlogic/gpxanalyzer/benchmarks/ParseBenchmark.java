@@ -0,0 +1,82 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import com.github.ledlogic.gpxanalyzer.DistanceMethod;
+import com.github.ledlogic.gpxanalyzer.GPXElevationProfile;
+import com.github.ledlogic.gpxanalyzer.ParallelTrackParser;
+import com.github.ledlogic.gpxanalyzer.TrackPoint;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing throughput of the streaming parser at every size, and of the DOM parser
+ * up to 100k points (a 10M-point DOM does not fit in a benchmark heap), and of
+ * the chunked parallel parser on 1 to 8 threads
+ */
+public class ParseBenchmark extends BenchmarkDefaults {
+    
+    @State(Scope.Benchmark)
+    public static class DomInput {
+        @Param({"data", "1000", "100000"})
+        public String track;
+        
+        public List<File> files;
+        
+        @Setup(Level.Trial)
+        public void locate() throws Exception {
+            files = SyntheticTracks.filesFor(track);
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class ParallelInput {
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+        
+        public ForkJoinPool pool;
+        
+        @Setup(Level.Trial)
+        public void start() {
+            pool = new ForkJoinPool(threads);
+        }
+        
+        @TearDown(Level.Trial)
+        public void stop() {
+            pool.shutdown();
+        }
+    }
+    
+    @Benchmark
+    public void streaming(TrackState state, Blackhole blackhole) throws Exception {
+        for (File file : state.files) {
+            blackhole.consume(GPXElevationProfile.parseTrack(file.getPath()));
+        }
+    }
+    
+    @Benchmark
+    public void parallel(TrackState state, ParallelInput input, Blackhole blackhole) 
+            throws Exception {
+        ParallelTrackParser parser = new ParallelTrackParser(input.pool, DistanceMethod.HAVERSINE);
+        for (File file : state.files) {
+            blackhole.consume(parser.parse(file));
+        }
+    }
+    
+    @Benchmark
+    public void dom(DomInput input, Blackhole blackhole) throws Exception {
+        for (File file : input.files) {
+            List<TrackPoint> points = GPXElevationProfile.parseGPX(file.getPath());
+            blackhole.consume(points);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import com.github.ledlogic.gpxanalyzer.ElevationPlotter;
+import com.github.ledlogic.gpxanalyzer.TrackBuffer;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of rendering and encoding the PNG plot
+ */
+@State(Scope.Benchmark)
+public class RenderBenchmark extends BenchmarkDefaults {
+    
+    private File output;
+    
+    @Setup(Level.Trial)
+    public void createOutput() throws Exception {
+        output = File.createTempFile("bench", ".png");
+    }
+    
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        output.delete();
+    }
+    
+    @Benchmark
+    public void saveToPNG(TrackState state) throws Exception {
+        for (TrackBuffer track : state.tracks) {
+            ElevationPlotter.saveToPNG(track, "benchmark", output.getPath());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Locates the GPX inputs used by the benchmarks
+ *
+ * A track name is either "data", meaning every GPX file in the repository's data
+ * directory, or a point count such as "100000", meaning a synthetic 1 Hz track of
+ * that size. Synthetic tracks are generated from a fixed seed, so every run (and
+ * every machine) benchmarks the same file. They are written once and reused.
+ */
+public class SyntheticTracks {
+    
+    /** Directory with the real sample tracks, relative to the repository root */
+    public static final String DATA_DIR = System.getProperty("gpx.data.dir", "data");
+    
+    /** Directory where generated tracks are kept between runs */
+    public static final String TRACK_DIR =
+        System.getProperty("gpx.bench.dir", "benchmarks/target/bench-tracks");
+    
+    private static final long SEED = 20260111L;
+    private static final Instant START_TIME = Instant.parse("2026-01-11T20:37:12Z");
+    
+    /**
+     * @return the GPX files for a track name
+     */
+    public static List<File> filesFor(String track) throws IOException {
+        if (track.equals("data")) {
+            File[] files = new File(DATA_DIR).listFiles((dir, name) ->
+                name.toLowerCase().endsWith(".gpx"));
+            if (files == null || files.length == 0) {
+                throw new IOException("No GPX files in " + new File(DATA_DIR).getAbsolutePath()
+                                      + " (run from the repository root or set -Dgpx.data.dir)");
+            }
+            Arrays.sort(files);
+            return Arrays.asList(files);
+        }
+        
+        int points = Integer.parseInt(track);
+        File file = new File(TRACK_DIR, "synthetic_" + points + ".gpx");
+        if (!file.isFile()) {
+            generate(points, file);
+        }
+        List<File> files = new ArrayList<>();
+        files.add(file);
+        return files;
+    }
+    
+    /**
+     * Writes a random-walk track with a rolling altitude profile and one point per second
+     */
+    public static void generate(int points, File target) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File temp = File.createTempFile(target.getName(), ".tmp", dir);
+        
+        Random random = new Random(SEED);
+        double lat = 44.97631635;
+        double lon = -93.23217004;
+        double heading = 0;
+        long epochSecond = START_TIME.getEpochSecond();
+        
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(temp.toPath()), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" "
+                      + "creator=\"gpx-analyzer benchmarks\">\n");
+            out.write("  <trk>\n    <name>synthetic " + points + "</name>\n    <trkseg>\n");
+            
+            StringBuilder line = new StringBuilder(160);
+            for (int i = 0; i < points; i++) {
+                // About 1.5 m per step with a slowly wandering heading
+                heading += random.nextGaussian() * 0.2;
+                lat += Math.cos(heading) * 1.35e-5;
+                lon += Math.sin(heading) * 1.9e-5;
+                double ele = 250 + 80 * Math.sin(i / 3000.0) + 15 * Math.sin(i / 170.0)
+                             + random.nextGaussian() * 2;
+                
+                line.setLength(0);
+                line.append("      <trkpt lat=\"").append(Math.round(lat * 1e8) / 1e8)
+                    .append("\" lon=\"").append(Math.round(lon * 1e8) / 1e8).append("\">\n")
+                    .append("        <ele>").append(Math.round(ele * 10) / 10.0).append("</ele>\n")
+                    .append("        <time>").append(Instant.ofEpochSecond(epochSecond + i))
+                    .append("</time>\n")
+                    .append("      </trkpt>\n");
+                out.append(line);
+            }
+            
+            out.write("    </trkseg>\n  </trk>\n</gpx>\n");
+        }
+        
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
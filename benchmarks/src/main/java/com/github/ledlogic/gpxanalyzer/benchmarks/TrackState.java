@@ -0,0 +1,36 @@
+package com.github.ledlogic.gpxanalyzer.benchmarks;
+
+import com.github.ledlogic.gpxanalyzer.GPXElevationProfile;
+import com.github.ledlogic.gpxanalyzer.TrackBuffer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark input: the GPX files of one track name plus their parsed tracks
+ */
+@State(Scope.Benchmark)
+public class TrackState {
+    
+    @Param({"data", "1000", "100000", "10000000"})
+    public String track;
+    
+    public List<File> files;
+    public List<TrackBuffer> tracks;
+    
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        files = SyntheticTracks.filesFor(track);
+        tracks = new ArrayList<>();
+        for (File file : files) {
+            tracks.add(GPXElevationProfile.parseTrack(file.getPath()));
+        }
+    }
+}
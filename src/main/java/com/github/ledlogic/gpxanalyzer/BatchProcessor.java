@@ -0,0 +1,268 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes many GPX files concurrently
+ *
+ * Files pass through three stages, each with its own threads and a bounded
+ * queue: parse, analyze (statistics and CSV export) and output (plots). A stage
+ * whose queue is full blocks the stage feeding it. Files are only let into the
+ * parse stage while their estimated memory fits in the heap budget, which each
+ * file holds until its output is done, so peak heap use depends on the budget
+ * rather than on the number or size of the files. Console output of each file
+ * is buffered and printed as one block once that file is done, followed by a
+ * throughput summary.
+ */
+public class BatchProcessor {
+    
+    // Heap needed while parsing, per byte of GPX file (a DOM tree is far larger
+    // than the file, the streaming parsers keep little more than the track)
+    private static final int DOM_BYTES_PER_FILE_BYTE = 8;
+    private static final int STREAM_BYTES_PER_FILE_BYTE = 1;
+    
+    private final ProcessingOptions options;
+    private final MemoryBudget budget;
+    
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong totalPoints = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    
+    public BatchProcessor(ProcessingOptions options) {
+        this.options = options;
+        long budgetBytes = options.memoryMegabytes > 0
+                           ? options.memoryMegabytes * 1024L * 1024L
+                           : Runtime.getRuntime().maxMemory() / 2;
+        this.budget = new MemoryBudget(budgetBytes, "batch-memory-mb");
+    }
+    
+    /**
+     * Processes all files and blocks until every one of them is done
+     */
+    public void run(List<File> gpxFiles) {
+        try (GpxInputs inputs = new GpxInputs(gpxFiles)) {
+            run(inputs);
+        } catch (IOException e) {
+            System.err.println("Error closing archive: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Processes every document of the inputs and blocks until all are done.
+     * Documents are taken from the inputs on this thread, and the memory of each
+     * is reserved before the next is taken. A tar.gz entry is only read once it
+     * is opened or the next one is taken, so it is never read into memory that
+     * is not reserved, and later entries are decompressed here while the parse
+     * stage parses earlier ones.
+     */
+    void run(GpxInputs inputs) {
+        int ioThreads = Math.max(1, options.threads);
+        int renderThreads = Math.max(1,
+            Math.min(ioThreads, Runtime.getRuntime().availableProcessors()));
+        
+        ThreadPoolExecutor parseStage = stage("gpx-parse", ioThreads, ioThreads);
+        ThreadPoolExecutor analyzeStage = stage("gpx-analyze", ioThreads, ioThreads);
+        ThreadPoolExecutor outputStage = stage("gpx-render", renderThreads, 2 * renderThreads);
+        
+        Phaser done = new Phaser(1); // this thread, and one party per job in flight
+        long startTime = System.nanoTime();
+        
+        try {
+            for (GpxSource source = inputs.next(); source != null; source = inputs.next()) {
+                Job job = new Job(source, parseEstimate(source));
+                budget.acquire(job.reserved);
+                done.register();
+                submit(job, parseStage, analyzeStage, outputStage).whenComplete((result, error) -> {
+                    budget.release(job.reserved);
+                    done.arriveAndDeregister();
+                });
+            }
+            done.awaitAdvanceInterruptibly(done.arrive());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Batch processing interrupted");
+        } finally {
+            parseStage.shutdownNow();
+            analyzeStage.shutdownNow();
+            outputStage.shutdownNow();
+        }
+        
+        printSummary(System.nanoTime() - startTime, ioThreads, renderThreads);
+    }
+    
+    int succeeded() {
+        return succeeded.get();
+    }
+    
+    int failed() {
+        return failed.get();
+    }
+    
+    MemoryBudget budget() {
+        return budget;
+    }
+    
+    private CompletableFuture<Void> submit(Job job, ThreadPoolExecutor parseStage,
+                                           ThreadPoolExecutor analyzeStage,
+                                           ThreadPoolExecutor outputStage) {
+        GpxSource source = job.source;
+        PrintStream out = job.out;
+        
+        return CompletableFuture
+            .supplyAsync(() -> {
+                try {
+                    Metrics.queueDepth("batch-parse", parseStage.getQueue().size());
+                    totalBytes.addAndGet(source.length());
+                    TrackBuffer track = ElevationProfileApp.parseFile(source, options, out);
+                    
+                    // Hold the budget for what the track takes rather than the estimate,
+                    // and for an entry's content, which the job keeps until it is done
+                    track.trimToSize();
+                    long trackBytes = track.memoryBytes()
+                                      + (source.isBuffered() ? source.length() : 0);
+                    budget.resize(job.reserved, trackBytes);
+                    job.reserved = trackBytes;
+                    return track;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, parseStage)
+            .thenApplyAsync(track -> {
+                try {
+                    Metrics.queueDepth("batch-analyze", analyzeStage.getQueue().size());
+                    ElevationProfileApp.analyzeTrack(track, source, options, out);
+                    return track;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, analyzeStage)
+            .thenAcceptAsync(track -> {
+                try {
+                    Metrics.queueDepth("batch-render", outputStage.getQueue().size());
+                    ElevationProfileApp.renderFile(track, source, options, out);
+                    
+                    if (options.showGui) {
+                        ElevationProfileApp.showPlot(track, source, true);
+                    }
+                    
+                    ElevationProfileApp.printSampleData(track, out);
+                    totalPoints.addAndGet(track.size());
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, outputStage)
+            .whenComplete((result, error) -> {
+                out.flush();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                  ? error.getCause() : error;
+                
+                // Keep each file's output together on the console
+                synchronized (System.out) {
+                    System.out.print(job.buffer.toString());
+                    System.out.flush();
+                    if (cause != null) {
+                        System.err.println("Error processing " + source.name()
+                                           + ": " + cause.getMessage());
+                        cause.printStackTrace();
+                    }
+                }
+                
+                if (cause != null) {
+                    failed.incrementAndGet();
+                } else {
+                    succeeded.incrementAndGet();
+                }
+            });
+    }
+    
+    /**
+     * @return the heap a file is expected to need while it is parsed, plus the
+     *         content of an archive entry that is already in memory
+     */
+    private long parseEstimate(GpxSource source) {
+        if (!source.isPlainFile()) {
+            // Compressed documents are always stream-parsed
+            long estimate = source.length() * STREAM_BYTES_PER_FILE_BYTE;
+            return source.isBuffered() ? estimate + source.length() : estimate;
+        }
+        boolean dom = !options.streaming && !options.parallelParse;
+        return source.length() * (dom ? DOM_BYTES_PER_FILE_BYTE : STREAM_BYTES_PER_FILE_BYTE);
+    }
+    
+    private void printSummary(long elapsedNanos, int ioThreads, int renderThreads) {
+        double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+        double megabytes = totalBytes.get() / (1024.0 * 1024.0);
+        int files = succeeded.get() + failed.get();
+        
+        System.out.println("=".repeat(60));
+        System.out.println("=== Batch Summary ===");
+        System.out.printf("Files: %d succeeded, %d failed%n", succeeded.get(), failed.get());
+        System.out.printf("Track Points: %d%n", totalPoints.get());
+        System.out.printf("Input Size: %.2f MB%n", megabytes);
+        System.out.printf("Elapsed Time: %.2f s%n", seconds);
+        System.out.printf("Throughput: %.2f files/s, %.0f points/s, %.2f MB/s%n",
+                          files / seconds, totalPoints.get() / seconds, megabytes / seconds);
+        System.out.printf("Threads: %d parsing, %d analyzing, %d rendering%n",
+                          ioThreads, ioThreads, renderThreads);
+        System.out.printf("Memory: %.1f MB peak of %.0f MB budget%n",
+                          budget.peak() / (1024.0 * 1024.0), budget.limit() / (1024.0 * 1024.0));
+    }
+    
+    /**
+     * @return a pool whose execute() waits while its queue is full, holding back
+     *         the stage that feeds it
+     */
+    private static ThreadPoolExecutor stage(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), namedThreads(name), (task, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Batch stage " + name + " is shut down");
+                }
+                try {
+                    pool.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted waiting for " + name, e);
+                }
+            });
+    }
+    
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    /**
+     * One file on its way through the stages
+     */
+    private static class Job {
+        final GpxSource source;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(buffer);
+        volatile long reserved; // bytes of the memory budget held for the file
+        
+        Job(GpxSource source, long reserved) {
+            this.source = source;
+            this.reserved = reserved;
+        }
+    }
+}
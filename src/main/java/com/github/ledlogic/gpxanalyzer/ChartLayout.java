@@ -0,0 +1,191 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Geometry of an elevation profile chart, shared by the raster and vector renderers
+ *
+ * Maps distance and altitude to pixels inside the padding, and places the grid
+ * lines, their labels, the axis titles and the timestamp labels of data points.
+ * Text widths depend on the renderer's fonts, so they are passed in.
+ */
+final class ChartLayout {
+    
+    static final int PADDING = 60;
+    static final int ALTITUDE_DIVISIONS = 8;
+    static final int DISTANCE_DIVISIONS = 10;
+    static final int MAX_LABELED_POINTS = 15; // timestamps shown, for readability
+    static final String ALTITUDE_TITLE = "Altitude (meters)";
+    
+    final int width;
+    final int height;
+    final double minDist;
+    final double maxDist;
+    final double minAlt;
+    final double maxAlt;
+    
+    ChartLayout(int width, int height, double minDist, double maxDist,
+                double minAlt, double maxAlt) {
+        this.width = width;
+        this.height = height;
+        this.minDist = minDist;
+        this.maxDist = maxDist;
+        this.minAlt = minAlt;
+        this.maxAlt = maxAlt;
+    }
+    
+    /**
+     * @return a layout whose altitude axis extends 10% of the altitude range
+     *         beyond the lowest and highest points
+     */
+    static ChartLayout withAltitudeMargin(int width, int height, double minDist,
+                                          double maxDist, double minAlt, double maxAlt) {
+        double altRange = maxAlt - minAlt;
+        return new ChartLayout(width, height, minDist, maxDist,
+                               minAlt - altRange * 0.1, maxAlt + altRange * 0.1);
+    }
+    
+    double scaleX(double value) {
+        double range = maxDist - minDist;
+        if (range == 0) return PADDING;
+        return PADDING + (value - minDist) / range * (width - 2 * PADDING);
+    }
+    
+    double scaleY(double value) {
+        double range = maxAlt - minAlt;
+        if (range == 0) return height - PADDING;
+        return height - PADDING - (value - minAlt) / range * (height - 2 * PADDING);
+    }
+    
+    /**
+     * @return the y of the plot's bottom edge, the distance axis
+     */
+    int bottom() {
+        return height - PADDING;
+    }
+    
+    /**
+     * @return the altitude of horizontal grid line i, 0 to ALTITUDE_DIVISIONS
+     */
+    double altitudeTick(int i) {
+        return minAlt + (maxAlt - minAlt) * i / ALTITUDE_DIVISIONS;
+    }
+    
+    /**
+     * @return the distance of vertical grid line i, 0 to DISTANCE_DIVISIONS
+     */
+    double distanceTick(int i) {
+        return minDist + (maxDist - minDist) * i / DISTANCE_DIVISIONS;
+    }
+    
+    static String altitudeLabel(double altitude) {
+        return String.format("%.2f m", altitude);
+    }
+    
+    /**
+     * Distances are labeled in meters while less than 1 km is visible
+     */
+    boolean distanceInMeters() {
+        return maxDist - minDist < 1000;
+    }
+    
+    String distanceLabel(double distance) {
+        return distanceInMeters()
+               ? String.format("%.2f m", distance)
+               : String.format("%.2f km", distance / 1000.0);
+    }
+    
+    String distanceTitle() {
+        return distanceInMeters() ? "Distance (meters)" : "Distance (kilometers)";
+    }
+    
+    /**
+     * @return the x at which altitude labels end, left of the axis
+     */
+    static int altitudeLabelRight() {
+        return PADDING - 10;
+    }
+    
+    /**
+     * @return the baseline of the label of the altitude grid line at y
+     */
+    static int altitudeLabelBaseline(int y) {
+        return y + 5;
+    }
+    
+    /**
+     * @return the baseline of the distance labels, centered under their lines
+     */
+    int distanceLabelBaseline() {
+        return height - PADDING + 20;
+    }
+    
+    /**
+     * @return the baseline of the distance axis title, centered under the chart
+     */
+    int distanceTitleBaseline() {
+        return height - 10;
+    }
+    
+    /**
+     * @return the x, in the coordinates rotated by -90 degrees, at which the
+     *         altitude title starts; its baseline is at y 20
+     */
+    int altitudeTitleX() {
+        return -height / 2 - 50;
+    }
+    
+    /**
+     * @return the step between labeled data points, so that at most
+     *         MAX_LABELED_POINTS of the visible ones are labeled
+     */
+    static int labelInterval(int visible) {
+        int pointsToShow = Math.min(visible, MAX_LABELED_POINTS);
+        return Math.max(1, visible / Math.max(1, pointsToShow));
+    }
+    
+    static String formatTimeWithElevation(Instant timestamp, double altitude) {
+        // Format as "elevation @ HH:MM" in local time zone
+        ZonedDateTime zdt = timestamp.atZone(ZoneId.systemDefault());
+        int hour = zdt.getHour();
+        String ampm = hour < 12 ? "am" : "pm";
+        int displayHour = hour == 0 ? 12 : (hour > 12 ? hour - 12 : hour);
+        return String.format("%.2f m @ %d:%02d %s", altitude, displayHour, zdt.getMinute(), ampm);
+    }
+    
+    /**
+     * Places the timestamp label of the data point at (x, y): centered above the
+     * point, or below it if it would reach the top of the chart
+     */
+    static Label timestampLabel(double x, double y, int textWidth, int textHeight) {
+        int textX = (int) x - textWidth / 2;
+        int textY = (int) y - 12;
+        if (textY - textHeight < PADDING + 10) {
+            textY = (int) y + textHeight + 8;
+        }
+        return new Label(textX, textY, textWidth, textHeight);
+    }
+    
+    /**
+     * A placed text label with its background box
+     */
+    static final class Label {
+        final int x; // start of the text
+        final int baseline;
+        final int boxX;
+        final int boxY;
+        final int boxWidth;
+        final int boxHeight;
+        
+        Label(int x, int baseline, int textWidth, int textHeight) {
+            this.x = x;
+            this.baseline = baseline;
+            this.boxX = x - 3;
+            this.boxY = baseline - textHeight + 2;
+            this.boxWidth = textWidth + 6;
+            this.boxHeight = textHeight + 2;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * Reduces an RGB image to an 8-bit palette
+ *
+ * The chart is drawn in a handful of colors plus the antialiased shades between
+ * them. The palette holds the 256 most common colors, which is every color of
+ * most charts; any rarer ones take the nearest palette color. Colors are counted
+ * in an open-addressing hash table, and runs of equal pixels are looked up once.
+ */
+final class ColorPalette {
+    
+    static final int MAX_COLORS = 256;
+    
+    private static final int EMPTY = 0;
+    private static final int USED = 0x1000000; // marks a slot, above any 24-bit color
+    
+    private int[] keys = new int[4096];
+    private int[] counts = new int[keys.length];
+    private int[] indices = new int[keys.length];
+    private int size;
+    
+    /**
+     * Maps every pixel to a palette index
+     * @param pixels RGB pixels; the alpha byte is ignored
+     * @param out receives one palette index per pixel
+     * @param palette receives the RGB palette colors, most common first
+     * @return the number of palette colors
+     */
+    int quantize(int[] pixels, int length, byte[] out, int[] palette) {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(counts, 0);
+        size = 0;
+        
+        int previous = -1;
+        int slot = -1;
+        for (int i = 0; i < length; i++) {
+            int color = pixels[i] & 0xFFFFFF;
+            if (color != previous) {
+                slot = slot(color);
+                previous = color;
+            }
+            counts[slot]++;
+        }
+        
+        int colors = choosePalette(palette);
+        
+        previous = -1;
+        byte index = 0;
+        for (int i = 0; i < length; i++) {
+            int color = pixels[i] & 0xFFFFFF;
+            if (color != previous) {
+                index = (byte) indices[slot(color)];
+                previous = color;
+            }
+            out[i] = index;
+        }
+        return colors;
+    }
+    
+    /**
+     * Fills the palette with the most common colors and records the palette
+     * index of every color counted
+     */
+    private int choosePalette(int[] palette) {
+        long[] byCount = new long[size];
+        int n = 0;
+        for (int s = 0; s < keys.length; s++) {
+            if (keys[s] != EMPTY) {
+                byCount[n++] = ((long) counts[s] << 32) | s;
+            }
+        }
+        Arrays.sort(byCount);
+        
+        int colors = Math.min(size, MAX_COLORS);
+        for (int p = 0; p < colors; p++) {
+            int s = (int) byCount[size - 1 - p];
+            palette[p] = keys[s] & 0xFFFFFF;
+            indices[s] = p;
+        }
+        for (int r = colors; r < size; r++) {
+            int s = (int) byCount[size - 1 - r];
+            indices[s] = nearest(keys[s] & 0xFFFFFF, palette, colors);
+        }
+        return colors;
+    }
+    
+    private static int nearest(int color, int[] palette, int colors) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int p = 0; p < colors; p++) {
+            int dr = ((palette[p] >> 16) & 0xFF) - red;
+            int dg = ((palette[p] >> 8) & 0xFF) - green;
+            int db = (palette[p] & 0xFF) - blue;
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = p;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * @return the table slot of a color, added if it is new
+     */
+    private int slot(int color) {
+        int key = color | USED;
+        int mask = keys.length - 1;
+        int hash = color * 0x9E3779B1;
+        int s = (hash ^ (hash >>> 16)) & mask;
+        while (keys[s] != key) {
+            if (keys[s] == EMPTY) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    return slot(color);
+                }
+                keys[s] = key;
+                size++;
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+    
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[keys.length];
+        indices = new int[keys.length];
+        size = 0;
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldKeys[s] != EMPTY) {
+                counts[slot(oldKeys[s] & 0xFFFFFF)] = oldCounts[s];
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Buffered writer for numeric CSV rows
+ *
+ * Formats fixed-point numbers by hand into a reusable byte buffer instead of going
+ * through Formatter, so writing a row allocates nothing. The output is the same
+ * text that printf("%.Nf") produces: values that printf would round differently
+ * (exact halves, huge magnitudes, NaN) and locales without '.' and ASCII digits are
+ * passed to String.format, which keeps the result byte-for-byte identical.
+ */
+public class CsvWriter implements Closeable {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L
+    };
+    
+    // Largest scaled value whose rounding can be decided from a double product
+    private static final double MAX_FAST_SCALED = 1L << 30;
+    // Fractions this close to one half are left to Formatter's rounding
+    private static final double HALF_MARGIN = 1e-6;
+    
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private final byte[] lineSeparator;
+    private final Charset charset = Charset.defaultCharset();
+    private final boolean fastFormat;
+    private int position;
+    
+    public CsvWriter(OutputStream out) {
+        this.out = out;
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        
+        // printf uses the default locale's separator and digits
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        this.fastFormat = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0';
+    }
+    
+    /**
+     * Writes text as-is (no separator or newline)
+     */
+    public void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        ensureCapacity(bytes.length);
+        if (bytes.length > buffer.length) {
+            out.write(bytes);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+    
+    /**
+     * Writes a single character in the ASCII range
+     */
+    public void write(char c) throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = (byte) c;
+    }
+    
+    public void newLine() throws IOException {
+        ensureCapacity(lineSeparator.length);
+        System.arraycopy(lineSeparator, 0, buffer, position, lineSeparator.length);
+        position += lineSeparator.length;
+    }
+    
+    /**
+     * Writes value with the given number of decimals, as printf("%.<decimals>f") would
+     */
+    public void writeFixed(double value, int decimals) throws IOException {
+        if (!fastFormat || decimals >= POWERS_OF_TEN.length || Double.isNaN(value)) {
+            write(String.format("%." + decimals + "f", value));
+            return;
+        }
+        
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * scale;
+        if (!(scaled < MAX_FAST_SCALED)) {
+            write(String.format("%." + decimals + "f", value));
+            return;
+        }
+        
+        long whole = (long) scaled;
+        double fraction = scaled - whole;
+        if (Math.abs(fraction - 0.5) <= HALF_MARGIN) {
+            // Too close to call: Formatter rounds half-up on the shortest decimal form
+            write(String.format("%." + decimals + "f", value));
+            return;
+        }
+        if (fraction > 0.5) {
+            whole++;
+        }
+        
+        ensureCapacity(digits.length + 2);
+        
+        // printf keeps the sign of negative values that round to zero ("-0.00")
+        if (Double.doubleToRawLongBits(value) < 0) {
+            buffer[position++] = '-';
+        }
+        
+        writeDigits(whole / scale, 1);
+        if (decimals > 0) {
+            buffer[position++] = '.';
+            writeDigits(whole % scale, decimals);
+        }
+    }
+    
+    /**
+     * Writes a non-negative number, left-padded with zeros to minDigits
+     */
+    private void writeDigits(long number, int minDigits) {
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + (number % 10));
+            number /= 10;
+        } while (number != 0);
+        
+        while (count < minDigits) {
+            digits[count++] = '0';
+        }
+        while (count > 0) {
+            buffer[position++] = digits[--count];
+        }
+    }
+    
+    private void ensureCapacity(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+    
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
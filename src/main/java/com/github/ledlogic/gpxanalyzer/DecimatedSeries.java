@@ -0,0 +1,174 @@
+package com.github.ledlogic.gpxanalyzer;
+
+/**
+ * Distance/altitude series reduced to the resolution of the plot
+ *
+ * Points are bucketed into pixel columns by distance. Each column keeps only its
+ * lowest and highest point, in track order, so peaks and dips stay visible while
+ * the series has at most two vertices per column however long the track is.
+ */
+public class DecimatedSeries {
+    
+    public final double[] distance;
+    public final double[] altitude;
+    public final int size;
+    
+    DecimatedSeries(double[] distance, double[] altitude, int size) {
+        this.distance = distance;
+        this.altitude = altitude;
+        this.size = size;
+    }
+    
+    /**
+     * Reduces the points of a track whose distance lies within [minDist, maxDist]
+     * to at most two points per column. Tracks that already have no more than two
+     * points per column are returned unchanged.
+     * @param columns number of pixel columns the series will be drawn into
+     */
+    public static DecimatedSeries minMax(TrackBuffer track, double minDist, double maxDist,
+                                         int columns) {
+        double[] distances = track.distances();
+        double[] altitudes = track.altitudes();
+        int size = track.size();
+        columns = Math.max(columns, 1);
+        
+        if (size <= 2 * columns || maxDist <= minDist) {
+            double[] dist = new double[size];
+            double[] alt = new double[size];
+            System.arraycopy(distances, 0, dist, 0, size);
+            System.arraycopy(altitudes, 0, alt, 0, size);
+            return new DecimatedSeries(dist, alt, size);
+        }
+        
+        double[] dist = new double[2 * columns];
+        double[] alt = new double[2 * columns];
+        int count = 0;
+        
+        double columnsPerMeter = columns / (maxDist - minDist);
+        int currentColumn = -1;
+        int minIndex = -1;
+        int maxIndex = -1;
+        
+        for (int i = 0; i < size; i++) {
+            double d = distances[i];
+            if (d < minDist || d > maxDist) {
+                continue;
+            }
+            
+            int column = Math.min((int) ((d - minDist) * columnsPerMeter), columns - 1);
+            if (column != currentColumn) {
+                count = emit(distances, altitudes, minIndex, maxIndex, dist, alt, count);
+                currentColumn = column;
+                minIndex = i;
+                maxIndex = i;
+            } else {
+                if (altitudes[i] < altitudes[minIndex]) {
+                    minIndex = i;
+                }
+                if (altitudes[i] > altitudes[maxIndex]) {
+                    maxIndex = i;
+                }
+            }
+        }
+        count = emit(distances, altitudes, minIndex, maxIndex, dist, alt, count);
+        
+        return new DecimatedSeries(dist, alt, count);
+    }
+    
+    /**
+     * Builds the series for the distance window [minDist, maxDist] from a min/max
+     * pyramid. Each column is answered with a binary search and a pyramid range
+     * query, so the cost depends on the number of columns, not on how many points
+     * fall inside the window. The points just outside the window are included so
+     * the line runs to the edges of the plot.
+     */
+    public static DecimatedSeries fromPyramid(TrackBuffer track, MinMaxPyramid pyramid,
+                                              double minDist, double maxDist, int columns) {
+        double[] distances = track.distances();
+        double[] altitudes = track.altitudes();
+        int size = track.size();
+        columns = Math.max(columns, 1);
+        
+        int first = Math.max(0, lowerBound(distances, size, minDist) - 1);
+        int last = Math.min(size - 1, lowerBound(distances, size, Math.nextUp(maxDist)));
+        
+        if (last - first + 1 <= 2 * columns + 2 || maxDist <= minDist) {
+            int count = Math.max(0, last - first + 1);
+            double[] dist = new double[count];
+            double[] alt = new double[count];
+            System.arraycopy(distances, first, dist, 0, count);
+            System.arraycopy(altitudes, first, alt, 0, count);
+            return new DecimatedSeries(dist, alt, count);
+        }
+        
+        double[] dist = new double[2 * columns + 2];
+        double[] alt = new double[2 * columns + 2];
+        int count = 0;
+        
+        // Point before the window
+        dist[count] = distances[first];
+        alt[count] = altitudes[first];
+        count++;
+        
+        int[] extremes = new int[2];
+        double metersPerColumn = (maxDist - minDist) / columns;
+        int from = first + 1;
+        for (int c = 0; c < columns && from < last; c++) {
+            int to = c == columns - 1
+                     ? last - 1
+                     : lowerBound(distances, size, minDist + (c + 1) * metersPerColumn) - 1;
+            to = Math.min(to, last - 1);
+            if (to >= from) {
+                pyramid.rangeExtremes(from, to, extremes);
+                count = emit(distances, altitudes, extremes[0], extremes[1], dist, alt, count);
+                from = to + 1;
+            }
+        }
+        
+        // Point after the window
+        dist[count] = distances[last];
+        alt[count] = altitudes[last];
+        count++;
+        
+        return new DecimatedSeries(dist, alt, count);
+    }
+    
+    /**
+     * @return the first index whose distance is at least value, or size if there is none
+     */
+    static int lowerBound(double[] distances, int size, double value) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (distances[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    
+    /**
+     * Appends the extremes of one column in the order they occur in the track
+     */
+    private static int emit(double[] distances, double[] altitudes, int minIndex, int maxIndex,
+                            double[] dist, double[] alt, int count) {
+        if (minIndex < 0) {
+            return count;
+        }
+        int first = Math.min(minIndex, maxIndex);
+        int second = Math.max(minIndex, maxIndex);
+        
+        dist[count] = distances[first];
+        alt[count] = altitudes[first];
+        count++;
+        if (second != first) {
+            dist[count] = distances[second];
+            alt[count] = altitudes[second];
+            count++;
+        }
+        return count;
+    }
+}
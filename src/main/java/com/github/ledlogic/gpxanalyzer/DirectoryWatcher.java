@@ -0,0 +1,239 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the CSV and PNG outputs of a directory up to date as GPX files arrive
+ *
+ * On start every GPX file that is new or changed since the last run is processed,
+ * then the directory is watched until the process is stopped. Bursts of events for
+ * one file (a copy in progress, an editor saving twice) are coalesced: the file is
+ * processed once no event has arrived for it for QUIET_MILLIS. Files are processed
+ * on a bounded pool, each file by at most one worker at a time, and the files that
+ * are done are recorded in a {@link WatchManifest} so that restarts skip them.
+ */
+public class DirectoryWatcher {
+    
+    static final long QUIET_MILLIS = 500;
+    private static final long POLL_MILLIS = 100;
+    
+    private final File directory;
+    private final ProcessingOptions options;
+    private final WatchManifest manifest;
+    
+    // File name -> time (ms) at which it is due; used by the watch thread only
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    
+    public DirectoryWatcher(File directory, ProcessingOptions options) {
+        this.directory = directory;
+        this.options = options;
+        this.manifest = WatchManifest.load(directory, optionsSignature(options));
+    }
+    
+    /**
+     * Processes and watches the directory; returns only if the directory becomes
+     * inaccessible or the thread is interrupted
+     */
+    public void run() throws IOException {
+        int threads = options.threads > 0
+                      ? options.threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(2 * threads), runnable -> {
+                Thread thread = new Thread(runnable, "gpx-watch-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        Runtime.getRuntime().addShutdownHook(new Thread(manifest::save));
+        
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            // Register before the first scan so no file can slip in between
+            directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                        StandardWatchEventKinds.ENTRY_MODIFY,
+                                        StandardWatchEventKinds.ENTRY_DELETE);
+            scan();
+            System.out.println("Watching " + directory.getAbsolutePath()
+                               + " for GPX files (" + threads + " worker(s), Ctrl+C to stop)");
+            
+            while (true) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                    if (!key.reset()) {
+                        System.err.println("Error: watched directory is no longer accessible: "
+                                           + directory);
+                        break;
+                    }
+                }
+                dispatch(pool);
+                manifest.save();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+            manifest.save();
+        }
+    }
+    
+    int processed() {
+        return processed.get();
+    }
+    
+    int failed() {
+        return failed.get();
+    }
+    
+    WatchManifest manifest() {
+        return manifest;
+    }
+    
+    /**
+     * Queues every GPX file in the directory; unchanged ones are skipped by the workers
+     */
+    private void scan() {
+        File[] files = directory.listFiles((dir, name) -> isGpx(name));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            pending.put(file.getName(), now);
+        }
+    }
+    
+    private void handleEvents(WatchKey key) {
+        long due = System.currentTimeMillis() + QUIET_MILLIS;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                scan(); // events were lost
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (!isGpx(name)) {
+                continue; // includes our own CSV, PNG, cache and manifest files
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(name);
+                manifest.remove(name);
+            } else {
+                pending.put(name, due); // a later event pushes the file back
+            }
+        }
+    }
+    
+    /**
+     * Hands the files that are due to the pool, as long as its queue has room.
+     * Files that are still being processed wait until the worker is done.
+     */
+    private void dispatch(ThreadPoolExecutor pool) {
+        Metrics.queueDepth("watch-pending", pending.size());
+        Metrics.queueDepth("watch-workers", pool.getQueue().size());
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext() && pool.getQueue().remainingCapacity() > 0) {
+            Map.Entry<String, Long> entry = it.next();
+            String name = entry.getKey();
+            if (entry.getValue() > now || running.contains(name)) {
+                continue;
+            }
+            it.remove();
+            running.add(name);
+            pool.execute(() -> {
+                try {
+                    process(new File(directory, name));
+                } finally {
+                    running.remove(name);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Processes one file unless the manifest shows its current content was already done
+     */
+    void process(File gpxFile) {
+        String name = gpxFile.getName();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer);
+        Exception error = null;
+        
+        try {
+            long size = gpxFile.length();
+            long lastModified = gpxFile.lastModified();
+            if (!gpxFile.isFile() || manifest.isCurrent(name, size, lastModified)) {
+                return;
+            }
+            String hash = WatchManifest.hash(gpxFile);
+            if (manifest.hasHash(name, hash)) {
+                manifest.put(name, size, lastModified, hash); // touched, content unchanged
+                return;
+            }
+            
+            GpxSource source = GpxSource.of(gpxFile);
+            TrackBuffer track = ElevationProfileApp.analyzeFile(source, options, out);
+            ElevationProfileApp.renderFile(track, source, options, out);
+            ElevationProfileApp.printSampleData(track, out);
+            manifest.put(name, size, lastModified, hash);
+        } catch (Exception e) {
+            error = e;
+        }
+        
+        out.flush();
+        synchronized (System.out) {
+            System.out.print(buffer.toString());
+            if (error != null) {
+                System.err.println("Error processing " + name + ": " + error.getMessage());
+                failed.incrementAndGet();
+            } else {
+                processed.incrementAndGet();
+            }
+            System.out.printf("[watch] %d processed, %d failed%n", processed.get(), failed.get());
+            System.out.flush();
+        }
+        Metrics.writeReport();
+    }
+    
+    private static boolean isGpx(String name) {
+        return name.toLowerCase().endsWith(".gpx");
+    }
+    
+    /**
+     * @return the options that change the output files, in manifest form
+     */
+    private static String optionsSignature(ProcessingOptions options) {
+        return "distance=" + options.distanceMethod.name().toLowerCase()
+               + " segments=" + options.segmentPolicy.name().toLowerCase()
+               + " split-segments=" + options.splitSegments
+               + " gzip-csv=" + options.gzipCsv
+               + " csv-stats=" + options.csvStatistics
+               + " png-file=" + options.savePng + " svg-file=" + options.saveSvg
+               + " png=" + options.pngWidth + "x" + options.pngHeight
+               + " png-compression=" + options.pngCompression
+               + " png-palette=" + options.pngPalette
+               + " dem=" + options.demDirectory;
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.util.Locale;
+
+/**
+ * Formula used to measure the distance between consecutive track points
+ *
+ * Distances are taken along a path with a {@link Cursor}, which keeps the
+ * trigonometry of the previous point so that every point is converted only once.
+ * <ul>
+ *   <li>HAVERSINE - great-circle distance on a 6,371 km sphere (the default)</li>
+ *   <li>VINCENTY - geodesic distance on the WGS-84 ellipsoid, up to 0.5% different
+ *       from the sphere; slowest</li>
+ *   <li>FAST - small-angle form of the haversine formula with one cosine and one
+ *       square root per point. Within 1e-7 of HAVERSINE (0.1 mm per km) for steps
+ *       of up to 0.001 rad (about 6 km); longer steps are measured with HAVERSINE.</li>
+ * </ul>
+ */
+public enum DistanceMethod {
+    
+    HAVERSINE(0) {
+        @Override
+        public Cursor cursor() {
+            return new HaversineCursor();
+        }
+    },
+    VINCENTY(1) {
+        @Override
+        public Cursor cursor() {
+            return new VincentyCursor();
+        }
+    },
+    FAST(2) {
+        @Override
+        public Cursor cursor() {
+            return new FastCursor();
+        }
+    };
+    
+    static final double EARTH_RADIUS = 6371000; // meters, as in haversineDistance
+    
+    /** Stable identifier, stored in .gpxbin headers */
+    public final int id;
+    
+    DistanceMethod(int id) {
+        this.id = id;
+    }
+    
+    /**
+     * @return a new cursor for measuring one path
+     */
+    public abstract Cursor cursor();
+    
+    /**
+     * Looks up a method by its command line name (case-insensitive)
+     * @throws IllegalArgumentException if there is no such method
+     */
+    public static DistanceMethod fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+    
+    /**
+     * @return the method with the given identifier, or null if there is none
+     */
+    public static DistanceMethod fromId(int id) {
+        for (DistanceMethod method : values()) {
+            if (method.id == id) {
+                return method;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Walks a path point by point
+     */
+    public interface Cursor {
+        /**
+         * Moves to the next point of the path
+         * @return distance in meters from the previous point, or 0 for the first point
+         */
+        double next(double latitude, double longitude);
+    }
+    
+    /**
+     * Same arithmetic as GPXElevationProfile.haversineDistance, so results match
+     * it bit for bit, but the cosine of each latitude is computed only once
+     */
+    private static class HaversineCursor implements Cursor {
+        private boolean started;
+        private double previousLat;
+        private double previousLon;
+        private double previousCos;
+        
+        @Override
+        public double next(double latitude, double longitude) {
+            double cosLat = Math.cos(Math.toRadians(latitude));
+            double distance = 0;
+            
+            if (started) {
+                double dLat = Math.toRadians(latitude - previousLat);
+                double dLon = Math.toRadians(longitude - previousLon);
+                double sinLat = Math.sin(dLat / 2);
+                double sinLon = Math.sin(dLon / 2);
+                
+                double a = sinLat * sinLat + previousCos * cosLat * sinLon * sinLon;
+                double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+                distance = EARTH_RADIUS * c;
+            }
+            
+            started = true;
+            previousLat = latitude;
+            previousLon = longitude;
+            previousCos = cosLat;
+            return distance;
+        }
+    }
+    
+    /**
+     * Vincenty's inverse formula on WGS-84. The reduced latitude of the previous
+     * point is kept; nearly antipodal pairs, where the iteration does not
+     * converge, fall back to the haversine distance.
+     */
+    private static class VincentyCursor implements Cursor {
+        private static final double A = 6378137.0;
+        private static final double F = 1 / 298.257223563;
+        private static final double B = (1 - F) * A;
+        private static final int MAX_ITERATIONS = 200;
+        
+        private boolean started;
+        private double previousLat;
+        private double previousLon;
+        private double previousSinU;
+        private double previousCosU;
+        
+        @Override
+        public double next(double latitude, double longitude) {
+            double u = Math.atan((1 - F) * Math.tan(Math.toRadians(latitude)));
+            double sinU = Math.sin(u);
+            double cosU = Math.cos(u);
+            double distance = 0;
+            
+            if (started) {
+                distance = inverse(previousSinU, previousCosU, sinU, cosU,
+                                   Math.toRadians(longitude - previousLon));
+                if (Double.isNaN(distance)) {
+                    distance = GPXElevationProfile.haversineDistance(
+                        previousLat, previousLon, latitude, longitude);
+                }
+            }
+            
+            started = true;
+            previousLat = latitude;
+            previousLon = longitude;
+            previousSinU = sinU;
+            previousCosU = cosU;
+            return distance;
+        }
+        
+        /**
+         * @return the geodesic distance, or NaN if the iteration does not converge
+         */
+        private static double inverse(double sinU1, double cosU1, double sinU2, double cosU2,
+                                      double L) {
+            double lambda = L;
+            double sinSigma;
+            double cosSigma;
+            double sigma;
+            double cosSqAlpha;
+            double cos2SigmaM;
+            
+            for (int iteration = 0; ; iteration++) {
+                if (iteration == MAX_ITERATIONS) {
+                    return Double.NaN;
+                }
+                double sinLambda = Math.sin(lambda);
+                double cosLambda = Math.cos(lambda);
+                double t1 = cosU2 * sinLambda;
+                double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+                sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+                if (sinSigma == 0) {
+                    return 0; // coincident points
+                }
+                cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+                sigma = Math.atan2(sinSigma, cosSigma);
+                double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+                cosSqAlpha = 1 - sinAlpha * sinAlpha;
+                // Both points on the equator: cos2SigmaM is undefined and unused
+                cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+                double C = F / 16 * cosSqAlpha * (4 + F * (4 - 3 * cosSqAlpha));
+                
+                double previousLambda = lambda;
+                lambda = L + (1 - C) * F * sinAlpha
+                    * (sigma + C * sinSigma
+                       * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+                if (Math.abs(lambda - previousLambda) <= 1e-12) {
+                    break;
+                }
+            }
+            
+            double uSq = cosSqAlpha * (A * A - B * B) / (B * B);
+            double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+            double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+            double deltaSigma = bigB * sinSigma
+                * (cos2SigmaM + bigB / 4
+                   * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                      - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma)
+                        * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+            return B * bigA * (sigma - deltaSigma);
+        }
+    }
+    
+    /**
+     * For small steps sin(x) ~ x and asin(h) ~ h, so the haversine formula reduces to
+     * R * sqrt(dLat^2 + cos(lat1) * cos(lat2) * dLon^2). With both deltas at most
+     * 0.001 rad the neglected terms are below 1e-7 of the distance.
+     */
+    private static class FastCursor implements Cursor {
+        private static final double MAX_DELTA = 0.001; // radians
+        
+        private boolean started;
+        private double previousLat;
+        private double previousLon;
+        private double previousCos;
+        
+        @Override
+        public double next(double latitude, double longitude) {
+            double cosLat = Math.cos(Math.toRadians(latitude));
+            double distance = 0;
+            
+            if (started) {
+                double dLat = Math.toRadians(latitude - previousLat);
+                double dLon = Math.toRadians(longitude - previousLon);
+                
+                if (Math.abs(dLat) <= MAX_DELTA && Math.abs(dLon) <= MAX_DELTA) {
+                    distance = EARTH_RADIUS
+                        * Math.sqrt(dLat * dLat + previousCos * cosLat * dLon * dLon);
+                } else {
+                    distance = GPXElevationProfile.haversineDistance(
+                        previousLat, previousLon, latitude, longitude);
+                }
+            }
+            
+            started = true;
+            previousLat = latitude;
+            previousLon = longitude;
+            previousCos = cosLat;
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Terrain heights from SRTM .hgt tiles in a local directory
+ *
+ * A tile covers one degree of latitude and longitude and is named after its
+ * south-west corner: N44W094.hgt covers 44 to 45 N and 94 to 93 W. It is a square
+ * grid of big-endian 16-bit heights in meters, in rows from north to south, with
+ * 1201 samples a side for 3 arc-second tiles and 3601 for 1 arc-second tiles.
+ * Heights between samples are interpolated bilinearly, leaving out void samples
+ * (-32768).
+ *
+ * Tiles are memory-mapped when first needed and kept in an LRU cache up to a
+ * byte budget. An evicted tile is unmapped by the garbage collector once no
+ * lookup still holds it. Missing tiles are remembered as well, so the directory
+ * is searched for each tile only once. Nothing is downloaded.
+ */
+public class ElevationModel {
+    
+    public static final int DEFAULT_CACHE_MB = 256;
+    
+    private static final short VOID = -32768;
+    private static final Tile MISSING = new Tile(0, 0, null, 0);
+    
+    private final File directory;
+    private final long budgetBytes;
+    private final Map<Integer, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes;
+    
+    /**
+     * @param directory directory holding the .hgt tiles
+     * @param budgetBytes mapped bytes kept in the cache; the tile in use is
+     *                    always kept, even if it alone is larger
+     */
+    public ElevationModel(File directory, long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+    }
+    
+    /**
+     * @return the terrain height at a point in meters, or NaN if no tile covers it
+     *         or the samples around it are voids
+     */
+    public double elevation(double lat, double lon) {
+        Tile tile = tile(tileKey(lat, lon));
+        return tile != MISSING ? tile.height(lat, lon) : Double.NaN;
+    }
+    
+    /**
+     * Replaces the altitude of every point of a track that a tile covers with the
+     * terrain height there; other points keep their GPS altitude. The points are
+     * taken in runs lying in one tile, each looked up in the cache once.
+     * @return the number of points corrected
+     */
+    public int correct(TrackBuffer track) {
+        Metrics.Span span = Metrics.begin(Metrics.Stage.DEM);
+        double[] latitudes = track.latitudes();
+        double[] longitudes = track.longitudes();
+        int size = track.size();
+        int corrected = 0;
+        
+        int from = 0;
+        while (from < size) {
+            int key = tileKey(latitudes[from], longitudes[from]);
+            int to = from + 1;
+            while (to < size && tileKey(latitudes[to], longitudes[to]) == key) {
+                to++;
+            }
+            
+            Tile tile = tile(key);
+            if (tile != MISSING) {
+                for (int i = from; i < to; i++) {
+                    double height = tile.height(latitudes[i], longitudes[i]);
+                    if (!Double.isNaN(height)) {
+                        track.setAltitude(i, height);
+                        corrected++;
+                    }
+                }
+            }
+            from = to;
+        }
+        
+        span.end(size, 0, 0);
+        return corrected;
+    }
+    
+    /**
+     * @return the key of the one-degree tile holding a point
+     */
+    private static int tileKey(double lat, double lon) {
+        int south = Math.min((int) Math.floor(lat), 89);
+        int west = Math.min((int) Math.floor(lon), 179);
+        return (south + 90) * 360 + (west + 180);
+    }
+    
+    /**
+     * @return the tile of a key from the cache, mapping it if needed, or MISSING
+     */
+    private synchronized Tile tile(int key) {
+        Tile tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        
+        int south = key / 360 - 90;
+        int west = key % 360 - 180;
+        tile = load(south, west);
+        tiles.put(key, tile);
+        mappedBytes += tile.bytes();
+        
+        // Evict the least recently used tiles, never the one just loaded
+        Iterator<Tile> eldest = tiles.values().iterator();
+        while (mappedBytes > budgetBytes && tiles.size() > 1) {
+            Tile evicted = eldest.next();
+            if (evicted == tile) {
+                break;
+            }
+            mappedBytes -= evicted.bytes();
+            eldest.remove();
+        }
+        return tile;
+    }
+    
+    private Tile load(int south, int west) {
+        String name = String.format("%s%02d%s%03d", south >= 0 ? "N" : "S", Math.abs(south),
+                                    west >= 0 ? "E" : "W", Math.abs(west));
+        File file = new File(directory, name + ".hgt");
+        if (!file.isFile()) {
+            file = new File(directory, name + ".HGT");
+            if (!file.isFile()) {
+                return MISSING;
+            }
+        }
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            int side = (int) Math.round(Math.sqrt(length / 2.0));
+            if (side < 2 || 2L * side * side != length) {
+                System.err.println("Warning: ignoring DEM tile " + file.getName()
+                                   + ": not a square grid of 16-bit samples");
+                return MISSING;
+            }
+            // Heights are big-endian, the byte order of a new buffer
+            MappedByteBuffer samples = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new Tile(south, west, samples, side);
+        } catch (IOException e) {
+            System.err.println("Warning: could not map DEM tile " + file.getName() + ": "
+                               + e.getMessage());
+            return MISSING;
+        }
+    }
+    
+    /**
+     * One mapped one-degree tile
+     */
+    private static class Tile {
+        private final int south;
+        private final int west;
+        private final MappedByteBuffer samples;
+        private final int side;
+        
+        Tile(int south, int west, MappedByteBuffer samples, int side) {
+            this.south = south;
+            this.west = west;
+            this.samples = samples;
+            this.side = side;
+        }
+        
+        long bytes() {
+            return 2L * side * side;
+        }
+        
+        /**
+         * @return the height interpolated from the four samples around a point,
+         *         or NaN if all of them are voids
+         */
+        double height(double lat, double lon) {
+            double row = (south + 1 - lat) * (side - 1);
+            double column = (lon - west) * (side - 1);
+            int r = Math.max(0, Math.min((int) row, side - 2));
+            int c = Math.max(0, Math.min((int) column, side - 2));
+            double fr = row - r;
+            double fc = column - c;
+            
+            double sum = 0;
+            double weights = 0;
+            int index = r * side + c;
+            for (int corner = 0; corner < 4; corner++) {
+                int down = corner >> 1;
+                int right = corner & 1;
+                short sample = samples.getShort(2 * (index + down * side + right));
+                if (sample != VOID) {
+                    double weight = (down == 1 ? fr : 1 - fr) * (right == 1 ? fc : 1 - fc);
+                    sum += weight * sample;
+                    weights += weight;
+                }
+            }
+            return weights > 0 ? sum / weights : Double.NaN;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package com.github.ledlogic.gpxanalyzer;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
@@ -10,17 +10,21 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.time.Instant;
-import java.time.ZonedDateTime;
-import java.time.ZoneId;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Simple plotting component for elevation profiles
@@ -33,89 +37,431 @@ import java.util.List;
 public class ElevationPlotter extends JPanel implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    private List<TrackPoint> points;
-    private static final int PADDING = 60;
+    private TrackBuffer track;
+    private static final int PADDING = ChartLayout.PADDING;
+    // Panel color of the default look and feel, for charts drawn without Swing
+    static final Color BACKGROUND = new Color(238, 238, 238);
     private String filename; // Name to display in title
     
+    // Altitude range of the whole track, computed once
+    private double trackMinAlt;
+    private double trackMaxAlt;
+    
+    // Decimated series for the current plot width, reused between repaints
+    private transient DecimatedSeries series;
+    private transient int seriesColumns = -1;
+    
+    // Visible distance window; the whole track unless zoomed
+    private double viewMinDist;
+    private double viewMaxDist;
+    
+    // Zoom and pan support, set up by enableZoomAndPan()
+    private transient MinMaxPyramid pyramid;
+    private transient volatile BufferedImage frame; // last chart rendered off the EDT
+    private transient long frameKey; // view and size the frame was rendered for
+    private transient volatile long requestedKey;
+    private transient int dragStartX;
+    private transient double dragStartMinDist;
+    
+    // Follow mode, set up by enableLiveUpdates(). The axes grow in steps, so new
+    // points usually only need the strip of the plot they cover repainted.
+    private transient boolean live;
+    private transient LiveSeries liveSeries; // rebuilt when the axes or the width change
+    private transient int liveSize; // points shown so far
+    private double axisMinAlt;
+    private double axisMaxAlt;
+    
+    private static final double ZOOM_STEP = 1.25; // per mouse wheel notch
+    private static final double MIN_VIEW_SPAN = 1.0; // meters
+    private static final double LIVE_HEADROOM = 1.25; // axis extent per track extent
+    private static final int LIVE_REPAINT_MARGIN = 8; // pixels, covers the end marker
+    private static final int CLIP_MARGIN = 16; // pixels, covers line joins and antialiasing
+    
+    // Renders zoomed/panned frames for all interactive plotters off the EDT
+    private static ExecutorService frameRenderer;
+    
     public ElevationPlotter(List<TrackPoint> points, String filename) {
-        this.points = points;
+        this(points != null ? TrackBuffer.fromPoints(points) : null, filename);
+    }
+    
+    public ElevationPlotter(TrackBuffer track, String filename) {
+        this.track = track;
         this.filename = filename;
         setPreferredSize(new Dimension(1000, 600));
+        
+        if (track != null) {
+            TrackStatistics stats = track.statistics();
+            trackMinAlt = stats.minAltitude();
+            trackMaxAlt = stats.maxAltitude();
+            viewMaxDist = track.totalDistance();
+        }
+    }
+    
+    /**
+     * Turns on mouse wheel zoom (around the cursor), drag to pan and double-click
+     * to reset. Builds a min/max pyramid so any window renders in time proportional
+     * to the plot width, and renders frames on a background thread; the EDT only
+     * copies finished frames to the screen.
+     */
+    public void enableZoomAndPan() {
+        if (track == null || track.isEmpty() || pyramid != null) {
+            return;
+        }
+        pyramid = new MinMaxPyramid(track);
+        
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                double factor = Math.pow(ZOOM_STEP, e.getPreciseWheelRotation());
+                zoom(factor, e.getX());
+            }
+            
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStartX = e.getX();
+                dragStartMinDist = viewMinDist;
+            }
+            
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                double metersPerPixel = (viewMaxDist - viewMinDist) 
+                                        / Math.max(1, getWidth() - 2 * PADDING);
+                setView(dragStartMinDist - (e.getX() - dragStartX) * metersPerPixel,
+                        viewMaxDist - viewMinDist);
+            }
+            
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    setView(0, track.totalDistance());
+                }
+            }
+        };
+        addMouseWheelListener(mouse);
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+    
+    /**
+     * Turns on follow mode for a track that is still growing. The plot keeps
+     * showing the whole track; call {@link #pointsAppended()} after adding points.
+     */
+    public void enableLiveUpdates() {
+        live = true;
+        liveSize = 0;
+        trackMinAlt = Double.POSITIVE_INFINITY;
+        trackMaxAlt = Double.NEGATIVE_INFINITY;
+        pointsAppended();
+    }
+    
+    /**
+     * Shows the points added to the track since the last call; must be called on
+     * the EDT. Only the strip of the plot covered by the new points is repainted,
+     * unless they run past the axes, which are then extended.
+     */
+    public void pointsAppended() {
+        int from = liveSize;
+        int to = track.size();
+        if (!live || to <= from) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            trackMinAlt = Math.min(trackMinAlt, track.altitude(i));
+            trackMaxAlt = Math.max(trackMaxAlt, track.altitude(i));
+        }
+        liveSize = to;
+        
+        if (from == 0 || track.totalDistance() > viewMaxDist
+                || trackMinAlt < axisMinAlt || trackMaxAlt > axisMaxAlt) {
+            extendLiveAxes();
+            liveSeries = null;
+            repaint();
+            return;
+        }
+        if (liveSeries != null) {
+            liveSeries.append(track, from, to);
+        }
+        
+        double metersPerPixel = viewMaxDist / Math.max(1, getWidth() - 2 * PADDING);
+        int x0 = PADDING + (int) (track.distanceFromStart(from - 1) / metersPerPixel);
+        int x1 = PADDING + (int) Math.ceil(track.distanceFromStart(to - 1) / metersPerPixel);
+        repaint(x0 - LIVE_REPAINT_MARGIN, 0, x1 - x0 + 2 * LIVE_REPAINT_MARGIN, getHeight());
+    }
+    
+    /**
+     * Sets the axes to the track extent plus headroom, rounded to a 1-2-5 step
+     */
+    private void extendLiveAxes() {
+        viewMinDist = 0;
+        viewMaxDist = niceCeiling(Math.max(track.totalDistance() * LIVE_HEADROOM, 100));
+        double altRange = Math.max(trackMaxAlt - trackMinAlt, 10);
+        axisMinAlt = trackMinAlt - altRange * (LIVE_HEADROOM - 1);
+        axisMaxAlt = trackMaxAlt + altRange * (LIVE_HEADROOM - 1);
+    }
+    
+    private static double niceCeiling(double value) {
+        double magnitude = Math.pow(10, Math.floor(Math.log10(value)));
+        for (double step : new double[] {1, 2, 5, 10}) {
+            if (step * magnitude >= value) {
+                return step * magnitude;
+            }
+        }
+        return 10 * magnitude;
+    }
+    
+    /**
+     * Zooms the view by factor (above 1 zooms out), keeping the distance under
+     * pixel x in place
+     */
+    private void zoom(double factor, int x) {
+        double span = viewMaxDist - viewMinDist;
+        double fraction = (x - PADDING) / (double) Math.max(1, getWidth() - 2 * PADDING);
+        fraction = Math.max(0, Math.min(1, fraction));
+        double anchor = viewMinDist + span * fraction;
+        double newSpan = span * factor;
+        setView(anchor - newSpan * fraction, newSpan);
+    }
+    
+    /**
+     * Moves the view to [minDist, minDist + span], kept within the track
+     */
+    private void setView(double minDist, double span) {
+        double total = track.totalDistance();
+        span = Math.max(Math.min(span, total), Math.min(MIN_VIEW_SPAN, total));
+        minDist = Math.max(0, Math.min(minDist, total - span));
+        viewMinDist = minDist;
+        viewMaxDist = minDist + span;
+        repaint();
+    }
+    
+    /**
+     * Returns the series to draw at a width, decimating only when the width
+     * changes
+     */
+    private DecimatedSeries seriesForWidth(int width, double minDist, double maxDist) {
+        int columns = Math.max(1, width - 2 * PADDING);
+        if (live) {
+            if (liveSeries == null || liveSeries.columns != columns) {
+                liveSeries = new LiveSeries(maxDist, columns);
+                liveSeries.append(track, 0, liveSize);
+            }
+            return liveSeries.series(track);
+        }
+        if (pyramid != null) {
+            // Views change constantly; the pyramid makes them cheap to rebuild, and
+            // leaves the cache below to charts drawn on the calling thread
+            return DecimatedSeries.fromPyramid(track, pyramid, minDist, maxDist, columns);
+        }
+        if (series == null || seriesColumns != columns) {
+            series = DecimatedSeries.minMax(track, minDist, maxDist, columns);
+            seriesColumns = columns;
+        }
+        return series;
     }
     
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
-                           RenderingHints.VALUE_ANTIALIAS_ON);
         
-        if (points == null || points.isEmpty()) {
-            g2.drawString("No data to display", getWidth() / 2 - 50, getHeight() / 2);
+        if (pyramid == null) {
+            paintChart((Graphics2D) g, view(getWidth(), getHeight()));
             return;
         }
         
+        // Interactive mode: show the latest frame and render a new one if it is stale
+        BufferedImage current = frame;
+        if (current != null) {
+            g.drawImage(current, 0, 0, null);
+        }
+        long key = viewKey();
+        if (current == null || frameKey != key) {
+            requestFrame(key);
+        }
+    }
+    
+    private long viewKey() {
+        long key = Double.doubleToLongBits(viewMinDist);
+        key = 31 * key + Double.doubleToLongBits(viewMaxDist);
+        key = 31 * key + getWidth();
+        return 31 * key + getHeight();
+    }
+    
+    /**
+     * Renders the current view on the background thread, then repaints with it.
+     * The view is captured here on the EDT; the render thread only reads it and
+     * the track.
+     */
+    private void requestFrame(long key) {
+        if (requestedKey == key) {
+            return; // already queued or rendering
+        }
+        requestedKey = key;
+        
+        ChartView view = view(Math.max(1, getWidth()), Math.max(1, getHeight()));
+        Color background = getBackground();
+        
+        renderer().execute(() -> {
+            if (requestedKey != key) {
+                return; // superseded by a newer view
+            }
+            BufferedImage image = new BufferedImage(view.layout.width, view.layout.height,
+                                                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = image.createGraphics();
+            g2.setColor(background);
+            g2.fillRect(0, 0, view.layout.width, view.layout.height);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                               RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            paintChart(g2, view);
+            g2.dispose();
+            
+            SwingUtilities.invokeLater(() -> {
+                frame = image;
+                frameKey = key;
+                repaint();
+            });
+        });
+    }
+    
+    private static synchronized ExecutorService renderer() {
+        if (frameRenderer == null) {
+            frameRenderer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "elevation-render");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return frameRenderer;
+    }
+    
+    /**
+     * Captures the current view at a size, with its axis ranges and series
+     */
+    private ChartView view(int width, int height) {
+        double minDist = viewMinDist;
+        double maxDist = viewMaxDist;
+        if (track == null || track.isEmpty()) {
+            return new ChartView(new ChartLayout(width, height, minDist, maxDist, 0, 0),
+                                 false, 0, -1, null, false);
+        }
+        
         // Calculate min/max values
-        double minDist = 0;
-        double maxDist = points.get(points.size() - 1).distanceFromStart;
-        double minAlt = Double.MAX_VALUE;
-        double maxAlt = Double.MIN_VALUE;
-        
-        for (TrackPoint point : points) {
-            minAlt = Math.min(minAlt, point.altitude);
-            maxAlt = Math.max(maxAlt, point.altitude);
+        boolean zoomed = !live && (minDist > 0 || maxDist < track.totalDistance());
+        int firstIndex = 0;
+        int lastIndex = track.size() - 1;
+        double minAlt = trackMinAlt;
+        double maxAlt = trackMaxAlt;
+        
+        if (zoomed && pyramid != null) {
+            // Fit the altitude axis to the visible points
+            firstIndex = DecimatedSeries.lowerBound(track.distances(), track.size(), minDist);
+            lastIndex = DecimatedSeries.lowerBound(track.distances(), track.size(), 
+                                                   Math.nextUp(maxDist)) - 1;
+            if (firstIndex <= lastIndex) {
+                int[] extremes = new int[2];
+                pyramid.rangeExtremes(firstIndex, lastIndex, extremes);
+                minAlt = track.altitude(extremes[0]);
+                maxAlt = track.altitude(extremes[1]);
+            }
         }
         
-        // Add some padding to altitude range
-        double altRange = maxAlt - minAlt;
-        minAlt -= altRange * 0.1;
-        maxAlt += altRange * 0.1;
+        ChartLayout layout = live 
+            ? new ChartLayout(width, height, minDist, maxDist, axisMinAlt, axisMaxAlt)
+            : ChartLayout.withAltitudeMargin(width, height, minDist, maxDist, minAlt, maxAlt);
+        return new ChartView(layout, zoomed, firstIndex, lastIndex,
+                             seriesForWidth(width, minDist, maxDist), live);
+    }
+    
+    /**
+     * Draws the whole chart for a view; reads only the view and the track, so
+     * it may run off the EDT
+     */
+    private void paintChart(Graphics2D g2, ChartView view) {
+        ChartLayout layout = view.layout;
+        int chartWidth = layout.width;
+        int chartHeight = layout.height;
+        double minDist = layout.minDist;
+        double maxDist = layout.maxDist;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+        
+        if (view.series == null) {
+            g2.drawString("No data to display", chartWidth / 2 - 50, chartHeight / 2);
+            return;
+        }
         
         // Draw axes
         g2.setColor(Color.BLACK);
         g2.setStroke(new BasicStroke(2));
         
         // Y-axis
-        g2.drawLine(PADDING, PADDING, PADDING, getHeight() - PADDING);
+        g2.drawLine(PADDING, PADDING, PADDING, layout.bottom());
         // X-axis
-        g2.drawLine(PADDING, getHeight() - PADDING, 
-                   getWidth() - PADDING, getHeight() - PADDING);
+        g2.drawLine(PADDING, layout.bottom(), chartWidth - PADDING, layout.bottom());
         
         // Draw grid and labels
-        drawGrid(g2, minDist, maxDist, minAlt, maxAlt);
+        drawGrid(g2, layout);
         
-        // Draw elevation profile
+        // Draw elevation profile, reduced to at most two vertices per pixel column
         g2.setColor(new Color(70, 130, 180));
         g2.setStroke(new BasicStroke(2));
         
-        Path2D path = new Path2D.Double();
-        boolean first = true;
+        DecimatedSeries series = view.series;
+        if (series.size == 0) {
+            return;
+        }
+        int size = series.size;
+        double[] distances = series.distance;
+        double[] altitudes = series.altitude;
         
-        for (TrackPoint point : points) {
-            double x = scaleX(point.distanceFromStart, minDist, maxDist);
-            double y = scaleY(point.altitude, minAlt, maxAlt);
-            
-            if (first) {
-                path.moveTo(x, y);
-                first = false;
-            } else {
-                path.lineTo(x, y);
-            }
+        // Only the points across the clip are drawn, e.g. in a repainted strip or
+        // a tile of a poster; the rest could not change its pixels
+        int from = 0;
+        int to = size;
+        Rectangle bounds = g2.getClipBounds();
+        if (bounds != null && maxDist > minDist) {
+            double perPixel = (maxDist - minDist) / (chartWidth - 2 * PADDING);
+            double left = minDist + (bounds.x - CLIP_MARGIN - PADDING) * perPixel;
+            double right = minDist + (bounds.x + bounds.width + CLIP_MARGIN - PADDING) * perPixel;
+            from = Math.max(0, DecimatedSeries.lowerBound(distances, size, left) - 1);
+            to = Math.min(size, DecimatedSeries.lowerBound(distances, size, right) + 1);
+        }
+        
+        Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, to - from);
+        path.moveTo(layout.scaleX(distances[from]), layout.scaleY(altitudes[from]));
+        
+        for (int i = from + 1; i < to; i++) {
+            path.lineTo(layout.scaleX(distances[i]), layout.scaleY(altitudes[i]));
+        }
+        
+        // Points just outside a zoomed window must not spill over the axes
+        Shape clip = g2.getClip();
+        if (view.zoomed) {
+            g2.clipRect(PADDING, PADDING, chartWidth - 2 * PADDING, chartHeight - 2 * PADDING);
         }
         
         g2.draw(path);
         
         // Fill area under the curve
         Path2D fillPath = new Path2D.Double(path);
-        fillPath.lineTo(scaleX(maxDist, minDist, maxDist), getHeight() - PADDING);
-        fillPath.lineTo(scaleX(minDist, minDist, maxDist), getHeight() - PADDING);
+        // The live axis runs past the track
+        double fillEnd = view.live ? distances[size - 1] : maxDist;
+        double fillStart = minDist;
+        if (to < size) {
+            fillEnd = distances[to - 1]; // left out points are beyond the clip
+        }
+        if (from > 0) {
+            fillStart = distances[from];
+        }
+        fillPath.lineTo(layout.scaleX(fillEnd), layout.bottom());
+        fillPath.lineTo(layout.scaleX(fillStart), layout.bottom());
         fillPath.closePath();
         
         g2.setColor(new Color(70, 130, 180, 50));
         g2.fill(fillPath);
+        g2.setClip(clip);
         
         // Draw data points and timestamps
-        drawDataPointsAndTimestamps(g2, minDist, maxDist, minAlt, maxAlt);
+        drawDataPointsAndTimestamps(g2, view);
         
         // Draw title
         g2.setColor(Color.BLACK);
@@ -125,31 +471,30 @@ public class ElevationPlotter extends JPanel implements Serializable {
                       : "Elevation Profile";
         FontMetrics fm = g2.getFontMetrics();
         int titleWidth = fm.stringWidth(title);
-        g2.drawString(title, (getWidth() - titleWidth) / 2, 30);
+        g2.drawString(title, (chartWidth - titleWidth) / 2, 30);
     }
     
-    private void drawGrid(Graphics2D g2, double minDist, double maxDist, 
-                         double minAlt, double maxAlt) {
+    private void drawGrid(Graphics2D g2, ChartLayout layout) {
         g2.setColor(Color.LIGHT_GRAY);
         g2.setStroke(new BasicStroke(1));
         Font labelFont = new Font("Arial", Font.PLAIN, 10);
         g2.setFont(labelFont);
         
         // Draw horizontal grid lines and Y-axis labels (altitude)
-        int numYDivisions = 8;
-        for (int i = 0; i <= numYDivisions; i++) {
-            double alt = minAlt + (maxAlt - minAlt) * i / numYDivisions;
-            int y = (int) scaleY(alt, minAlt, maxAlt);
+        for (int i = 0; i <= ChartLayout.ALTITUDE_DIVISIONS; i++) {
+            double alt = layout.altitudeTick(i);
+            int y = (int) layout.scaleY(alt);
             
             // Grid line
-            g2.drawLine(PADDING, y, getWidth() - PADDING, y);
+            g2.drawLine(PADDING, y, layout.width - PADDING, y);
             
             // Label
-            String label = String.format("%.2f m", alt);
+            String label = ChartLayout.altitudeLabel(alt);
             FontMetrics fm = g2.getFontMetrics();
             int labelWidth = fm.stringWidth(label);
             g2.setColor(Color.BLACK);
-            g2.drawString(label, PADDING - labelWidth - 10, y + 5);
+            g2.drawString(label, ChartLayout.altitudeLabelRight() - labelWidth,
+                          ChartLayout.altitudeLabelBaseline(y));
             g2.setColor(Color.LIGHT_GRAY);
         }
         
@@ -158,147 +503,164 @@ public class ElevationPlotter extends JPanel implements Serializable {
         g2.setFont(new Font("Arial", Font.BOLD, 12));
         AffineTransform orig = g2.getTransform();
         g2.rotate(-Math.PI / 2);
-        g2.drawString("Altitude (meters)", -getHeight() / 2 - 50, 20);
+        g2.drawString(ChartLayout.ALTITUDE_TITLE, layout.altitudeTitleX(), 20);
         g2.setTransform(orig);
         g2.setFont(labelFont);
         
-        // Draw vertical grid lines and X-axis labels (distance)
-        int numXDivisions = 10;
-        boolean useMeters = maxDist < 1000; // Use meters if total distance < 1km
-        
-        for (int i = 0; i <= numXDivisions; i++) {
-            double dist = minDist + (maxDist - minDist) * i / numXDivisions;
-            int x = (int) scaleX(dist, minDist, maxDist);
+        // Draw vertical grid lines and X-axis labels (distance), in meters or km
+        for (int i = 0; i <= ChartLayout.DISTANCE_DIVISIONS; i++) {
+            double dist = layout.distanceTick(i);
+            int x = (int) layout.scaleX(dist);
             
             // Grid line
             g2.setColor(Color.LIGHT_GRAY);
-            g2.drawLine(x, PADDING, x, getHeight() - PADDING);
+            g2.drawLine(x, PADDING, x, layout.bottom());
             
-            // Label - format based on distance
-            String label;
-            if (useMeters) {
-                label = String.format("%.2f m", dist);
-            } else {
-                label = String.format("%.2f km", dist / 1000.0);
-            }
+            // Label
+            String label = layout.distanceLabel(dist);
             FontMetrics fm = g2.getFontMetrics();
             int labelWidth = fm.stringWidth(label);
             g2.setColor(Color.BLACK);
-            g2.drawString(label, x - labelWidth / 2, getHeight() - PADDING + 20);
+            g2.drawString(label, x - labelWidth / 2, layout.distanceLabelBaseline());
         }
         
         // X-axis title - adjust based on units
         g2.setFont(new Font("Arial", Font.BOLD, 12));
-        String xTitle = useMeters ? "Distance (meters)" : "Distance (kilometers)";
+        String xTitle = layout.distanceTitle();
         FontMetrics fm = g2.getFontMetrics();
         int xTitleWidth = fm.stringWidth(xTitle);
-        g2.drawString(xTitle, (getWidth() - xTitleWidth) / 2, getHeight() - 10);
+        g2.drawString(xTitle, (layout.width - xTitleWidth) / 2, layout.distanceTitleBaseline());
     }
     
-    private void drawDataPointsAndTimestamps(Graphics2D g2, double minDist, double maxDist,
-                                             double minAlt, double maxAlt) {
-        if (points == null || points.isEmpty()) {
+    private void drawDataPointsAndTimestamps(Graphics2D g2, ChartView view) {
+        ChartLayout layout = view.layout;
+        int firstIndex = view.firstIndex;
+        int lastIndex = view.lastIndex;
+        if (firstIndex > lastIndex) {
             return;
         }
         
+        int size = track.size();
+        int visible = lastIndex - firstIndex + 1;
+        
         // Calculate which points to show (avoid overcrowding)
-        int pointsToShow = Math.min(points.size(), 15); // Max 15 timestamps for readability
-        int interval = Math.max(1, points.size() / pointsToShow);
+        int interval = ChartLayout.labelInterval(visible);
         
         // Draw dots and timestamps for selected points
         g2.setFont(new Font("Arial", Font.BOLD, 11)); // Larger, bold font
         
-        for (int i = 0; i < points.size(); i += interval) {
-            TrackPoint point = points.get(i);
-            
-            double x = scaleX(point.distanceFromStart, minDist, maxDist);
-            double y = scaleY(point.altitude, minAlt, maxAlt);
+        // Evenly spaced labels would all move as a live track grows
+        for (int i = firstIndex; !view.live && i <= lastIndex; i += interval) {
+            double x = layout.scaleX(track.distanceFromStart(i));
+            double y = layout.scaleY(track.altitude(i));
             
             // Draw larger dot at data point
             g2.setColor(new Color(70, 130, 180));
             g2.fillOval((int)(x - 4), (int)(y - 4), 8, 8);
             
             // Draw timestamp and elevation if available
-            if (point.timestamp != null) {
-                String timeStr = formatTimeWithElevation(point.timestamp, point.altitude);
+            if (track.hasTimestamp(i)) {
+                String timeStr = ChartLayout.formatTimeWithElevation(track.timestamp(i),
+                                                                     track.altitude(i));
                 
-                // Draw background for better readability
+                // Position text above point, or below it near the top of the chart
                 FontMetrics fm = g2.getFontMetrics();
-                int textWidth = fm.stringWidth(timeStr);
-                int textHeight = fm.getHeight();
-                
-                // Position text above point
-                int textX = (int)x - textWidth / 2;
-                int textY = (int)y - 12; // Further above point
-                
-                // If near top of chart, place below instead
-                if (textY - textHeight < PADDING + 10) {
-                    textY = (int)y + textHeight + 8;
-                }
+                ChartLayout.Label label = ChartLayout.timestampLabel(x, y, fm.stringWidth(timeStr),
+                                                                     fm.getHeight());
                 
                 // Draw semi-transparent white background (no border)
                 g2.setColor(new Color(255, 255, 255, 220));
-                g2.fillRect(textX - 3, textY - textHeight + 2, textWidth + 6, textHeight + 2);
+                g2.fillRect(label.boxX, label.boxY, label.boxWidth, label.boxHeight);
                 
                 // Draw text in dark color (no border around box)
                 g2.setColor(new Color(0, 0, 0));
-                g2.drawString(timeStr, textX, textY);
+                g2.drawString(timeStr, label.x, label.baseline);
             }
         }
         
         // Always show first and last point if we have timestamps
-        if (points.size() > 1 && points.get(0).timestamp != null) {
+        // (only while they are inside the visible window)
+        if (size > 1 && track.hasTimestamp(0)) {
             // Ensure first point is marked with GREEN
-            TrackPoint first = points.get(0);
-            double x = scaleX(first.distanceFromStart, minDist, maxDist);
-            double y = scaleY(first.altitude, minAlt, maxAlt);
-            g2.setColor(new Color(0, 180, 0)); // Bright green for start
-            g2.fillOval((int)(x - 5), (int)(y - 5), 10, 10);
-            g2.setColor(new Color(0, 100, 0)); // Dark green outline
-            g2.drawOval((int)(x - 5), (int)(y - 5), 10, 10);
+            if (firstIndex == 0) {
+                double x = layout.scaleX(track.distanceFromStart(0));
+                double y = layout.scaleY(track.altitude(0));
+                g2.setColor(new Color(0, 180, 0)); // Bright green for start
+                g2.fillOval((int)(x - 5), (int)(y - 5), 10, 10);
+                g2.setColor(new Color(0, 100, 0)); // Dark green outline
+                g2.drawOval((int)(x - 5), (int)(y - 5), 10, 10);
+            }
             
             // Ensure last point is marked with RED
-            TrackPoint last = points.get(points.size() - 1);
-            x = scaleX(last.distanceFromStart, minDist, maxDist);
-            y = scaleY(last.altitude, minAlt, maxAlt);
-            g2.setColor(new Color(255, 0, 0)); // Bright red for end
-            g2.fillOval((int)(x - 5), (int)(y - 5), 10, 10);
-            g2.setColor(new Color(150, 0, 0)); // Dark red outline
-            g2.drawOval((int)(x - 5), (int)(y - 5), 10, 10);
+            if (lastIndex == size - 1) {
+                double x = layout.scaleX(track.distanceFromStart(size - 1));
+                double y = layout.scaleY(track.altitude(size - 1));
+                g2.setColor(new Color(255, 0, 0)); // Bright red for end
+                g2.fillOval((int)(x - 5), (int)(y - 5), 10, 10);
+                g2.setColor(new Color(150, 0, 0)); // Dark red outline
+                g2.drawOval((int)(x - 5), (int)(y - 5), 10, 10);
+            }
         }
     }
     
-    private String formatTimeWithElevation(Instant timestamp, double altitude) {
-        // Format as "elevation @ HH:MM" in local time zone
-        ZonedDateTime zdt = timestamp.atZone(ZoneId.systemDefault());
-        int hour = zdt.getHour();
-        String ampm = hour < 12 ? "am" : "pm";
-        int displayHour = hour == 0 ? 12 : (hour > 12 ? hour - 12 : hour);
-        return String.format("%.2f m @ %d:%02d %s", altitude, displayHour, zdt.getMinute(), ampm);
+    /**
+     * One drawing of the chart: its layout, what is visible and the series.
+     * Built from the plotter's state on the thread that owns it and only read
+     * afterwards, so a frame can be drawn from it on another thread.
+     */
+    private static final class ChartView {
+        final ChartLayout layout;
+        final boolean zoomed;
+        final int firstIndex; // visible points, for the labels
+        final int lastIndex;
+        final DecimatedSeries series; // null when there is no data
+        final boolean live;
+        
+        ChartView(ChartLayout layout, boolean zoomed, int firstIndex, int lastIndex,
+                  DecimatedSeries series, boolean live) {
+            this.layout = layout;
+            this.zoomed = zoomed;
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.series = series;
+            this.live = live;
+        }
     }
     
-    private double scaleX(double value, double min, double max) {
-        double range = max - min;
-        if (range == 0) return PADDING;
-        return PADDING + (value - min) / range * (getWidth() - 2 * PADDING);
+    public static void createAndShowGUI(List<TrackPoint> points, String filename) {
+        createAndShowGUI(TrackBuffer.fromPoints(points), filename);
     }
     
-    private double scaleY(double value, double min, double max) {
-        double range = max - min;
-        if (range == 0) return getHeight() - PADDING;
-        return getHeight() - PADDING - (value - min) / range * (getHeight() - 2 * PADDING);
+    public static void createAndShowGUI(TrackBuffer track, String filename) {
+        JFrame frame = new JFrame("Elevation Profile - " + filename);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        
+        ElevationPlotter plotter = new ElevationPlotter(track, filename);
+        plotter.enableZoomAndPan();
+        frame.add(plotter);
+        
+        frame.pack();
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
     }
     
-    public static void createAndShowGUI(List<TrackPoint> points, String filename) {
-        JFrame frame = new JFrame("Elevation Profile - " + filename);
+    /**
+     * Opens a window showing a track that is still growing; must be called on the
+     * EDT. Call {@link #pointsAppended()} on the returned plotter, on the EDT,
+     * after adding points to the track.
+     */
+    public static ElevationPlotter createLiveGUI(TrackBuffer track, String filename) {
+        JFrame frame = new JFrame("Elevation Profile - " + filename + " (following)");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         
-        ElevationPlotter plotter = new ElevationPlotter(points, filename);
+        ElevationPlotter plotter = new ElevationPlotter(track, filename);
+        plotter.enableLiveUpdates();
         frame.add(plotter);
         
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+        return plotter;
     }
     
     /**
@@ -310,30 +672,53 @@ public class ElevationPlotter extends JPanel implements Serializable {
      */
     public static void saveToPNG(List<TrackPoint> points, String filename, String outputPath) 
             throws IOException {
-        // Create the plotter component
-        ElevationPlotter plotter = new ElevationPlotter(points, filename);
-        
-        // Set size (same as GUI)
-        int width = 1000;
-        int height = 600;
-        plotter.setSize(width, height);
-        
-        // Create a BufferedImage to draw on
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = image.createGraphics();
-        
-        // Enable antialiasing for better quality
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
-                           RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                           RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        
-        // Paint the plotter onto the image
-        plotter.paint(g2);
-        g2.dispose();
-        
-        // Save the image as PNG
-        File outputFile = new File(outputPath);
-        ImageIO.write(image, "png", outputFile);
+        saveToPNG(TrackBuffer.fromPoints(points), filename, outputPath);
+    }
+    
+    /**
+     * Saves the elevation profile plot of a columnar track to a PNG file
+     * @param track The track to plot
+     * @param filename The name to display in the title
+     * @param outputPath The output file path (should end with .png)
+     * @throws IOException if the file cannot be written
+     */
+    public static void saveToPNG(TrackBuffer track, String filename, String outputPath) 
+            throws IOException {
+        new PngRenderer().save(track, filename, outputPath);
+    }
+    
+    /**
+     * Writes the elevation profile plot of a columnar track as PNG to a stream
+     * @param track The track to plot
+     * @param filename The name to display in the title
+     * @param out The stream to write to; it is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public static void writePNG(TrackBuffer track, String filename, OutputStream out) 
+            throws IOException {
+        new PngRenderer().write(track, filename, out);
+    }
+    
+    /**
+     * Saves the elevation profile plot of a columnar track to an SVG file
+     * @param track The track to plot
+     * @param filename The name to display in the title
+     * @param outputPath The output file path (should end with .svg)
+     * @throws IOException if the file cannot be written
+     */
+    public static void saveToSVG(TrackBuffer track, String filename, String outputPath) 
+            throws IOException {
+        new SvgRenderer().save(track, filename, outputPath);
+    }
+    
+    /**
+     * Draws the plot onto an image of the given size, the way the component
+     * paints itself but without going through Swing
+     */
+    void drawChart(Graphics2D g2, int width, int height) {
+        g2.setColor(BACKGROUND);
+        g2.fillRect(0, 0, width, height);
+        g2.setColor(Color.BLACK);
+        paintChart(g2, view(width, height));
     }
 }
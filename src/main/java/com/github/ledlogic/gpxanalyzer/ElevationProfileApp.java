@@ -1,10 +1,23 @@
 package com.github.ledlogic.gpxanalyzer;
 
 import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Main application for loading GPS track files and displaying elevation profiles
@@ -12,22 +25,176 @@ import java.util.List;
  */
 public class ElevationProfileApp {
     
+    // Points kept for each plot window of a run with several files; tracks up to
+    // this size are shown unchanged
+    static final int WINDOW_POINTS = 50_000;
+    
     public static void main(String[] args) {
         if (args.length < 1) {
             printUsage();
             return;
         }
         
-        String inputPath = args[0];
-        boolean showGui = true;
+        // Server mode takes no input path
+        boolean hasInput = !args[0].startsWith("--");
+        String inputPath = hasInput ? args[0] : null;
+        ProcessingOptions options = new ProcessingOptions();
         
         // Parse command line arguments
-        for (int i = 1; i < args.length; i++) {
+        for (int i = hasInput ? 1 : 0; i < args.length; i++) {
             if (args[i].equals("--no-gui")) {
-                showGui = false;
+                options.showGui = false;
+            } else if (args[i].equals("--stream")) {
+                options.streaming = true;
+            } else if (args[i].equals("--parallel-parse")) {
+                options.parallelParse = true;
+            } else if (args[i].equals("--gzip-csv")) {
+                options.gzipCsv = true;
+            } else if (args[i].equals("--csv-stats")) {
+                options.csvStatistics = true;
+            } else if (args[i].equals("--cache")) {
+                options.cache = true;
+            } else if (args[i].equals("--distance") && i + 1 < args.length) {
+                try {
+                    options.distanceMethod = DistanceMethod.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: --distance must be haversine, vincenty or fast: " 
+                                       + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--segments") && i + 1 < args.length) {
+                try {
+                    options.segmentPolicy = SegmentPolicy.fromName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: --segments must be bridge or connect: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--split-segments")) {
+                options.splitSegments = true;
+            } else if (args[i].equals("--png-size") && i + 1 < args.length) {
+                String[] size = args[++i].toLowerCase().split("x");
+                try {
+                    options.pngWidth = Integer.parseInt(size[0]);
+                    options.pngHeight = Integer.parseInt(size[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.err.println("Error: --png-size must be WIDTHxHEIGHT: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--png-compression") && i + 1 < args.length) {
+                try {
+                    options.pngCompression = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --png-compression requires a level 0-9: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--png-palette")) {
+                options.pngPalette = true;
+            } else if (args[i].equals("--plot-format") && i + 1 < args.length) {
+                String format = args[++i].toLowerCase();
+                if (!format.equals("png") && !format.equals("svg") && !format.equals("both")) {
+                    System.err.println("Error: --plot-format must be png, svg or both: " + args[i]);
+                    System.exit(1);
+                }
+                options.savePng = !format.equals("svg");
+                options.saveSvg = !format.equals("png");
+            } else if (args[i].equals("--dem") && i + 1 < args.length) {
+                options.demDirectory = args[++i];
+                if (!new File(options.demDirectory).isDirectory()) {
+                    System.err.println("Error: --dem requires a directory of .hgt tiles: " 
+                                       + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--dem-cache-mb") && i + 1 < args.length) {
+                try {
+                    options.demCacheMegabytes = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --dem-cache-mb requires a number: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--heatmap") && i + 1 < args.length) {
+                options.heatmapFile = args[++i];
+            } else if (args[i].equals("--heatmap-size") && i + 1 < args.length) {
+                try {
+                    options.heatmapSize = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --heatmap-size requires a number: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                options.metricsFile = args[++i];
+            } else if (args[i].equals("--index")) {
+                options.buildIndex = true;
+            } else if ((args[i].equals("--query-box") || args[i].equals("--query-near")) 
+                       && i + 1 < args.length) {
+                try {
+                    options.queryArea = args[i].equals("--query-box") 
+                                        ? SpatialIndex.Area.parseBox(args[i + 1])
+                                        : SpatialIndex.Area.parseNear(args[i + 1]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + args[i] + ": " + e.getMessage());
+                    System.exit(1);
+                }
+                i++;
+            } else if (args[i].equals("--follow")) {
+                options.follow = true;
+            } else if (args[i].equals("--watch")) {
+                options.watch = true;
+            } else if (args[i].equals("--serve") && i + 1 < args.length) {
+                try {
+                    options.servePort = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --serve requires a port number: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--bind") && i + 1 < args.length) {
+                options.bindAddress = args[++i];
+            } else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+                try {
+                    options.cacheMegabytes = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --cache-mb requires a number: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--memory-mb") && i + 1 < args.length) {
+                try {
+                    options.memoryMegabytes = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --memory-mb requires a number: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                try {
+                    options.threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: --threads requires a number: " + args[i]);
+                    System.exit(1);
+                }
             }
         }
         
+        try {
+            options.pngRenderer();
+            Heatmap.checkSize(options.heatmapSize);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        
+        if (options.metricsFile != null || options.servePort > 0) {
+            // Long-running modes also write the report when they are stopped
+            Metrics.enable(options.metricsFile != null ? new File(options.metricsFile) : null);
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::writeReport));
+        }
+        
+        if (options.servePort > 0) {
+            serve(options);
+            return;
+        }
+        if (inputPath == null) {
+            printUsage();
+            return;
+        }
+        
         File input = new File(inputPath);
         
         if (!input.exists()) {
@@ -35,14 +202,28 @@ public class ElevationProfileApp {
             System.exit(1);
         }
         
+        if (options.follow) {
+            followFile(input, options);
+            return;
+        }
+        
+        if (options.watch) {
+            watchDirectory(input, options);
+            return;
+        }
+        
+        if (options.buildIndex || options.queryArea != null) {
+            indexAndQuery(input, options);
+            return;
+        }
+        
         List<File> gpxFiles = new ArrayList<>();
         String outputDirectory; // Directory where CSVs and PNGs will be saved
         
         // Determine if input is a file or directory
         if (input.isDirectory()) {
             System.out.println("Processing directory: " + inputPath);
-            File[] files = input.listFiles((dir, name) -> 
-                name.toLowerCase().endsWith(".gpx"));
+            File[] files = input.listFiles((dir, name) -> GpxSource.isInput(name));
             
             if (files == null || files.length == 0) {
                 System.err.println("Error: No GPX files found in directory: " + inputPath);
@@ -55,85 +236,531 @@ public class ElevationProfileApp {
             System.out.println("Found " + gpxFiles.size() + " GPX file(s)");
         } else {
             // Single file
-            if (!inputPath.toLowerCase().endsWith(".gpx")) {
-                System.err.println("Error: File must have .gpx extension: " + inputPath);
+            if (!GpxSource.isInput(inputPath)) {
+                System.err.println("Error: File must have a .gpx, .gpx.gz, .zip or .tar.gz "
+                                   + "extension: " + inputPath);
                 System.exit(1);
             }
             gpxFiles.add(input);
             outputDirectory = input.getParent() != null ? input.getParent() : ".";
         }
         
-        System.out.println("Output directory for CSV and PNG files: " + outputDirectory);
-        System.out.println();
+        GpxInputs inputs = new GpxInputs(gpxFiles);
+        try {
+            if (options.heatmapFile != null) {
+                renderHeatmap(inputs, options);
+                return;
+            }
+            
+            System.out.println("Output directory for CSV and PNG files: " + outputDirectory);
+            System.out.println();
+            options.outputDirectory = outputDirectory;
+            
+            if (inputs.hasArchives() && !options.isBatch()) {
+                System.out.println("Tip: --threads N parses archive entries on N threads");
+                System.out.println();
+            }
+            if (options.isBatch()) {
+                new BatchProcessor(options).run(inputs);
+            } else {
+                processSequentially(inputs, options);
+            }
+        } finally {
+            try {
+                inputs.close();
+            } catch (IOException e) {
+                System.err.println("Error closing archive: " + e.getMessage());
+            }
+        }
         
-        // Process each GPX file
-        final boolean finalShowGui = showGui;
-        final String finalOutputDirectory = outputDirectory;
+        System.out.println("=".repeat(60));
+        System.out.println("Processing complete. Processed " + inputs.count() + " file(s).");
+        System.out.println("CSV and PNG files saved to: " + outputDirectory);
+        if (options.metricsFile != null) {
+            Metrics.writeReport();
+            System.out.println("Metrics saved to: " + options.metricsFile);
+        }
+        System.out.println("=".repeat(60));
+    }
+    
+    /**
+     * Runs the HTTP render service until the process is stopped
+     */
+    private static void serve(ProcessingOptions options) {
+        int threads = options.threads > 0 
+                      ? options.threads : 4 * Runtime.getRuntime().availableProcessors();
+        try {
+            InetAddress address = options.bindAddress != null 
+                                  ? InetAddress.getByName(options.bindAddress)
+                                  : InetAddress.getLoopbackAddress();
+            RenderServer server = new RenderServer(address, options.servePort, threads, 
+                                                   options.cacheMegabytes * 1024L * 1024L);
+            server.start();
+            System.out.println("Serving on http://" + server.address().getHostString() + ":"
+                               + server.port() 
+                               + "/ (POST GPX to /png, /svg, /csv or /stats; " + threads 
+                               + " handler threads, " + options.cacheMegabytes + " MB cache)");
+        } catch (IOException e) {
+            System.err.println("Error: could not start server on port " + options.servePort 
+                               + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Runs --follow on a file that is still being written until the process is
+     * stopped, printing running statistics for every batch of new points
+     */
+    private static void followFile(File input, ProcessingOptions options) {
+        if (!input.isFile()) {
+            System.err.println("Error: --follow requires a single GPX file: " + input.getPath());
+            System.exit(1);
+        }
         
-        for (File gpxFile : gpxFiles) {
-            try {
-                System.out.println("=".repeat(60));
-                System.out.println("Processing: " + gpxFile.getName());
-                System.out.println("=".repeat(60));
-                
-                List<TrackPoint> points = GPXElevationProfile.parseGPX(
-                    gpxFile.getAbsolutePath());
-                
-                System.out.println("Successfully loaded " + points.size() + " track points.");
-                
-                GPXElevationProfile.printStatistics(points);
-                
-                String baseFilename = gpxFile.getName().replace(".gpx", "");
-                
-                // Always export to CSV
-                String csvPath = new File(finalOutputDirectory, baseFilename + ".csv").getPath();
-                GPXElevationProfile.exportToCSV(points, csvPath);
-                System.out.println("Data exported to: " + csvPath);
+        TrackFollower follower = new TrackFollower(input, options.distanceMethod, 
+                                                   options.segmentPolicy);
+        TrackBuffer track = new TrackBuffer();
+        ElevationPlotter[] plotter = new ElevationPlotter[1];
+        
+        try {
+            if (options.showGui) {
+                SwingUtilities.invokeAndWait(() -> {
+                    plotter[0] = ElevationPlotter.createLiveGUI(track, baseFilename(input));
+                });
+            }
+            System.out.println("Following " + input.getPath() + " (Ctrl+C to stop)");
+            
+            follower.follow(batch -> {
+                if (plotter[0] != null) {
+                    // The track is only touched on the EDT, which also paints it
+                    SwingUtilities.invokeLater(() -> {
+                        track.append(batch);
+                        plotter[0].pointsAppended();
+                    });
+                }
                 
-                // Always save PNG plot
-                String pngPath = new File(finalOutputDirectory, baseFilename + ".png").getPath();
-                ElevationPlotter.saveToPNG(points, baseFilename, pngPath);
-                System.out.println("Plot saved to: " + pngPath);
+                TrackStatistics stats = follower.statistics();
+                double distance = stats.totalDistance();
+                String line = String.format("[follow] %d points, %s, ascent %.2f m, descent %.2f m",
+                                            stats.pointCount(),
+                                            distance < 1000
+                                                ? String.format("%.2f m", distance)
+                                                : String.format("%.2f km", distance / 1000.0),
+                                            stats.ascent(), stats.descent());
+                if (stats.hasTime()) {
+                    line += ", elapsed " 
+                            + GPXElevationProfile.formatDuration(stats.elapsedTimeMillis());
+                }
+                System.out.println(line);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Error following " + input.getPath() + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Runs the --watch daemon until the process is stopped
+     */
+    private static void watchDirectory(File input, ProcessingOptions options) {
+        if (!input.isDirectory()) {
+            System.err.println("Error: --watch requires a directory: " + input.getPath());
+            System.exit(1);
+        }
+        options.showGui = false;
+        options.outputDirectory = input.getAbsolutePath();
+        System.out.println("Output directory for CSV and PNG files: " + options.outputDirectory);
+        
+        try {
+            new DirectoryWatcher(input, options).run();
+        } catch (Exception e) {
+            System.err.println("Error watching " + input.getPath() + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Builds or updates the spatial index of a directory with --index, and lists
+     * the files and points inside the --query-box or --query-near area
+     */
+    private static void indexAndQuery(File input, ProcessingOptions options) {
+        if (!input.isDirectory()) {
+            System.err.println("Error: --index and --query-* require a directory: " 
+                               + input.getPath());
+            System.exit(1);
+        }
+        
+        try {
+            SpatialIndex index = options.buildIndex 
+                                 ? SpatialIndex.build(input, options, System.out)
+                                 : SpatialIndex.open(input);
+            if (options.queryArea == null) {
+                return;
+            }
+            
+            long searchStart = System.nanoTime();
+            List<SpatialIndex.Match> candidates = index.search(options.queryArea);
+            long searchNanos = System.nanoTime() - searchStart;
+            int runs = 0;
+            for (SpatialIndex.Match candidate : candidates) {
+                runs += candidate.ranges().size();
+            }
+            System.out.printf("Index search: %d candidate range(s) in %d of %d file(s), %.2f ms%n",
+                              runs, candidates.size(), index.fileCount(), searchNanos / 1e6);
+            
+            long queryStart = System.nanoTime();
+            List<SpatialIndex.Match> matches = index.query(options.queryArea, options);
+            System.out.printf("Decoded %d candidate file(s) in %.1f ms%n", candidates.size(), 
+                              (System.nanoTime() - queryStart) / 1e6);
+            
+            System.out.println(matches.size() + " file(s) pass through the area:");
+            for (SpatialIndex.Match match : matches) {
+                System.out.println("  " + match.name() + ": points " 
+                                   + match.ranges().stream().map(String::valueOf)
+                                          .collect(Collectors.joining(", "))
+                                   + (match.stale() ? " (changed since indexed)" : ""));
+            }
+        } catch (NoSuchFileException e) {
+            System.err.println("Error: " + input.getPath() 
+                               + " has no index; run with --index first");
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Draws every file into the one --heatmap image. The files, and the entries
+     * of archives, are shared out among --threads workers (default one per
+     * core), each drawing the tracks it reads into a heatmap of its own and
+     * dropping them; the heatmaps are merged once all files are read.
+     */
+    private static void renderHeatmap(GpxInputs inputs, ProcessingOptions options) {
+        int threads = options.threads > 0 
+                      ? options.threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<CompletableFuture<Heatmap>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    Heatmap part = new Heatmap(options.heatmapSize);
+                    for (GpxSource source = inputs.next(); source != null; 
+                         source = inputs.next()) {
+                        try {
+                            part.add(readTrack(source, options));
+                        } catch (Exception e) {
+                            System.err.println("Error processing " + source.name() + ": " 
+                                               + e.getMessage());
+                            failed.incrementAndGet();
+                        }
+                    }
+                    return part;
+                }, workers));
+            }
+            
+            Heatmap heatmap = new Heatmap(options.heatmapSize);
+            for (CompletableFuture<Heatmap> part : parts) {
+                heatmap.merge(part.join());
+            }
+            if (heatmap.pointCount() == 0) {
+                System.err.println("Error: no track points to draw");
+                System.exit(1);
+            }
+            
+            BufferedImage image = heatmap.save(options.heatmapFile, options.pngCompression);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Heatmap of %d track(s), %d points saved to: %s (%dx%d, zoom %d)%n",
+                              heatmap.trackCount(), heatmap.pointCount(), options.heatmapFile,
+                              image.getWidth(), image.getHeight(), heatmap.zoom());
+            System.out.printf("Time: %.2f s on %d thread(s), %.0f points/s%s%n", seconds, threads,
+                              heatmap.pointCount() / seconds,
+                              failed.get() > 0 ? ", " + failed.get() + " file(s) failed" : "");
+        } catch (IOException e) {
+            System.err.println("Error saving " + options.heatmapFile + ": " + e.getMessage());
+            System.exit(1);
+        } finally {
+            workers.shutdown();
+        }
+        if (options.metricsFile != null) {
+            Metrics.writeReport();
+            System.out.println("Metrics saved to: " + options.metricsFile);
+        }
+    }
+    
+    /**
+     * Processes each GPX file in turn, optionally opening a plot window for each
+     */
+    private static void processSequentially(GpxInputs inputs, ProcessingOptions options) {
+        for (GpxSource source = inputs.next(); source != null; source = inputs.next()) {
+            try {
+                TrackBuffer track = analyzeFile(source, options, System.out);
+                renderFile(track, source, options, System.out);
                 
                 // Display GUI if requested
-                if (finalShowGui) {
-                    final List<TrackPoint> finalPoints = points;
-                    
-                    SwingUtilities.invokeLater(() -> {
-                        ElevationPlotter.createAndShowGUI(finalPoints, baseFilename);
-                    });
-                    
+                if (options.showGui) {
                     // Small delay between windows for multiple files
-                    if (gpxFiles.size() > 1) {
+                    if (inputs.count() > 1) {
                         Thread.sleep(300);
                     }
+                    showPlot(track, source, !inputs.isSingleFile());
                 }
                 
-                // Print sample data
-                System.out.println("\n=== Sample Data Points ===");
-                System.out.println("Distance (km) | Altitude (m) | Segment Distance (m)");
-                System.out.println("---------------------------------------------------");
-                
-                int sampleInterval = Math.max(1, points.size() / 10);
-                for (int i = 0; i < points.size(); i += sampleInterval) {
-                    TrackPoint p = points.get(i);
-                    System.out.printf("%12.3f | %12.2f | %20.2f%n",
-                                    p.distanceFromStart / 1000.0,
-                                    p.altitude,
-                                    p.distanceFromPrevious);
-                }
-                System.out.println();
+                printSampleData(track, System.out);
                 
             } catch (Exception e) {
-                System.err.println("Error processing " + gpxFile.getName() + ": " + e.getMessage());
+                System.err.println("Error processing " + source.name() + ": " + e.getMessage());
                 e.printStackTrace();
             }
         }
+    }
+    
+    /**
+     * Parses a GPX file, prints its statistics and exports it to CSV
+     * @return the parsed track
+     */
+    static TrackBuffer analyzeFile(GpxSource source, ProcessingOptions options, PrintStream out) 
+            throws Exception {
+        TrackBuffer track = parseFile(source, options, out);
+        analyzeTrack(track, source, options, out);
+        return track;
+    }
+    
+    /**
+     * Parses a GPX file, or loads it from its cache with --cache, and with --dem
+     * replaces its GPS altitudes with terrain heights
+     * @return the parsed track
+     */
+    static TrackBuffer parseFile(GpxSource source, ProcessingOptions options, PrintStream out) 
+            throws Exception {
+        out.println("=".repeat(60));
+        out.println("Processing: " + source.name());
+        out.println("=".repeat(60));
         
-        System.out.println("=".repeat(60));
-        System.out.println("Processing complete. Processed " + gpxFiles.size() + " file(s).");
-        System.out.println("CSV and PNG files saved to: " + finalOutputDirectory);
-        System.out.println("=".repeat(60));
+        Metrics.Span parse = Metrics.begin(Metrics.Stage.PARSE);
+        TrackBuffer track = null;
+        try {
+            track = readTrack(source, options);
+        } finally {
+            parse.end(track != null ? track.size() : 0, source.length(), 0);
+        }
+        
+        out.println("Successfully loaded " + track.size() + " track points.");
+        
+        ElevationModel terrain = options.elevationModel();
+        if (terrain != null) {
+            int corrected = terrain.correct(track);
+            out.println("Corrected " + corrected + " of " + track.size() 
+                        + " elevations from DEM tiles.");
+        }
+        return track;
+    }
+    
+    /**
+     * Prints the statistics of a parsed track and exports it, and with
+     * --split-segments its segments, to CSV
+     */
+    static void analyzeTrack(TrackBuffer track, GpxSource source, ProcessingOptions options, 
+                             PrintStream out) throws Exception {
+        if (options.segmentPolicy != SegmentPolicy.BRIDGE && track.segmentCount() > 1) {
+            // Parsers and the cache bridge segment gaps; count them as requested
+            track.computeDistances(options.distanceMethod, options.segmentPolicy);
+        }
+        
+        GPXElevationProfile.printStatistics(track, out);
+        
+        // Always export to CSV
+        String csvName = source.baseFilename() + (options.gzipCsv ? ".csv.gz" : ".csv");
+        String csvPath = new File(options.outputDirectory, csvName).getPath();
+        GPXElevationProfile.exportToCSV(track, csvPath, options.gzipCsv, 
+                                        options.csvStatistics);
+        out.println("Data exported to: " + csvPath);
+        
+        analyzeSegments(track, source, options, out);
+    }
+    
+    /**
+     * Lists every segment of a file that has more than one and, with
+     * --split-segments, saves a CSV and PNG per segment. The segments are
+     * processed concurrently and listed in file order.
+     */
+    static void analyzeSegments(TrackBuffer track, GpxSource source, ProcessingOptions options, 
+                                PrintStream out) throws Exception {
+        int segmentCount = track.segmentCount();
+        if (segmentCount < 2) {
+            return;
+        }
+        
+        List<CompletableFuture<String>> results = new ArrayList<>(segmentCount);
+        for (int s = 0; s < segmentCount; s++) {
+            int segment = s;
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return analyzeSegment(track, segment, source, options);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, ForkJoinPool.commonPool()));
+        }
+        
+        out.println("\n=== Track Segments ===");
+        for (CompletableFuture<String> result : results) {
+            try {
+                out.print(result.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+    
+    /**
+     * @return the report lines of one segment
+     */
+    private static String analyzeSegment(TrackBuffer track, int s, GpxSource source, 
+                                         ProcessingOptions options) throws Exception {
+        TrackBuffer segment = track.segment(s);
+        TrackStatistics stats = segment.statistics();
+        StringBuilder report = new StringBuilder();
+        
+        double distance = stats.totalDistance();
+        report.append(String.format("Segment %d (track %d): %d points, %s, ascent %.2f m, "
+                                    + "descent %.2f m",
+                                    s + 1, track.segmentTrack(s) + 1, stats.pointCount(),
+                                    distance < 1000
+                                        ? String.format("%.2f m", distance)
+                                        : String.format("%.2f km", distance / 1000.0),
+                                    stats.ascent(), stats.descent()));
+        if (stats.hasTime()) {
+            report.append(", elapsed ")
+                  .append(GPXElevationProfile.formatDuration(stats.elapsedTimeMillis()));
+        }
+        report.append(System.lineSeparator());
+        
+        if (options.splitSegments) {
+            String baseFilename = source.baseFilename() + "_seg" + (s + 1);
+            String csvName = baseFilename + (options.gzipCsv ? ".csv.gz" : ".csv");
+            String csvPath = new File(options.outputDirectory, csvName).getPath();
+            GPXElevationProfile.exportToCSV(segment, csvPath, options.gzipCsv, 
+                                            options.csvStatistics);
+            report.append("  Data exported to: ").append(csvPath).append(System.lineSeparator());
+            for (String plotPath : savePlots(segment, baseFilename, options)) {
+                report.append("  Plot saved to: ").append(plotPath).append(System.lineSeparator());
+            }
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Loads a track from its cache with --cache, or parses it
+     */
+    static TrackBuffer readTrack(File gpxFile, ProcessingOptions options) throws Exception {
+        if (options.cache) {
+            return TrackCache.loadOrParse(gpxFile, options.distanceMethod, 
+                                          () -> loadTrack(gpxFile, options));
+        }
+        return loadTrack(gpxFile, options);
+    }
+    
+    /**
+     * Reads a GPX document: a plain file as readTrack(File) does, anything
+     * compressed with the streaming parser as it is decompressed
+     */
+    static TrackBuffer readTrack(GpxSource source, ProcessingOptions options) throws Exception {
+        if (source.file() != null) {
+            return readTrack(source.file(), options);
+        }
+        try (InputStream in = source.open()) {
+            return GPXElevationProfile.parseTrack(in, options.distanceMethod);
+        }
+    }
+    
+    /**
+     * Parses a GPX file with the parser selected by the options. A .gpx.gz file
+     * is always parsed by the streaming parser, straight from the decompressor.
+     */
+    static TrackBuffer loadTrack(File gpxFile, ProcessingOptions options) throws Exception {
+        if (GpxSource.isGzip(gpxFile.getName())) {
+            try (InputStream in = GpxSource.of(gpxFile).open()) {
+                return GPXElevationProfile.parseTrack(in, options.distanceMethod);
+            }
+        }
+        if (options.parallelParse) {
+            return new ParallelTrackParser(ForkJoinPool.commonPool(), options.distanceMethod)
+                .parse(gpxFile);
+        }
+        return GPXElevationProfile.loadTrack(gpxFile.getAbsolutePath(), options.streaming, 
+                                             options.distanceMethod);
+    }
+    
+    /**
+     * Saves the PNG and/or SVG plot for a parsed track
+     */
+    static void renderFile(TrackBuffer track, GpxSource source, ProcessingOptions options, 
+                           PrintStream out) throws Exception {
+        for (String plotPath : savePlots(track, source.baseFilename(), options)) {
+            out.println("Plot saved to: " + plotPath);
+        }
+    }
+    
+    /**
+     * Saves the plots selected by --plot-format in the output directory
+     * @return the paths of the saved files
+     */
+    private static List<String> savePlots(TrackBuffer track, String baseFilename, 
+                                          ProcessingOptions options) throws IOException {
+        List<String> paths = new ArrayList<>(2);
+        if (options.savePng) {
+            String pngPath = new File(options.outputDirectory, baseFilename + ".png").getPath();
+            options.pngRenderer().save(track, baseFilename, pngPath);
+            paths.add(pngPath);
+        }
+        if (options.saveSvg) {
+            String svgPath = new File(options.outputDirectory, baseFilename + ".svg").getPath();
+            options.svgRenderer().save(track, baseFilename, svgPath);
+            paths.add(svgPath);
+        }
+        return paths;
+    }
+    
+    /**
+     * Opens a plot window for a track
+     * @param thin true to give the window a copy thinned to WINDOW_POINTS, so that
+     *        runs with many windows do not keep large tracks alive after they are
+     *        processed; a single window gets the whole track, for zooming in
+     */
+    static void showPlot(TrackBuffer track, GpxSource source, boolean thin) {
+        TrackBuffer display = thin ? track.thinned(WINDOW_POINTS) : track;
+        String baseFilename = source.baseFilename();
+        SwingUtilities.invokeLater(() -> {
+            ElevationPlotter.createAndShowGUI(display, baseFilename);
+        });
+    }
+    
+    /**
+     * Prints roughly ten evenly spaced points of the track
+     */
+    static void printSampleData(TrackBuffer track, PrintStream out) {
+        out.println("\n=== Sample Data Points ===");
+        out.println("Distance (km) | Altitude (m) | Segment Distance (m)");
+        out.println("---------------------------------------------------");
+        
+        int sampleInterval = Math.max(1, track.size() / 10);
+        for (int i = 0; i < track.size(); i += sampleInterval) {
+            out.printf("%12.3f | %12.2f | %20.2f%n",
+                       track.distanceFromStart(i) / 1000.0,
+                       track.altitude(i),
+                       track.distanceFromPrevious(i));
+        }
+        out.println();
+    }
+    
+    static String baseFilename(File gpxFile) {
+        return gpxFile.getName().replace(".gpx", "");
     }
     
     private static void printUsage() {
@@ -141,12 +768,70 @@ public class ElevationProfileApp {
         System.out.println("==============================");
         System.out.println();
         System.out.println("Usage: java com.github.ledlogic.gpxanalyzer.ElevationProfileApp <file-or-directory> [options]");
+        System.out.println("       java com.github.ledlogic.gpxanalyzer.ElevationProfileApp --serve PORT [options]");
         System.out.println();
         System.out.println("Arguments:");
         System.out.println("  <file-or-directory>  Single GPX file or directory containing GPX files");
+        System.out.println("                       (.gpx, .gpx.gz, or .zip/.tar.gz archives of .gpx files)");
         System.out.println();
         System.out.println("Options:");
         System.out.println("  --no-gui             Don't display graphical plots (faster batch processing)");
+        System.out.println("  --stream             Use the streaming (StAX) parser for very large GPX files");
+        System.out.println("  --parallel-parse     Split each GPX file into chunks and parse them on all");
+        System.out.println("                       CPU cores (for single multi-GB files)");
+        System.out.println("  --gzip-csv           Write gzip-compressed CSV files (.csv.gz)");
+        System.out.println("  --csv-stats          Start each CSV with the track statistics as '#' comment lines");
+        System.out.println("  --cache              Keep a binary .gpxbin cache next to each GPX file and load");
+        System.out.println("                       it instead of re-parsing while it is newer than the GPX file");
+        System.out.println("  --distance METHOD    Distance formula: haversine (default), vincenty (WGS-84");
+        System.out.println("                       ellipsoid) or fast (small-step approximation, within");
+        System.out.println("                       0.1 mm per km of haversine)");
+        System.out.println("  --segments POLICY    Distance across gaps between track segments: bridge");
+        System.out.println("                       (default, the gap is not counted) or connect (the gap");
+        System.out.println("                       is counted as if the segments were one)");
+        System.out.println("  --split-segments     Also save a CSV and PNG for each track segment");
+        System.out.println("  --plot-format FORMAT Plot files to save: png (default), svg (scalable vector");
+        System.out.println("                       graphics) or both");
+        System.out.println("  --png-size WxH       Size of the saved plots in pixels (default 1000x600, at most");
+        System.out.println("                       65535 a side); over 16 megapixels PNGs are drawn and written");
+        System.out.println("                       in bands of rows to bound memory, and always as RGB");
+        System.out.println("  --png-compression N  PNG deflate level from 0 (fastest) to 9 (smallest), default 4");
+        System.out.println("  --png-palette        Save plots as 8-bit palette PNGs, about half the size (the");
+        System.out.println("                       rarest antialiased edge shades are approximated)");
+        System.out.println("  --dem DIR            Replace GPS elevations with terrain heights interpolated from");
+        System.out.println("                       the SRTM .hgt tiles in DIR (points outside them keep theirs)");
+        System.out.println("  --dem-cache-mb N     Size of the memory-mapped tiles kept by --dem (default 256)");
+        System.out.println("  --heatmap FILE       Draw every track into one density heatmap saved as FILE (PNG)");
+        System.out.println("                       instead of processing each file; --threads sets the workers");
+        System.out.println("  --heatmap-size N     Largest width and height of the heatmap (default 2048); the");
+        System.out.println("                       zoom is the closest at which all tracks fit. Each worker");
+        System.out.println("                       keeps a grid of up to N*N*4 bytes, so the peak memory is");
+        System.out.println("                       about threads*N*N*4 bytes (1 GB per thread at 16384)");
+        System.out.println("  --metrics FILE       Time each stage (parse, dem, distance, csv, draw, encode, svg) and");
+        System.out.println("                       save points/s, bytes, allocation and queue depths to FILE");
+        System.out.println("                       as Prometheus text, or JSON if FILE ends with .json");
+        System.out.println("  --threads N          Process files concurrently with N worker threads and print");
+        System.out.println("                       a throughput summary (plot windows are still shown unless");
+        System.out.println("                       --no-gui is given)");
+        System.out.println("  --memory-mb N        Heap the --threads pipeline may fill with files being parsed");
+        System.out.println("                       and parsed tracks waiting for output (default half the");
+        System.out.println("                       maximum heap); parsing waits while it is used up");
+        System.out.println("  --follow             Follow a GPX file that is still being written (like tail -f),");
+        System.out.println("                       updating statistics and the plot as points are appended");
+        System.out.println("  --serve PORT         Run an HTTP service instead of processing files (no input");
+        System.out.println("                       path): POST a GPX file to /png, /svg, /csv or /stats; query");
+        System.out.println("                       parameters distance, segments, title, csv-stats");
+        System.out.println("  --bind ADDRESS       Interface --serve listens on (default 127.0.0.1, loopback");
+        System.out.println("                       only; 0.0.0.0 for all). The service has no authentication");
+        System.out.println("  --cache-mb N         Size of the --serve cache of tracks and outputs (default 256)");
+        System.out.println("  --index              Build or update the spatial index (.gpxindex) of every GPX");
+        System.out.println("                       file under the directory, parsing only new and changed files");
+        System.out.println("  --query-box BOX      List the indexed files and point ranges inside BOX, given as");
+        System.out.println("                       minLat,minLon,maxLat,maxLon; only candidate files are parsed");
+        System.out.println("  --query-near CIRCLE  Same for the points within a radius, given as lat,lon,meters");
+        System.out.println("  --watch              Keep running and process GPX files in the directory as they");
+        System.out.println("                       are added or changed, skipping files already processed");
+        System.out.println("                       (recorded in .gpxwatch); --threads sets the worker count");
         System.out.println();
         System.out.println("Output:");
         System.out.println("  CSV and PNG files are automatically saved in the same directory as the input GPX file(s)");
@@ -163,5 +848,22 @@ public class ElevationProfileApp {
         System.out.println("  Directory without GUI (batch mode):");
         System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp ./tracks/ --no-gui");
         System.out.println("    → Fast batch processing, saves all CSV and PNG files");
+        System.out.println();
+        System.out.println("  Parallel batch over a large directory:");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp ./uploads/ --no-gui --threads 8");
+        System.out.println();
+        System.out.println("  Render service:");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp --serve 8080");
+        System.out.println("    curl --data-binary @track.gpx http://localhost:8080/png -o track.png");
+        System.out.println();
+        System.out.println("  Find the tracks of an archive that pass within 500 m of a point:");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp ./archive/ --index");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp ./archive/ --query-near 47.61,-122.33,500");
+        System.out.println();
+        System.out.println("  Process every track in a zip bundle, entries parsed concurrently:");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp uploads.zip --no-gui --threads 8");
+        System.out.println();
+        System.out.println("  Watch a folder for new uploads:");
+        System.out.println("    java -cp bin com.github.ledlogic.gpxanalyzer.ElevationProfileApp ./uploads/ --watch --threads 4");
     }
 }
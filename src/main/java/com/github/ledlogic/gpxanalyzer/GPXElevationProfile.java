@@ -1,16 +1,28 @@
 package com.github.ledlogic.gpxanalyzer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
@@ -23,7 +35,7 @@ public class GPXElevationProfile {
      * Calculates the distance between two GPS coordinates using Haversine formula
      * @return distance in meters
      */
-    private static double haversineDistance(double lat1, double lon1, 
+    static double haversineDistance(double lat1, double lon1, 
                                            double lat2, double lon2) {
         final double R = 6371000; // Earth's radius in meters
         
@@ -43,8 +55,14 @@ public class GPXElevationProfile {
      * Parses a GPX file and extracts track points with altitude and distance data
      */
     public static List<TrackPoint> parseGPX(String filePath) throws Exception {
-        List<TrackPoint> points = new ArrayList<>();
-        
+        return parseGPX(filePath, DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Parses a GPX file, measuring distances with the given method
+     */
+    public static List<TrackPoint> parseGPX(String filePath, DistanceMethod method) 
+            throws Exception {
         File gpxFile = new File(filePath);
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
@@ -53,11 +71,30 @@ public class GPXElevationProfile {
         // Get all track points (trkpt elements)
         NodeList trkptList = doc.getElementsByTagName("trkpt");
         
+        // Number the trk elements so each point can name its track
+        NodeList trkList = doc.getElementsByTagName("trk");
+        Map<Node, Integer> trackIndex = new IdentityHashMap<>();
+        for (int i = 0; i < trkList.getLength(); i++) {
+            trackIndex.put(trkList.item(i), i);
+        }
+        
         List<TrackPoint> unsortedPoints = new ArrayList<>();
+        Node previousTrk = null;
+        Node previousTrkseg = null;
+        int segment = -1;
         
         for (int i = 0; i < trkptList.getLength(); i++) {
             Element trkpt = (Element) trkptList.item(i);
             
+            // A point starts a new segment when its trk or trkseg differs
+            Node trk = ancestor(trkpt, "trk");
+            Node trkseg = ancestor(trkpt, "trkseg");
+            if (i == 0 || trk != previousTrk || trkseg != previousTrkseg) {
+                segment++;
+                previousTrk = trk;
+                previousTrkseg = trkseg;
+            }
+            
             // Get latitude and longitude from attributes
             double lat = Double.parseDouble(trkpt.getAttribute("lat"));
             double lon = Double.parseDouble(trkpt.getAttribute("lon"));
@@ -75,7 +112,7 @@ public class GPXElevationProfile {
             if (timeList.getLength() > 0) {
                 try {
                     String timeStr = timeList.item(0).getTextContent();
-                    timestamp = Instant.parse(timeStr);
+                    timestamp = TimestampParser.parseInstant(timeStr);
                 } catch (Exception e) {
                     // If timestamp parsing fails, continue without it
                     System.err.println("Warning: Could not parse timestamp at index " + i);
@@ -83,31 +120,243 @@ public class GPXElevationProfile {
             }
             
             TrackPoint point = new TrackPoint(lat, lon, altitude, timestamp);
+            point.track = trk != null ? trackIndex.get(trk) : 0;
+            point.segment = segment;
             unsortedPoints.add(point);
         }
         
-        // Sort points chronologically if timestamps are available
-        Collections.sort(unsortedPoints);
+        return sortAndMeasure(unsortedPoints, method);
+    }
+    
+    /**
+     * Parses a GPX file with a forward-only StAX reader instead of building a DOM.
+     * Only the track points themselves are kept in memory, so very large device logs
+     * can be loaded without holding the whole XML tree. The result is identical to
+     * {@link #parseGPX(String)}.
+     */
+    public static List<TrackPoint> parseGPXStreaming(String filePath) throws Exception {
+        return new ArrayList<>(parseTrack(filePath).asList());
+    }
+    
+    /**
+     * Parses GPX content from a stream with a forward-only StAX reader
+     */
+    public static List<TrackPoint> parseGPXStreaming(InputStream in) throws Exception {
+        return new ArrayList<>(parseTrack(in).asList());
+    }
+    
+    /**
+     * Streams a GPX file straight into columnar storage, with points sorted
+     * chronologically and cumulative distances filled in
+     */
+    public static TrackBuffer parseTrack(String filePath) throws Exception {
+        return parseTrack(filePath, DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Streams a GPX file into columnar storage, measuring distances with the
+     * given method
+     */
+    public static TrackBuffer parseTrack(String filePath, DistanceMethod method) 
+            throws Exception {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return parseTrack(in, method);
+        }
+    }
+    
+    /**
+     * Streams GPX content into columnar storage
+     */
+    public static TrackBuffer parseTrack(InputStream in) throws Exception {
+        return parseTrack(in, DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Streams GPX content into columnar storage, measuring distances with the
+     * given method
+     */
+    public static TrackBuffer parseTrack(InputStream in, DistanceMethod method) 
+            throws Exception {
+        TrackBuffer track = readTrack(in);
+        
+        // Sort points chronologically, then calculate cumulative distances
+        track.sortByTime();
+        track.computeDistances(method);
+        return track;
+    }
+    
+    /**
+     * Streams the track points of GPX content into columnar storage in file
+     * order, with their segments but without distances
+     */
+    static TrackBuffer readTrack(InputStream in) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        
+        TrackBuffer track = new TrackBuffer();
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            // State for the trkpt currently being read
+            boolean inTrkpt = false;
+            double lat = 0;
+            double lon = 0;
+            double altitude = 0;
+            long epochMillis = TrackBuffer.NO_TIME;
+            boolean haveEle = false;
+            boolean haveTime = false;
+            
+            // A new segment starts at the first point after any trk/trkseg tag
+            int trackCount = 0;
+            int structure = 0;
+            int pointStructure = -1;
+            
+            while (reader.hasNext()) {
+                int event = reader.next();
+                
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (!inTrkpt && name.equals("trk")) {
+                        trackCount++;
+                        structure++;
+                    } else if (!inTrkpt && name.equals("trkseg")) {
+                        structure++;
+                    } else if (name.equals("trkpt")) {
+                        inTrkpt = true;
+                        lat = Double.parseDouble(attributeOrEmpty(reader, "lat"));
+                        lon = Double.parseDouble(attributeOrEmpty(reader, "lon"));
+                        altitude = 0;
+                        epochMillis = TrackBuffer.NO_TIME;
+                        haveEle = false;
+                        haveTime = false;
+                    } else if (inTrkpt && !haveEle && name.equals("ele")) {
+                        // Only the first <ele> counts, matching the DOM path
+                        haveEle = true;
+                        altitude = Double.parseDouble(reader.getElementText());
+                    } else if (inTrkpt && !haveTime && name.equals("time")) {
+                        haveTime = true;
+                        String timeStr = reader.getElementText();
+                        try {
+                            epochMillis = TimestampParser.parseEpochMillis(timeStr);
+                        } catch (Exception e) {
+                            // If timestamp parsing fails, continue without it
+                            System.err.println("Warning: Could not parse timestamp at index " 
+                                               + track.size());
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (inTrkpt && name.equals("trkpt")) {
+                        if (structure != pointStructure) {
+                            track.startSegment(Math.max(trackCount - 1, 0));
+                            pointStructure = structure;
+                        }
+                        track.add(lat, lon, altitude, epochMillis);
+                        inTrkpt = false;
+                    } else if (!inTrkpt && (name.equals("trk") || name.equals("trkseg"))) {
+                        structure++;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return track;
+    }
+    
+    /**
+     * Parses a GPX file into columnar storage with either the streaming
+     * or the DOM parser
+     */
+    public static TrackBuffer loadTrack(String filePath, boolean streaming) throws Exception {
+        return loadTrack(filePath, streaming, DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Parses a GPX file into columnar storage, measuring distances with the
+     * given method
+     */
+    public static TrackBuffer loadTrack(String filePath, boolean streaming, 
+                                        DistanceMethod method) throws Exception {
+        return streaming
+            ? parseTrack(filePath, method)
+            : TrackBuffer.fromPoints(parseGPX(filePath, method));
+    }
+    
+    /**
+     * @return the nearest enclosing element with the given name, or null
+     */
+    private static Node ancestor(Node node, String name) {
+        for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            if (name.equals(parent.getNodeName())) {
+                return parent;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns an attribute value, or an empty string when it is missing
+     * (the same value DOM's getAttribute reports)
+     */
+    private static String attributeOrEmpty(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+    
+    /**
+     * Sorts the raw points chronologically and fills in the distance fields
+     */
+    private static List<TrackPoint> sortAndMeasure(List<TrackPoint> unsortedPoints, 
+                                                   DistanceMethod method) {
+        List<TrackPoint> points = new ArrayList<>(unsortedPoints.size());
+        
+        // Sort the points of each segment chronologically if timestamps are
+        // available, in the same order TrackBuffer.sortByTime uses
+        int count = unsortedPoints.size();
+        long[] epochMillis = new long[count];
+        for (int i = 0; i < count; i++) {
+            Instant timestamp = unsortedPoints.get(i).timestamp;
+            epochMillis[i] = timestamp != null ? timestamp.toEpochMilli() : TrackBuffer.NO_TIME;
+        }
+        int[] order = new int[count];
+        int from = 0;
+        while (from < count) {
+            int segment = unsortedPoints.get(from).segment;
+            int to = from + 1;
+            while (to < count && unsortedPoints.get(to).segment == segment) {
+                to++;
+            }
+            int[] segmentOrder = TimeOrder.sortedOrder(epochMillis, from, to);
+            for (int i = from; i < to; i++) {
+                order[i] = segmentOrder != null ? segmentOrder[i - from] : i;
+            }
+            from = to;
+        }
         
-        // Now calculate cumulative distances on the sorted points
+        // Now calculate cumulative distances on the sorted points; the gap to
+        // a new segment is bridged, not counted
+        Metrics.Span span = Metrics.begin(Metrics.Stage.DISTANCE);
         double cumulativeDistance = 0;
-        TrackPoint previousPoint = null;
-        
-        for (TrackPoint point : unsortedPoints) {
-            // Calculate distance from previous point
-            if (previousPoint != null) {
-                double distance = haversineDistance(
-                    previousPoint.latitude, previousPoint.longitude,
-                    point.latitude, point.longitude
-                );
-                point.distanceFromPrevious = distance;
-                cumulativeDistance += distance;
+        DistanceMethod.Cursor cursor = method.cursor();
+        int previousSegment = count > 0 ? unsortedPoints.get(0).segment : 0;
+        
+        for (int i = 0; i < count; i++) {
+            TrackPoint point = unsortedPoints.get(order[i]);
+            // Calculate distance from previous point (0 for the first one)
+            double distance = cursor.next(point.latitude, point.longitude);
+            if (point.segment != previousSegment) {
+                distance = 0;
+                previousSegment = point.segment;
             }
+            point.distanceFromPrevious = distance;
+            cumulativeDistance += distance;
             
             point.distanceFromStart = cumulativeDistance;
             points.add(point);
-            previousPoint = point;
         }
+        span.end(count, 0, 0);
         
         return points;
     }
@@ -117,59 +366,175 @@ public class GPXElevationProfile {
      */
     public static void exportToCSV(List<TrackPoint> points, String outputPath) 
             throws Exception {
-        java.io.PrintWriter writer = new java.io.PrintWriter(outputPath);
-        
-        writer.println("Distance_m,Altitude_m,Distance_km,Altitude_ft");
-        
-        for (TrackPoint point : points) {
-            writer.printf("%.2f,%.2f,%.3f,%.2f%n",
-                         point.distanceFromStart,
-                         point.altitude,
-                         point.distanceFromStart / 1000.0,
-                         point.altitude * 3.28084); // convert to feet
+        exportToCSV(TrackBuffer.fromPoints(points), outputPath);
+    }
+    
+    /**
+     * Exports the elevation profile data of a columnar track to CSV format
+     */
+    public static void exportToCSV(TrackBuffer track, String outputPath) 
+            throws Exception {
+        exportToCSV(track, outputPath, false);
+    }
+    
+    /**
+     * Exports the elevation profile data of a columnar track to CSV format,
+     * optionally gzip-compressed. The text is the same as the printf-based
+     * export produced, written through a buffered CsvWriter.
+     */
+    public static void exportToCSV(TrackBuffer track, String outputPath, boolean gzip) 
+            throws Exception {
+        exportToCSV(track, outputPath, gzip, false);
+    }
+    
+    /**
+     * Exports the elevation profile data of a columnar track to CSV format.
+     * With includeStatistics the file starts with the track statistics as
+     * '#' comment lines above the column header.
+     */
+    public static void exportToCSV(TrackBuffer track, String outputPath, boolean gzip,
+                                   boolean includeStatistics) throws Exception {
+        OutputStream out = new FileOutputStream(outputPath);
+        if (gzip) {
+            try {
+                out = new GZIPOutputStream(out, 64 * 1024); // writes the gzip header
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+        exportToCSV(track, out, includeStatistics);
+    }
+    
+    /**
+     * Writes the CSV export of a columnar track to a stream, which is closed
+     * afterwards
+     */
+    public static void exportToCSV(TrackBuffer track, OutputStream out, 
+                                   boolean includeStatistics) throws Exception {
+        Metrics.Span span = Metrics.begin(Metrics.Stage.CSV);
+        out = Metrics.counting(out);
+        try (CsvWriter writer = new CsvWriter(out)) {
+            if (includeStatistics) {
+                writeStatisticsHeader(writer, track.statistics());
+            }
+            writer.write("Distance_m,Altitude_m,Distance_km,Altitude_ft");
+            writer.newLine();
+            
+            double[] distances = track.distances();
+            double[] altitudes = track.altitudes();
+            for (int i = 0; i < track.size(); i++) {
+                writer.writeFixed(distances[i], 2);
+                writer.write(',');
+                writer.writeFixed(altitudes[i], 2);
+                writer.write(',');
+                writer.writeFixed(distances[i] / 1000.0, 3);
+                writer.write(',');
+                writer.writeFixed(altitudes[i] * 3.28084, 2); // convert to feet
+                writer.newLine();
+            }
+        } finally {
+            span.end(track.size(), 0, Metrics.bytesWritten(out));
         }
-        
-        writer.close();
     }
     
     /**
      * Prints statistics about the track
      */
     public static void printStatistics(List<TrackPoint> points) {
-        if (points.isEmpty()) {
-            System.out.println("No track points found.");
+        printStatistics(TrackBuffer.fromPoints(points));
+    }
+    
+    /**
+     * Prints statistics about a columnar track
+     */
+    public static void printStatistics(TrackBuffer track) {
+        printStatistics(track, System.out);
+    }
+    
+    /**
+     * Prints statistics about a columnar track to the given stream
+     */
+    public static void printStatistics(TrackBuffer track, PrintStream out) {
+        if (track.isEmpty()) {
+            out.println("No track points found.");
             return;
         }
         
-        double minAlt = Double.MAX_VALUE;
-        double maxAlt = Double.MIN_VALUE;
-        double totalDistance = points.get(points.size() - 1).distanceFromStart;
+        TrackStatistics stats = track.statistics();
+        double totalDistance = stats.totalDistance();
+        double minAlt = stats.minAltitude();
+        double maxAlt = stats.maxAltitude();
+        double elevationGain = stats.elevationRange();
         
-        for (TrackPoint point : points) {
-            minAlt = Math.min(minAlt, point.altitude);
-            maxAlt = Math.max(maxAlt, point.altitude);
-        }
-        
-        double elevationGain = maxAlt - minAlt;
-        
-        System.out.println("\n=== Track Statistics ===");
-        System.out.printf("Total Points: %d%n", points.size());
+        out.println("\n=== Track Statistics ===");
+        out.printf("Total Points: %d%n", stats.pointCount());
         
         // Display distance in meters if < 1km, otherwise in km
         if (totalDistance < 1000) {
-            System.out.printf("Total Distance: %.2f m (%.2f ft)%n", 
-                             totalDistance, totalDistance * 3.28084);
+            out.printf("Total Distance: %.2f m (%.2f ft)%n", 
+                       totalDistance, totalDistance * 3.28084);
         } else {
-            System.out.printf("Total Distance: %.2f km (%.2f miles)%n", 
-                             totalDistance / 1000.0, totalDistance / 1609.34);
+            out.printf("Total Distance: %.2f km (%.2f miles)%n", 
+                       totalDistance / 1000.0, totalDistance / 1609.34);
         }
         
-        System.out.printf("Min Altitude: %.2f m (%.2f ft)%n", 
-                         minAlt, minAlt * 3.28084);
-        System.out.printf("Max Altitude: %.2f m (%.2f ft)%n", 
-                         maxAlt, maxAlt * 3.28084);
-        System.out.printf("Elevation Range: %.2f m (%.2f ft)%n", 
-                         elevationGain, elevationGain * 3.28084);
+        out.printf("Min Altitude: %.2f m (%.2f ft)%n", 
+                   minAlt, minAlt * 3.28084);
+        out.printf("Max Altitude: %.2f m (%.2f ft)%n", 
+                   maxAlt, maxAlt * 3.28084);
+        out.printf("Elevation Range: %.2f m (%.2f ft)%n", 
+                   elevationGain, elevationGain * 3.28084);
+        out.printf("Total Ascent: %.2f m (%.2f ft)%n", 
+                   stats.ascent(), stats.ascent() * 3.28084);
+        out.printf("Total Descent: %.2f m (%.2f ft)%n", 
+                   stats.descent(), stats.descent() * 3.28084);
+        out.printf("Average Grade: %.2f%%%n", stats.averageGrade());
+        
+        // Time-based values need timestamps
+        if (stats.hasTime()) {
+            out.println("Elapsed Time: " + formatDuration(stats.elapsedTimeMillis()));
+            out.println("Moving Time: " + formatDuration(stats.movingTimeMillis()));
+            out.printf("Max Speed: %.2f km/h (%.2f mph)%n", 
+                       stats.maxSpeed() * 3.6, stats.maxSpeed() * 2.23694);
+        }
+    }
+    
+    /**
+     * Formats a duration as H:MM:SS
+     */
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+    
+    /**
+     * Writes the track statistics as '#' comment lines, for the top of a CSV file
+     */
+    static void writeStatisticsHeader(CsvWriter writer, TrackStatistics stats) 
+            throws IOException {
+        writer.write("# points: " + stats.pointCount());
+        writer.newLine();
+        writeStatistic(writer, "# total_distance_m: ", stats.totalDistance());
+        writeStatistic(writer, "# min_altitude_m: ", stats.minAltitude());
+        writeStatistic(writer, "# max_altitude_m: ", stats.maxAltitude());
+        writeStatistic(writer, "# ascent_m: ", stats.ascent());
+        writeStatistic(writer, "# descent_m: ", stats.descent());
+        writeStatistic(writer, "# average_grade_pct: ", stats.averageGrade());
+        if (stats.hasTime()) {
+            writer.write("# elapsed_time_s: " + stats.elapsedTimeMillis() / 1000);
+            writer.newLine();
+            writer.write("# moving_time_s: " + stats.movingTimeMillis() / 1000);
+            writer.newLine();
+            writeStatistic(writer, "# max_speed_mps: ", stats.maxSpeed());
+        }
+    }
+    
+    private static void writeStatistic(CsvWriter writer, String label, double value) 
+            throws IOException {
+        writer.write(label);
+        writer.writeFixed(value, 2);
+        writer.newLine();
     }
     
     public static void main(String[] args) {
@@ -0,0 +1,338 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The GPX documents of a list of input files, handed out one at a time, with
+ * .zip and .tar.gz archives expanded to their .gpx entries when they are reached
+ *
+ * A zip archive is opened with ZipFile, whose entries can be read by several
+ * threads at once, so the workers that take its entries inflate as well as
+ * parse them. A tar.gz archive can only be decompressed from front to back:
+ * next() reads the header of its next .gpx entry, and the entry's content is
+ * read into memory when it is first opened or when next() moves past it,
+ * whichever comes first. A caller can therefore reserve memory for an entry,
+ * whose length the header gives, before it is read. The parsing is left to the
+ * worker that took the entry, so later entries are decompressed while earlier
+ * ones are parsed. next() may be called from several threads. An archive that cannot be
+ * read is reported and skipped. Zip archives stay open until close().
+ *
+ * Documents write their outputs side by side, so two of them must not share a
+ * base name (track.gpx and track.gpx.gz, or the entries a_b.gpx and a/b.gpx of
+ * one archive). A document whose name is taken, ignoring case, gets a "-2",
+ * "-3", ... suffix, which is reported. Documents are handed out in a fixed
+ * order, so the same inputs are always named the same way.
+ */
+final class GpxInputs implements Closeable {
+    
+    private static final int BLOCK = 512; // tar header and padding unit
+    private static final int MAX_ENTRY_BYTES = Integer.MAX_VALUE - 8; // largest byte[]
+    
+    private final List<File> files;
+    private final List<ZipFile> zips = new ArrayList<>();
+    private final Set<String> baseNames = new HashSet<>(); // lower case, handed out so far
+    private int nextFile;
+    private int count;
+    private boolean archives;
+    
+    // The archive being expanded, if any
+    private File archive;
+    private Enumeration<? extends ZipEntry> zipEntries;
+    private ZipFile zip;
+    private InputStream tar;
+    private TarEntry unread; // the last tar entry handed out, until its content is read
+    
+    GpxInputs(List<File> files) {
+        this.files = files;
+        for (File file : files) {
+            archives |= GpxSource.isArchive(file.getName());
+        }
+    }
+    
+    /**
+     * @return true if any input file is a zip or tar.gz archive
+     */
+    boolean hasArchives() {
+        return archives;
+    }
+    
+    /**
+     * @return true if the inputs are one plain or gzipped GPX file, so a run
+     *         opens at most one plot window
+     */
+    boolean isSingleFile() {
+        return files.size() == 1 && !archives;
+    }
+    
+    /**
+     * @return the number of documents handed out so far
+     */
+    synchronized int count() {
+        return count;
+    }
+    
+    /**
+     * @return the next document, or null when there are no more
+     */
+    synchronized GpxSource next() {
+        while (true) {
+            if (archive != null) {
+                try {
+                    GpxSource entry = zip != null ? nextZipEntry() : nextTarEntry();
+                    if (entry != null) {
+                        count++;
+                        return uniquelyNamed(entry);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading archive " + archive.getName() + ": "
+                                       + e.getMessage());
+                }
+                endArchive();
+            }
+            if (nextFile == files.size()) {
+                return null;
+            }
+            
+            File file = files.get(nextFile++);
+            if (!GpxSource.isArchive(file.getName())) {
+                count++;
+                return uniquelyNamed(GpxSource.of(file));
+            }
+            try {
+                archive = file;
+                if (GpxSource.isZip(file.getName())) {
+                    zip = new ZipFile(file);
+                    zips.add(zip);
+                    zipEntries = zip.entries();
+                } else {
+                    tar = new GZIPInputStream(GpxSource.openBuffered(file), 64 * 1024);
+                }
+            } catch (IOException e) {
+                System.err.println("Error opening archive " + file.getName() + ": "
+                                   + e.getMessage());
+                endArchive();
+            }
+        }
+    }
+    
+    /**
+     * @return the source, renamed if an earlier document has its base name
+     */
+    private GpxSource uniquelyNamed(GpxSource source) {
+        String base = source.baseFilename();
+        String unique = base;
+        for (int n = 2; !baseNames.add(unique.toLowerCase(Locale.ROOT)); n++) {
+            unique = base + "-" + n;
+        }
+        if (unique.equals(base)) {
+            return source;
+        }
+        System.err.println("Warning: " + source.name() + " is saved as " + unique 
+                           + ", since another input's outputs are named " + base);
+        return source.withBaseFilename(unique);
+    }
+    
+    /**
+     * Closes the zip archives, once every entry handed out has been read
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        endArchive();
+        IOException failure = null;
+        for (ZipFile open : zips) {
+            try {
+                open.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        zips.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private GpxSource nextZipEntry() {
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".gpx")) {
+                ZipFile source = zip;
+                return GpxSource.entry(archive.getName(), entry.getName(), entry.getSize(),
+                                       () -> source.getInputStream(entry));
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Reads tar headers up to the next .gpx file and reads that file. Handles
+     * ustar name prefixes, GNU long names and pax path records.
+     */
+    private GpxSource nextTarEntry() throws IOException {
+        if (unread != null) {
+            unread.content(); // moves the archive past it
+        }
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        while (true) {
+            if (tar.readNBytes(header, 0, BLOCK) < BLOCK || isZeros(header)) {
+                return null; // end of archive
+            }
+            long size = octal(header, 124, 12);
+            char type = (char) header[156];
+            
+            String path = string(header, 0, 100);
+            if (string(header, 257, 5).equals("ustar") && header[345] != 0) {
+                path = string(header, 345, 155) + "/" + path;
+            }
+            if (longName != null) {
+                path = longName;
+                longName = null;
+            }
+            
+            if (type == 'L' || type == 'x') {
+                // The name of the next entry, as a GNU long name or among pax records
+                String data = new String(readEntry(size), StandardCharsets.UTF_8);
+                longName = type == 'L' ? data.replace("\0", "") : paxPath(data);
+            } else if ((type == '0' || type == '\0') && path.toLowerCase().endsWith(".gpx")) {
+                if (size > MAX_ENTRY_BYTES) {
+                    throw new IOException("tar entry larger than 2 GB: " + path);
+                }
+                TarEntry entry = new TarEntry(size);
+                unread = entry;
+                return GpxSource.bufferedEntry(archive.getName(), path, size,
+                                               () -> new ByteArrayInputStream(entry.content()));
+            } else {
+                tar.skipNBytes(padded(size));
+            }
+        }
+    }
+    
+    private byte[] readEntry(long size) throws IOException {
+        if (size > MAX_ENTRY_BYTES) {
+            throw new IOException("tar entry larger than 2 GB");
+        }
+        byte[] content = tar.readNBytes((int) size);
+        if (content.length < size) {
+            throw new IOException("tar entry cut short");
+        }
+        tar.skipNBytes(padded(size) - size);
+        return content;
+    }
+    
+    private void endArchive() {
+        if (unread != null) {
+            unread.failure = new IOException("archive closed before the entry was read");
+            unread = null;
+        }
+        if (tar != null) {
+            try {
+                tar.close();
+            } catch (IOException e) {
+                // Only read from; nothing is lost
+            }
+        }
+        archive = null;
+        zip = null;
+        zipEntries = null;
+        tar = null;
+    }
+    
+    /**
+     * The content of a tar entry handed out by next(), read from the archive
+     * when it is first needed
+     */
+    private final class TarEntry {
+        private final long size;
+        private byte[] content;
+        private IOException failure;
+        
+        TarEntry(long size) {
+            this.size = size;
+        }
+        
+        /**
+         * @throws IOException if the entry could not be read
+         */
+        byte[] content() throws IOException {
+            synchronized (GpxInputs.this) {
+                if (content == null && failure == null) {
+                    unread = null;
+                    try {
+                        content = readEntry(size);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                return content;
+            }
+        }
+    }
+    
+    private static long padded(long size) {
+        return (size + BLOCK - 1) / BLOCK * BLOCK;
+    }
+    
+    private static boolean isZeros(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return a NUL-terminated header field
+     */
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return an octal header field
+     * @throws IOException if the field is not octal, e.g. a base-256 size
+     */
+    private static long octal(byte[] header, int offset, int length) throws IOException {
+        String digits = string(header, offset, length).trim();
+        try {
+            return digits.isEmpty() ? 0 : Long.parseLong(digits, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("not a tar header");
+        }
+    }
+    
+    /**
+     * @return the path in pax extended header records ("length key=value\n"), or null
+     */
+    private static String paxPath(String records) {
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 1 + "path=".length());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * One GPX document to process: a .gpx file, a gzip-compressed .gpx.gz file, or a
+ * .gpx entry of a .zip or .tar.gz archive (see GpxInputs)
+ *
+ * Compressed documents are parsed with the streaming parser straight from the
+ * decompressing stream, without being unpacked to disk. Outputs are named after
+ * the document: the file name without .gpx or .gpx.gz, or the archive's name
+ * without its extension followed by the entry's path, without .gpx and with '_'
+ * between the directories. GpxInputs renames documents whose names are taken.
+ */
+public final class GpxSource {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final String name;
+    private final String baseFilename;
+    private final long length;
+    private final File file;
+    private final Opener opener;
+    private final boolean buffered;
+    
+    /**
+     * Opens the GPX content of an archive entry
+     */
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+    
+    private GpxSource(String name, String baseFilename, long length, File file, Opener opener,
+                      boolean buffered) {
+        this.name = name;
+        this.baseFilename = baseFilename;
+        this.length = length;
+        this.file = file;
+        this.opener = opener;
+        this.buffered = buffered;
+    }
+    
+    /**
+     * @return the source of a .gpx or .gpx.gz file
+     */
+    public static GpxSource of(File file) {
+        String name = file.getName();
+        if (!isGzip(name)) {
+            return new GpxSource(name, name.replace(".gpx", ""), file.length(), file, null, false);
+        }
+        String base = name.substring(0, name.length() - ".gz".length()).replace(".gpx", "");
+        return new GpxSource(name, base, gzipLength(file), file, null, false);
+    }
+    
+    /**
+     * @param archive name of the archive file
+     * @param path path of the entry inside it
+     * @param length uncompressed size of the entry, or -1 if unknown
+     */
+    static GpxSource entry(String archive, String path, long length, Opener opener) {
+        return new GpxSource(archive + ":" + path, entryBase(archive, path), 
+                             Math.max(length, 0), null, opener, false);
+    }
+    
+    /**
+     * @return the source of an entry whose content the opener reads into memory
+     *         once, and which is then held until the source is released
+     */
+    static GpxSource bufferedEntry(String archive, String path, long length, Opener opener) {
+        return new GpxSource(archive + ":" + path, entryBase(archive, path), length, null,
+                             opener, true);
+    }
+    
+    /**
+     * @return the same document with other names for its outputs
+     */
+    GpxSource withBaseFilename(String baseFilename) {
+        return new GpxSource(name, baseFilename, length, file, opener, buffered);
+    }
+    
+    /**
+     * @return the file name, or the archive and entry names, for messages
+     */
+    public String name() {
+        return name;
+    }
+    
+    /**
+     * @return the name of the CSV and plot files, without an extension
+     */
+    public String baseFilename() {
+        return baseFilename;
+    }
+    
+    /**
+     * @return the uncompressed size of the GPX content in bytes; for gzip files
+     *         larger than 4 GB it is only the low 32 bits, as gzip records it
+     */
+    public long length() {
+        return length;
+    }
+    
+    /**
+     * @return the .gpx or .gpx.gz file, or null for an archive entry
+     */
+    public File file() {
+        return file;
+    }
+    
+    /**
+     * @return true if the content is a plain .gpx file, which every parser and
+     *         the track cache can read directly
+     */
+    public boolean isPlainFile() {
+        return file != null && !isGzip(file.getName());
+    }
+    
+    /**
+     * @return true if the content is held in memory once it is read
+     */
+    boolean isBuffered() {
+        return buffered;
+    }
+    
+    /**
+     * Opens the GPX content, decompressing it as it is read
+     * @throws IOException if the file or entry cannot be opened
+     */
+    public InputStream open() throws IOException {
+        if (opener != null) {
+            return opener.open();
+        }
+        InputStream in = new FileInputStream(file);
+        if (!isGzip(file.getName())) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return true for the file names the application takes as input: .gpx,
+     *         .gpx.gz, .zip, .tar.gz and .tgz
+     */
+    public static boolean isInput(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".gpx") || lower.endsWith(".gpx.gz") || isArchive(name);
+    }
+    
+    /**
+     * @return true for .zip, .tar.gz and .tgz archives
+     */
+    public static boolean isArchive(String name) {
+        return isZip(name) || isTarGz(name);
+    }
+    
+    static boolean isZip(String name) {
+        return name.toLowerCase().endsWith(".zip");
+    }
+    
+    static boolean isTarGz(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".tar.gz") || lower.endsWith(".tgz");
+    }
+    
+    static boolean isGzip(String name) {
+        return name.toLowerCase().endsWith(".gpx.gz");
+    }
+    
+    static InputStream openBuffered(File file) throws IOException {
+        return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+    
+    /**
+     * @return the base name of an entry: the archive name without .zip, .tar.gz
+     *         or .tgz, then the path without .gpx, with directories joined by '_'
+     */
+    static String entryBase(String archive, String path) {
+        String lower = archive.toLowerCase();
+        int extension = lower.endsWith(".tar.gz") ? ".tar.gz".length()
+                        : lower.endsWith(".tgz") ? ".tgz".length()
+                        : lower.endsWith(".zip") ? ".zip".length() : 0;
+        String base = path.toLowerCase().endsWith(".gpx")
+                      ? path.substring(0, path.length() - ".gpx".length()) : path;
+        return archive.substring(0, archive.length() - extension) + "_" + base.replace('/', '_');
+    }
+    
+    /**
+     * @return the uncompressed size a gzip file records in its last four bytes,
+     *         or the file size if it cannot be read
+     */
+    private static long gzipLength(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < 18) { // smaller than any gzip header and trailer
+                return in.length();
+            }
+            in.seek(in.length() - 4);
+            return Integer.toUnsignedLong(Integer.reverseBytes(in.readInt()));
+        } catch (IOException e) {
+            return file.length();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Density map of many tracks, saved as a PNG heatmap
+ *
+ * Each track is drawn as lines between its consecutive points into a grid that
+ * counts how often tracks pass through each Web Mercator pixel. The grid starts
+ * at street-level zoom and covers only the tracks added so far. A track outside
+ * it makes it grow, and once it would be larger than the maximum size it zooms
+ * out, merging each 2x2 block of cells, so its memory is bounded by the maximum
+ * size however many tracks and points are drawn.
+ *
+ * Lines are always stepped at the highest zoom, and a cell counts the steps that
+ * fall in it, so a merged cell holds exactly the sum of its four cells. The counts
+ * are then the same whichever zoom a track was drawn at, and so however the
+ * tracks were shared out among heatmaps that are merged later. A heatmap is not
+ * thread-safe: each thread draws into its own and they are merged at the end.
+ * Counts are divided by the steps a line takes across a cell at the final zoom,
+ * giving passes per cell, and tone-mapped logarithmically onto a 255-color ramp
+ * topping out at the 99.9th percentile, so a few very busy cells do not darken
+ * all the others.
+ */
+public class Heatmap {
+    
+    public static final int DEFAULT_SIZE = 2048;
+    static final int MIN_SIZE = 64;
+    static final int MAX_SIZE = 16384;
+    
+    private static final int MAX_ZOOM = 20; // about 0.15 m per pixel at the equator
+    private static final double MAX_LATITUDE = 85.05112878; // edge of the Mercator square
+    private static final int PADDING = 8; // pixels around the tracks in the image
+    private static final double BRIGHTEST = 0.999; // fraction of cells below the top color
+    
+    private static final int BACKGROUND = 0x101018;
+    private static final int[][] RAMP = { // count level (0-255) and color
+        {0, 0x2C0B54}, {90, 0xB41E3C}, {180, 0xFA8C14}, {255, 0xFFFFDC}
+    };
+    
+    private final int maxSize;
+    private int zoom = MAX_ZOOM;
+    private long originX; // world pixel of the first grid cell at the zoom
+    private long originY;
+    private int width;
+    private int height;
+    private long drawnMinX; // box of the cells drawn in, in world pixels at the zoom
+    private long drawnMinY;
+    private long drawnMaxX;
+    private long drawnMaxY;
+    private int[] counts = new int[0];
+    private long points;
+    private int tracks;
+    
+    /**
+     * @param maxSize largest width and height of the grid and image, in pixels
+     * @throws IllegalArgumentException if the size is out of range
+     */
+    public Heatmap(int maxSize) {
+        checkSize(maxSize);
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if a maximum heatmap size is out of range
+     */
+    public static void checkSize(int maxSize) {
+        if (maxSize < MIN_SIZE || maxSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Heatmap size must be between " + MIN_SIZE
+                                               + " and " + MAX_SIZE + ": " + maxSize);
+        }
+    }
+    
+    public long pointCount() {
+        return points;
+    }
+    
+    public int trackCount() {
+        return tracks;
+    }
+    
+    /**
+     * @return the Web Mercator zoom level the grid is at
+     */
+    public int zoom() {
+        return zoom;
+    }
+    
+    /**
+     * Draws a track into the grid, as lines between its consecutive points
+     * within each segment
+     */
+    public void add(TrackBuffer track) {
+        int size = track.size();
+        if (size == 0) {
+            return;
+        }
+        double[] latitudes = track.latitudes();
+        double[] longitudes = track.longitudes();
+        
+        // World pixel of every point at the highest zoom
+        long[] px = new long[size];
+        long[] py = new long[size];
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        long maxX = 0;
+        long maxY = 0;
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(Math.max(-MAX_LATITUDE,
+                                                 Math.min(MAX_LATITUDE, latitudes[i])));
+            px[i] = worldPixel((longitudes[i] + 180) / 360, MAX_ZOOM);
+            py[i] = worldPixel((1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2,
+                               MAX_ZOOM);
+            minX = Math.min(minX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxX = Math.max(maxX, px[i]);
+            maxY = Math.max(maxY, py[i]);
+        }
+        int shift = MAX_ZOOM - zoom;
+        include(minX >> shift, minY >> shift, maxX >> shift, maxY >> shift);
+        
+        // Steps longer than a quarter of the track's own heatmap are GPS jumps,
+        // not a path; this does not depend on the tracks drawn before
+        int trackShift = 0;
+        while ((maxX >> trackShift) - (minX >> trackShift) + 1 > maxSize
+               || (maxY >> trackShift) - (minY >> trackShift) + 1 > maxSize) {
+            trackShift++;
+        }
+        long jump = (long) (maxSize / 4) << trackShift;
+        for (int s = 0; s < track.segmentCount(); s++) {
+            for (int i = track.segmentStart(s); i < track.segmentEnd(s); i++) {
+                if (i == track.segmentStart(s)
+                        || Math.max(Math.abs(px[i] - px[i - 1]),
+                                    Math.abs(py[i] - py[i - 1])) > jump) {
+                    count(px[i], py[i], 1);
+                } else {
+                    line(px[i - 1], py[i - 1], px[i], py[i]);
+                }
+            }
+        }
+        points += size;
+        tracks++;
+    }
+    
+    /**
+     * Adds the counts of another heatmap to this one
+     */
+    public void merge(Heatmap other) {
+        if (other.width == 0) {
+            return;
+        }
+        points += other.points;
+        tracks += other.tracks;
+        if (other.zoom < zoom) {
+            if (width > 0) {
+                zoomOut(this, other.zoom);
+            } else {
+                zoom = other.zoom;
+            }
+        }
+        int shift = other.zoom - zoom;
+        include(other.drawnMinX >> shift, other.drawnMinY >> shift,
+                other.drawnMaxX >> shift, other.drawnMaxY >> shift);
+        if (other.zoom > zoom) {
+            // Including may have zoomed out further; bring a copy to the same zoom
+            Heatmap copy = new Heatmap(other.maxSize);
+            copy.zoom = other.zoom;
+            copy.originX = other.originX;
+            copy.originY = other.originY;
+            copy.width = other.width;
+            copy.height = other.height;
+            copy.drawnMinX = other.drawnMinX;
+            copy.drawnMinY = other.drawnMinY;
+            copy.drawnMaxX = other.drawnMaxX;
+            copy.drawnMaxY = other.drawnMaxY;
+            copy.counts = other.counts;
+            other = zoomOut(copy, zoom);
+        }
+        
+        for (int y = 0; y < other.height; y++) {
+            int row = (int) (other.originY + y - originY) * width;
+            for (int x = 0; x < other.width; x++) {
+                int count = other.counts[y * other.width + x];
+                if (count != 0) {
+                    int i = row + (int) (other.originX + x - originX);
+                    counts[i] = add(counts[i], count);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the counts of the cells drawn in, row by row
+     */
+    int[] drawnCounts() {
+        if (width == 0) {
+            return new int[0];
+        }
+        int minX = (int) (drawnMinX - originX);
+        int minY = (int) (drawnMinY - originY);
+        int drawnWidth = (int) (drawnMaxX - drawnMinX + 1);
+        int drawnHeight = (int) (drawnMaxY - drawnMinY + 1);
+        int[] drawn = new int[drawnWidth * drawnHeight];
+        for (int y = 0; y < drawnHeight; y++) {
+            System.arraycopy(counts, (minY + y) * width + minX, drawn, y * drawnWidth,
+                             drawnWidth);
+        }
+        return drawn;
+    }
+    
+    /**
+     * Renders the counts, cropped to the tracks, as an 8-bit palette image
+     * @throws IllegalStateException if no points were added
+     */
+    public BufferedImage render() {
+        if (points == 0) {
+            throw new IllegalStateException("The heatmap has no points");
+        }
+        int minX = (int) (drawnMinX - originX);
+        int minY = (int) (drawnMinY - originY);
+        int maxX = (int) (drawnMaxX - originX);
+        int maxY = (int) (drawnMaxY - originY);
+        
+        int topCount = percentile(counts, BRIGHTEST);
+        // A line crossing a cell takes about as many steps as the cell is wide
+        // at the highest zoom
+        double steps = 1L << (MAX_ZOOM - zoom);
+        
+        int imageWidth = maxX - minX + 1 + 2 * PADDING;
+        int imageHeight = maxY - minY + 1 + 2 * PADDING;
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight,
+                                                BufferedImage.TYPE_BYTE_INDEXED, palette());
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        
+        double scale = 254 / Math.log1p(topCount / steps);
+        for (int y = minY; y <= maxY; y++) {
+            int row = (y - minY + PADDING) * imageWidth + PADDING - minX;
+            for (int x = minX; x <= maxX; x++) {
+                int count = counts[y * width + x];
+                if (count > 0) {
+                    int level = (int) (Math.log1p(Math.min(count, topCount) / steps) * scale);
+                    pixels[row + x] = (byte) (1 + level);
+                }
+            }
+        }
+        return image;
+    }
+    
+    /**
+     * Renders the heatmap and saves it as a PNG file
+     * @param compressionLevel deflate level, 0 (none, fastest) to 9 (smallest)
+     * @return the rendered image
+     * @throws IOException if the file cannot be written
+     */
+    public BufferedImage save(String outputPath, int compressionLevel) throws IOException {
+        BufferedImage image = render();
+        Metrics.Span encode = Metrics.begin(Metrics.Stage.ENCODE);
+        long written = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            written = PngRenderer.encode(image, compressionLevel, out);
+        } finally {
+            encode.end(0, 0, written);
+        }
+        return image;
+    }
+    
+    /**
+     * Counts the steps of a line from (x0, y0), which is not counted again, to
+     * (x1, y1), in world pixels at the highest zoom. Step s is at
+     * round(x0 + dx * s / steps), and the steps falling in one cell of the grid
+     * are counted at once.
+     */
+    private void line(long x0, long y0, long x1, long y1) {
+        long dx = x1 - x0;
+        long dy = y1 - y0;
+        long steps = Math.max(Math.abs(dx), Math.abs(dy));
+        int shift = MAX_ZOOM - zoom;
+        long cellX = x1 >> shift;
+        long cellY = y1 >> shift;
+        if (x0 >> shift == cellX && y0 >> shift == cellY) {
+            if (steps > 0) {
+                countCell(cellX, cellY, (int) steps); // the usual case once zoomed out
+            }
+            return;
+        }
+        
+        // A step moves at most one pixel along each axis, so the line leaves a
+        // cell for the next one along the axis whose edge it crosses first
+        cellX = (x0 + firstStep(dx, steps)) >> shift;
+        cellY = (y0 + firstStep(dy, steps)) >> shift;
+        long leaveX = leaveCell(x0, dx, steps, cellX, shift);
+        long leaveY = leaveCell(y0, dy, steps, cellY, shift);
+        for (long s = 1; s <= steps; ) {
+            long next = Math.min(steps + 1, Math.min(leaveX, leaveY));
+            countCell(cellX, cellY, (int) (next - s));
+            s = next;
+            if (s == leaveX) {
+                cellX += Long.signum(dx);
+                leaveX = leaveCell(x0, dx, steps, cellX, shift);
+            }
+            if (s == leaveY) {
+                cellY += Long.signum(dy);
+                leaveY = leaveCell(y0, dy, steps, cellY, shift);
+            }
+        }
+    }
+    
+    /**
+     * @return the offset of the first step of a line of a given number of steps
+     *         along a coordinate that changes by d, round(d / steps), which is
+     *         -1, 0 or 1 as d is at most steps either way
+     */
+    private static long firstStep(long d, long steps) {
+        long twice = 2 * d + steps; // round(x) = floor((2x + 1) / 2)
+        return twice >= 2 * steps ? 1 : twice < 0 ? -1 : 0;
+    }
+    
+    /**
+     * @return the first step of a line along a coordinate, from start by d in a
+     *         number of steps, that is outside a cell of the grid; step s is at
+     *         start + round(d * s / steps)
+     */
+    private static long leaveCell(long start, long d, long steps, long cell, int shift) {
+        if (d == steps) {
+            return ((cell + 1) << shift) - start; // one pixel a step
+        }
+        if (d == -steps) {
+            return start - (cell << shift) + 1;
+        }
+        if (d > 0) {
+            // First s with round(d * s / steps) >= k
+            long k = ((cell + 1) << shift) - start;
+            return -Math.floorDiv(steps - 2 * steps * k, 2 * d);
+        }
+        if (d < 0) {
+            // First s with round(d * s / steps) <= k
+            long k = (cell << shift) - 1 - start;
+            return Math.floorDiv(steps - 2 * steps * (k + 1), -2 * d) + 1;
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * Adds n to the cell of the grid holding a world pixel at the highest zoom
+     */
+    private void count(long x, long y, int n) {
+        int shift = MAX_ZOOM - zoom;
+        countCell(x >> shift, y >> shift, n);
+    }
+    
+    /**
+     * Adds n to a cell of the grid, in world cells at the zoom; counts stop at
+     * Integer.MAX_VALUE
+     */
+    private void countCell(long cellX, long cellY, int n) {
+        int i = (int) (cellY - originY) * width + (int) (cellX - originX);
+        counts[i] = add(counts[i], n);
+    }
+    
+    private static int add(int count, int n) {
+        int sum = count + n;
+        return sum < 0 ? Integer.MAX_VALUE : sum;
+    }
+    
+    /**
+     * @return the count below which the fraction of the nonzero counts lies, the
+     *         same as sorting them and picking one; a histogram of the high 16
+     *         bits finds the range holding it, and one of the low 16 bits the count
+     */
+    static int percentile(int[] counts, double fraction) {
+        int[] histogram = new int[1 << 16];
+        long lit = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                histogram[count >>> 16]++;
+                lit++;
+            }
+        }
+        long rank = (long) ((lit - 1) * fraction);
+        int high = 0;
+        while (rank >= histogram[high]) {
+            rank -= histogram[high++];
+        }
+        
+        Arrays.fill(histogram, 0);
+        for (int count : counts) {
+            if (count > 0 && count >>> 16 == high) {
+                histogram[count & 0xFFFF]++;
+            }
+        }
+        int low = 0;
+        while (rank >= histogram[low]) {
+            rank -= histogram[low++];
+        }
+        return high << 16 | low;
+    }
+    
+    /**
+     * Grows the grid to take in a box of world pixels at the current zoom,
+     * zooming out first if the box and the cells already drawn would not fit in
+     * the maximum size
+     */
+    private void include(long minX, long minY, long maxX, long maxY) {
+        if (width > 0) {
+            minX = Math.min(minX, drawnMinX);
+            minY = Math.min(minY, drawnMinY);
+            maxX = Math.max(maxX, drawnMaxX);
+            maxY = Math.max(maxY, drawnMaxY);
+        }
+        int newZoom = zoom;
+        while (maxX - minX + 1 > maxSize || maxY - minY + 1 > maxSize) {
+            minX >>= 1;
+            minY >>= 1;
+            maxX >>= 1;
+            maxY >>= 1;
+            newZoom--;
+        }
+        if (width == 0 || newZoom != zoom || minX < originX || minY < originY
+                || maxX >= originX + width || maxY >= originY + height) {
+            // Leave room to grow, so tracks just outside the grid do not each copy it
+            long world = 256L << newZoom;
+            long spareX = Math.min(maxSize - (maxX - minX + 1), (maxX - minX + 1) / 2) / 2;
+            long spareY = Math.min(maxSize - (maxY - minY + 1), (maxY - minY + 1) / 2) / 2;
+            long gridMinX = Math.max(0, minX - spareX);
+            long gridMinY = Math.max(0, minY - spareY);
+            resize(newZoom, gridMinX, gridMinY,
+                   (int) (Math.min(world - 1, maxX + spareX) - gridMinX + 1),
+                   (int) (Math.min(world - 1, maxY + spareY) - gridMinY + 1));
+        }
+        drawnMinX = minX;
+        drawnMinY = minY;
+        drawnMaxX = maxX;
+        drawnMaxY = maxY;
+    }
+    
+    /**
+     * Moves the counts of a heatmap into a grid at a lower zoom just covering them
+     * @return the heatmap
+     */
+    private static Heatmap zoomOut(Heatmap heatmap, int newZoom) {
+        int shift = heatmap.zoom - newZoom;
+        long minX = heatmap.drawnMinX >> shift;
+        long minY = heatmap.drawnMinY >> shift;
+        heatmap.resize(newZoom, minX, minY, (int) ((heatmap.drawnMaxX >> shift) - minX + 1),
+                       (int) ((heatmap.drawnMaxY >> shift) - minY + 1));
+        return heatmap;
+    }
+    
+    /**
+     * Moves the counts into a new grid at the same or a lower zoom, which must
+     * cover every cell counted so far, adding up the cells merged into one
+     */
+    private void resize(int newZoom, long newOriginX, long newOriginY, int newWidth,
+                        int newHeight) {
+        int[] resized = new int[newWidth * newHeight];
+        int shift = zoom - newZoom;
+        for (int y = 0; y < height; y++) {
+            int row = (int) (((originY + y) >> shift) - newOriginY) * newWidth;
+            for (int x = 0; x < width; x++) {
+                int count = counts[y * width + x];
+                if (count != 0) {
+                    int i = row + (int) (((originX + x) >> shift) - newOriginX);
+                    resized[i] = add(resized[i], count);
+                }
+            }
+        }
+        counts = resized;
+        zoom = newZoom;
+        drawnMinX >>= shift;
+        drawnMinY >>= shift;
+        drawnMaxX >>= shift;
+        drawnMaxY >>= shift;
+        originX = newOriginX;
+        originY = newOriginY;
+        width = newWidth;
+        height = newHeight;
+    }
+    
+    private static long worldPixel(double fraction, int zoom) {
+        long world = 256L << zoom;
+        return Math.min(world - 1, (long) (fraction * world));
+    }
+    
+    private static IndexColorModel palette() {
+        int[] colors = new int[256];
+        colors[0] = BACKGROUND;
+        for (int level = 1; level < 256; level++) {
+            int stop = 1;
+            while (RAMP[stop][0] < level) {
+                stop++;
+            }
+            int[] from = RAMP[stop - 1];
+            int[] to = RAMP[stop];
+            double t = (level - from[0]) / (double) (to[0] - from[0]);
+            int color = 0;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int a = (from[1] >> shift) & 0xFF;
+                int b = (to[1] >> shift) & 0xFF;
+                color |= (int) Math.round(a + (b - a) * t) << shift;
+            }
+            colors[level] = color;
+        }
+        return new IndexColorModel(8, 256, colors, 0, false, -1, DataBuffer.TYPE_BYTE);
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * Min/max decimation of a growing track over a fixed distance axis
+ *
+ * The axis [0, maxDist] is divided into pixel columns, and each column keeps the
+ * index of its lowest and highest point, as in DecimatedSeries.minMax. Because
+ * the axis does not change as points arrive, appending points only updates the
+ * columns they fall into, and the series to draw is built from the columns
+ * without looking at the points in between.
+ */
+final class LiveSeries {
+    
+    final double maxDist;
+    final int columns;
+    
+    private final int[] minIndex;
+    private final int[] maxIndex;
+    private int lastColumn = -1;
+    private int lastIndex = -1;
+    
+    LiveSeries(double maxDist, int columns) {
+        this.maxDist = maxDist;
+        this.columns = Math.max(columns, 1);
+        this.minIndex = new int[this.columns];
+        this.maxIndex = new int[this.columns];
+        Arrays.fill(minIndex, -1);
+        Arrays.fill(maxIndex, -1);
+    }
+    
+    /**
+     * Adds points [from, to) of the track; points must be added in order and
+     * lie within the axis
+     */
+    void append(TrackBuffer track, int from, int to) {
+        double[] distances = track.distances();
+        double[] altitudes = track.altitudes();
+        double columnsPerMeter = maxDist > 0 ? columns / maxDist : 0;
+        
+        for (int i = from; i < to; i++) {
+            int column = Math.min((int) (distances[i] * columnsPerMeter), columns - 1);
+            if (minIndex[column] < 0) {
+                minIndex[column] = i;
+                maxIndex[column] = i;
+            } else {
+                if (altitudes[i] < altitudes[minIndex[column]]) {
+                    minIndex[column] = i;
+                }
+                if (altitudes[i] > altitudes[maxIndex[column]]) {
+                    maxIndex[column] = i;
+                }
+            }
+            lastColumn = Math.max(lastColumn, column);
+            lastIndex = i;
+        }
+    }
+    
+    /**
+     * @return the extremes of every column in track order, ending with the last
+     *         point so the line reaches it
+     */
+    DecimatedSeries series(TrackBuffer track) {
+        double[] dist = new double[2 * (lastColumn + 1) + 1];
+        double[] alt = new double[dist.length];
+        int count = 0;
+        int previous = -1;
+        
+        for (int c = 0; c <= lastColumn; c++) {
+            if (minIndex[c] < 0) {
+                continue;
+            }
+            int first = Math.min(minIndex[c], maxIndex[c]);
+            int second = Math.max(minIndex[c], maxIndex[c]);
+            dist[count] = track.distanceFromStart(first);
+            alt[count] = track.altitude(first);
+            count++;
+            if (second != first) {
+                dist[count] = track.distanceFromStart(second);
+                alt[count] = track.altitude(second);
+                count++;
+            }
+            previous = second;
+        }
+        if (lastIndex >= 0 && previous != lastIndex) {
+            dist[count] = track.distanceFromStart(lastIndex);
+            alt[count] = track.altitude(lastIndex);
+            count++;
+        }
+        return new DecimatedSeries(dist, alt, count);
+    }
+}
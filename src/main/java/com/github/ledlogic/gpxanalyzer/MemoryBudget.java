@@ -0,0 +1,73 @@
+package com.github.ledlogic.gpxanalyzer;
+
+/**
+ * Heap budget shared by the files in flight in the batch pipeline
+ *
+ * Each file reserves an estimate of the memory its parse will need before it is
+ * parsed, and trades it for the size of its parsed track afterwards. Reserving
+ * blocks while the budget is used up, so parsing waits for the later stages to
+ * finish files instead of filling the heap. A file larger than the whole budget
+ * is still let through once nothing else holds any of it.
+ */
+final class MemoryBudget {
+    
+    private final long limit;
+    private final String gauge; // metrics name of the reserved megabytes
+    private long used;
+    private long peak;
+    
+    MemoryBudget(long limit, String gauge) {
+        this.limit = Math.max(limit, 1);
+        this.gauge = gauge;
+    }
+    
+    /**
+     * Waits until the bytes fit in the budget and reserves them
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void acquire(long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > limit) {
+            wait();
+        }
+        change(bytes);
+    }
+    
+    /**
+     * Replaces a reservation by one of a different size without waiting, since
+     * the memory is already in use
+     */
+    synchronized void resize(long from, long to) {
+        change(to - from);
+    }
+    
+    synchronized void release(long bytes) {
+        change(-bytes);
+    }
+    
+    long limit() {
+        return limit;
+    }
+    
+    /**
+     * @return the number of bytes reserved now
+     */
+    synchronized long used() {
+        return used;
+    }
+    
+    /**
+     * @return the largest number of bytes reserved at once
+     */
+    synchronized long peak() {
+        return peak;
+    }
+    
+    private void change(long bytes) {
+        used += bytes;
+        peak = Math.max(peak, used);
+        if (bytes < 0) {
+            notifyAll();
+        }
+        Metrics.queueDepth(gauge, (int) (used >> 20));
+    }
+}
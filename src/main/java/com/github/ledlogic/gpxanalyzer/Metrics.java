@@ -0,0 +1,372 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Per-stage timing and counters for parsing, distance measurement, CSV export
+ * and plot rendering
+ *
+ * Code wraps each stage in a span:
+ * <pre>
+ * Metrics.Span span = Metrics.begin(Metrics.Stage.CSV);
+ * ...
+ * span.end(points, bytesRead, bytesWritten);
+ * </pre>
+ * A span records its time and the bytes its thread allocated, minus those of
+ * spans nested in it, so the stages add up to the total. Each span is also
+ * committed as a StageEvent when the flight recorder records them. When neither
+ * --metrics nor a recording is active, begin() returns a shared span that does
+ * nothing, so the instrumentation costs two flag checks per stage.
+ *
+ * Totals are reported as JSON or Prometheus text, together with the current
+ * and maximum depth of the work queues.
+ */
+final class Metrics {
+    
+    enum Stage {
+        PARSE("parse"),       // reading GPX (or the track cache) into a track
+        DEM("dem"),           // replacing GPS altitudes with terrain heights
+        DISTANCE("distance"), // sorting is part of parse; this is the distance pass
+        CSV("csv"),           // bytes written are before gzip compression
+        DRAW("draw"),         // drawing the chart with Java2D
+        ENCODE("encode"),     // palette reduction and PNG compression
+        SVG("svg");
+        
+        final String label;
+        
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+    
+    private static volatile boolean enabled;
+    private static volatile File reportFile;
+    private static final long startNanos = System.nanoTime();
+    
+    private static final com.sun.management.ThreadMXBean ALLOCATION =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final Totals[] TOTALS = new Totals[Stage.values().length];
+    private static final Map<String, long[]> QUEUES = new ConcurrentSkipListMap<>();
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    
+    static {
+        for (int i = 0; i < TOTALS.length; i++) {
+            TOTALS[i] = new Totals();
+        }
+    }
+    
+    private Metrics() {
+    }
+    
+    /**
+     * Starts collecting totals
+     * @param report file written by writeReport(): Prometheus text, or JSON if
+     *               its name ends with .json; null for none
+     */
+    static void enable(File report) {
+        reportFile = report;
+        enabled = true;
+    }
+    
+    static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Starts timing a stage on the current thread; end the span on the same thread
+     */
+    static Span begin(Stage stage) {
+        StageEvent event = new StageEvent();
+        boolean recording = event.isEnabled();
+        if (!enabled && !recording) {
+            return Span.NONE;
+        }
+        if (recording) {
+            event.begin();
+        }
+        return new Span(stage, recording ? event : null);
+    }
+    
+    /**
+     * Records the current depth of a work queue
+     */
+    static void queueDepth(String queue, int depth) {
+        if (!enabled) {
+            return;
+        }
+        long[] depths = QUEUES.computeIfAbsent(queue, name -> new long[2]);
+        synchronized (depths) {
+            depths[0] = depth;
+            depths[1] = Math.max(depths[1], depth);
+        }
+    }
+    
+    /**
+     * @return the stream, counting the bytes written through it if metrics are on
+     */
+    static OutputStream counting(OutputStream out) {
+        return enabled ? new CountingOutputStream(out) : out;
+    }
+    
+    /**
+     * @return the bytes written through a stream returned by counting(), or 0
+     */
+    static long bytesWritten(OutputStream out) {
+        return out instanceof CountingOutputStream ? ((CountingOutputStream) out).count : 0;
+    }
+    
+    /**
+     * Writes the report file given to enable(), replacing it atomically
+     */
+    static synchronized void writeReport() {
+        File file = reportFile;
+        if (!enabled || file == null) {
+            return;
+        }
+        String report = file.getName().toLowerCase(Locale.ROOT).endsWith(".json")
+                        ? json() : prometheus();
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), report.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Warning: could not write metrics to " + file + ": "
+                               + e.getMessage());
+        }
+    }
+    
+    /**
+     * @return the totals as one JSON object
+     */
+    static String json() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"elapsedSeconds\":").append(seconds(System.nanoTime() - startNanos))
+            .append(",\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            long[] t = TOTALS[stage.ordinal()].snapshot();
+            double seconds = seconds(t[Totals.NANOS]);
+            if (stage.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(stage.label).append("\":{")
+                .append("\"count\":").append(t[Totals.COUNT])
+                .append(",\"seconds\":").append(seconds)
+                .append(",\"maxSeconds\":").append(seconds(t[Totals.MAX_NANOS]))
+                .append(",\"points\":").append(t[Totals.POINTS])
+                .append(",\"pointsPerSecond\":")
+                .append(seconds > 0 ? Math.round(t[Totals.POINTS] / seconds) : 0)
+                .append(",\"bytesRead\":").append(t[Totals.BYTES_READ])
+                .append(",\"bytesWritten\":").append(t[Totals.BYTES_WRITTEN])
+                .append(",\"allocatedBytes\":").append(t[Totals.ALLOCATED])
+                .append(",\"allocatedBytesPerCall\":")
+                .append(t[Totals.COUNT] > 0 ? t[Totals.ALLOCATED] / t[Totals.COUNT] : 0)
+                .append('}');
+        }
+        json.append("},\"queues\":{");
+        boolean first = true;
+        for (Map.Entry<String, long[]> queue : QUEUES.entrySet()) {
+            long[] depths = queueSnapshot(queue.getValue());
+            json.append(first ? "" : ",").append('"').append(queue.getKey())
+                .append("\":{\"depth\":").append(depths[0])
+                .append(",\"maxDepth\":").append(depths[1]).append('}');
+            first = false;
+        }
+        return json.append("}}\n").toString();
+    }
+    
+    /**
+     * @return the totals in the Prometheus text exposition format
+     */
+    static String prometheus() {
+        long[][] totals = new long[TOTALS.length][];
+        for (Stage stage : Stage.values()) {
+            totals[stage.ordinal()] = TOTALS[stage.ordinal()].snapshot();
+        }
+        
+        StringBuilder text = new StringBuilder(2048);
+        stageMetric(text, totals, "gpx_stage_calls_total", "counter",
+                    "Number of times each stage ran", Totals.COUNT, false);
+        stageMetric(text, totals, "gpx_stage_seconds_total", "counter",
+                    "Time spent in each stage, excluding nested stages", Totals.NANOS, true);
+        stageMetric(text, totals, "gpx_stage_max_seconds", "gauge",
+                    "Longest single run of each stage", Totals.MAX_NANOS, true);
+        stageMetric(text, totals, "gpx_stage_points_total", "counter",
+                    "Track points handled by each stage", Totals.POINTS, false);
+        stageMetric(text, totals, "gpx_stage_read_bytes_total", "counter",
+                    "Bytes read by each stage", Totals.BYTES_READ, false);
+        stageMetric(text, totals, "gpx_stage_written_bytes_total", "counter",
+                    "Bytes written by each stage", Totals.BYTES_WRITTEN, false);
+        stageMetric(text, totals, "gpx_stage_allocated_bytes_total", "counter",
+                    "Bytes allocated by each stage", Totals.ALLOCATED, false);
+        
+        text.append("# HELP gpx_queue_depth Current number of items waiting in a work queue\n")
+            .append("# TYPE gpx_queue_depth gauge\n");
+        for (Map.Entry<String, long[]> queue : QUEUES.entrySet()) {
+            text.append("gpx_queue_depth{queue=\"").append(queue.getKey()).append("\"} ")
+                .append(queueSnapshot(queue.getValue())[0]).append('\n');
+        }
+        text.append("# HELP gpx_queue_max_depth Largest number of items seen in a work queue\n")
+            .append("# TYPE gpx_queue_max_depth gauge\n");
+        for (Map.Entry<String, long[]> queue : QUEUES.entrySet()) {
+            text.append("gpx_queue_max_depth{queue=\"").append(queue.getKey()).append("\"} ")
+                .append(queueSnapshot(queue.getValue())[1]).append('\n');
+        }
+        return text.toString();
+    }
+    
+    private static void stageMetric(StringBuilder text, long[][] totals, String name,
+                                    String type, String help, int field, boolean nanos) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+            .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Stage stage : Stage.values()) {
+            long value = totals[stage.ordinal()][field];
+            text.append(name).append("{stage=\"").append(stage.label).append("\"} ")
+                .append(nanos ? Double.toString(seconds(value)) : Long.toString(value))
+                .append('\n');
+        }
+    }
+    
+    private static long[] queueSnapshot(long[] depths) {
+        synchronized (depths) {
+            return depths.clone();
+        }
+    }
+    
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+    
+    /**
+     * Bytes allocated so far by the current thread, or 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        return ALLOCATION.isThreadAllocatedMemoryEnabled()
+               ? ALLOCATION.getCurrentThreadAllocatedBytes() : 0;
+    }
+    
+    /**
+     * Timing of one run of a stage
+     */
+    static class Span {
+        static final Span NONE = new Span();
+        
+        private final Stage stage;
+        private final StageEvent event;
+        private final Span parent;
+        private final long start;
+        private final long startAllocated;
+        private long nestedNanos;
+        private long nestedAllocated;
+        
+        private Span() {
+            stage = null;
+            event = null;
+            parent = null;
+            start = 0;
+            startAllocated = 0;
+        }
+        
+        private Span(Stage stage, StageEvent event) {
+            this.stage = stage;
+            this.event = event;
+            this.parent = CURRENT.get();
+            CURRENT.set(this);
+            this.startAllocated = allocatedBytes();
+            this.start = System.nanoTime();
+        }
+        
+        /**
+         * Ends the span
+         * @param points track points handled
+         * @param bytesRead bytes of input read, or 0
+         * @param bytesWritten bytes of output written, or 0
+         */
+        void end(long points, long bytesRead, long bytesWritten) {
+            if (stage == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            long allocated = allocatedBytes() - startAllocated;
+            if (parent != null) {
+                parent.nestedNanos += nanos;
+                parent.nestedAllocated += allocated;
+            }
+            CURRENT.set(parent);
+            nanos -= nestedNanos;
+            allocated -= nestedAllocated;
+            
+            if (enabled) {
+                TOTALS[stage.ordinal()].add(nanos, points, bytesRead, bytesWritten, allocated);
+            }
+            if (event != null) {
+                event.stage = stage.label;
+                event.points = points;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+    
+    /**
+     * Running totals of one stage
+     */
+    private static class Totals {
+        static final int COUNT = 0;
+        static final int NANOS = 1;
+        static final int MAX_NANOS = 2;
+        static final int POINTS = 3;
+        static final int BYTES_READ = 4;
+        static final int BYTES_WRITTEN = 5;
+        static final int ALLOCATED = 6;
+        
+        private final long[] values = new long[7];
+        
+        synchronized void add(long nanos, long points, long bytesRead, long bytesWritten,
+                              long allocated) {
+            values[COUNT]++;
+            values[NANOS] += nanos;
+            values[MAX_NANOS] = Math.max(values[MAX_NANOS], nanos);
+            values[POINTS] += points;
+            values[BYTES_READ] += bytesRead;
+            values[BYTES_WRITTEN] += bytesWritten;
+            values[ALLOCATED] += allocated;
+        }
+        
+        synchronized long[] snapshot() {
+            return values.clone();
+        }
+    }
+    
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.ledlogic.gpxanalyzer;
+
+/**
+ * Precomputed min/max altitude pyramid over the points of a track
+ *
+ * Level k stores, for every block of 2^k consecutive points, the index of the
+ * lowest and of the highest point in that block. Any index range can then be
+ * answered from O(log n) blocks, which lets the plotter find the extremes of every
+ * pixel column of a zoomed view without scanning the points in between.
+ * The pyramid takes about 8 bytes per point.
+ */
+public class MinMaxPyramid {
+
+    private final double[] altitudes;
+    private final int size;
+    private final int[][] minIndex; // [level][block], level 0 is unused (block = point)
+    private final int[][] maxIndex;
+
+    public MinMaxPyramid(TrackBuffer track) {
+        this.altitudes = track.altitudes();
+        this.size = track.size();
+
+        int levels = 1;
+        for (int blocks = size; blocks > 1; blocks = (blocks + 1) / 2) {
+            levels++;
+        }
+        minIndex = new int[levels][];
+        maxIndex = new int[levels][];
+
+        int childCount = size;
+        for (int level = 1; level < levels; level++) {
+            int blocks = (childCount + 1) / 2;
+            int[] mins = new int[blocks];
+            int[] maxs = new int[blocks];
+
+            for (int b = 0; b < blocks; b++) {
+                int left = 2 * b;
+                int right = Math.min(left + 1, childCount - 1);
+                mins[b] = lower(minAt(level - 1, left), minAt(level - 1, right));
+                maxs[b] = higher(maxAt(level - 1, left), maxAt(level - 1, right));
+            }
+
+            minIndex[level] = mins;
+            maxIndex[level] = maxs;
+            childCount = blocks;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the lowest and highest point with an index in [from, to]
+     * @param result receives the index of the lowest point in [0] and of the highest in [1]
+     */
+    public void rangeExtremes(int from, int to, int[] result) {
+        int lo = Math.max(from, 0);
+        int hi = Math.min(to, size - 1);
+        int min = -1;
+        int max = -1;
+
+        // Bottom-up walk: take unpaired edge blocks, then move to the parent level
+        for (int level = 0; lo <= hi; level++) {
+            if ((lo & 1) == 1) {
+                min = lower(min, minAt(level, lo));
+                max = higher(max, maxAt(level, lo));
+                lo++;
+            }
+            if ((hi & 1) == 0) {
+                min = lower(min, minAt(level, hi));
+                max = higher(max, maxAt(level, hi));
+                hi--;
+            }
+            lo >>= 1;
+            hi >>= 1;
+        }
+
+        result[0] = min;
+        result[1] = max;
+    }
+
+    private int minAt(int level, int block) {
+        return level == 0 ? block : minIndex[level][block];
+    }
+
+    private int maxAt(int level, int block) {
+        return level == 0 ? block : maxIndex[level][block];
+    }
+
+    private int lower(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        return altitudes[b] < altitudes[a] ? b : a;
+    }
+
+    private int higher(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        return altitudes[b] > altitudes[a] ? b : a;
+    }
+}
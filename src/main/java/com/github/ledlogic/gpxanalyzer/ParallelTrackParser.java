@@ -0,0 +1,520 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses one large GPX file on several cores
+ *
+ * The file is split into chunks that each start at a {@code <trkpt} tag. Every
+ * chunk is memory-mapped and scanned for track points by a fork-join task, the
+ * chunk results are joined in file order, and the distances are computed with
+ * {@link TrackBuffer#computeDistances(DistanceMethod, ForkJoinPool)}.
+ *
+ * The chunk scanner reads track points the way the DOM and StAX parsers do (the
+ * lat/lon attributes and the first ele and time elements inside each trkpt, and
+ * the trk and trkseg tags that divide them into segments), but
+ * it does not decode XML in general. Files it cannot handle exactly - comments,
+ * CDATA or DTDs, entity references in the values it reads, encodings that are not
+ * ASCII-compatible, or values that do not parse - are passed to
+ * {@link GPXElevationProfile#parseTrack(String, DistanceMethod)} instead, so the
+ * result is always the same as that of the other parsers.
+ */
+public class ParallelTrackParser {
+    
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 256L << 20;
+    private static final int SEARCH_WINDOW = 1 << 20;
+    
+    private static final byte[] TRK = "trk".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKSEG = "trkseg".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKPT = "trkpt".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ELE = "ele".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = "time".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAT = "lat".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LON = "lon".getBytes(StandardCharsets.US_ASCII);
+    
+    private final ForkJoinPool pool;
+    private final DistanceMethod method;
+    private final long chunkSize;
+    
+    public ParallelTrackParser(ForkJoinPool pool, DistanceMethod method) {
+        this(pool, method, 0);
+    }
+    
+    /**
+     * @param chunkSize bytes per chunk, or 0 to derive it from the file size and
+     *                  the parallelism of the pool
+     */
+    ParallelTrackParser(ForkJoinPool pool, DistanceMethod method, long chunkSize) {
+        this.pool = pool;
+        this.method = method;
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Parses a GPX file into columnar storage, with points sorted chronologically
+     * and cumulative distances filled in
+     */
+    public TrackBuffer parse(File gpxFile) throws Exception {
+        TrackBuffer track;
+        try {
+            track = parseChunks(gpxFile);
+            if (track.size() == 0) {
+                // Nothing to split: the regular parser also reports malformed files
+                throw new UnsupportedContentException();
+            }
+        } catch (UnsupportedContentException e) {
+            return GPXElevationProfile.parseTrack(gpxFile.getPath(), method);
+        }
+        
+        track.sortByTime();
+        track.computeDistances(method, SegmentPolicy.BRIDGE, pool);
+        return track;
+    }
+    
+    private TrackBuffer parseChunks(File gpxFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(gpxFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            List<Long> boundaries = chunkBoundaries(channel, fileSize);
+            
+            List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<>();
+            for (int c = 0; c + 1 < boundaries.size(); c++) {
+                long start = boundaries.get(c);
+                long end = boundaries.get(c + 1);
+                boolean first = c == 0;
+                tasks.add(pool.submit(() -> {
+                    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                       start, end - start);
+                    return new ChunkScanner(map, first).scan();
+                }));
+            }
+            
+            List<ChunkResult> results = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<ChunkResult> task : tasks) {
+                results.add(joinChunk(task));
+            }
+            return join(results);
+        }
+    }
+    
+    /**
+     * Waits for a chunk, passing on the exceptions that select the fallback parser
+     */
+    private static ChunkResult joinChunk(ForkJoinTask<ChunkResult> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UnsupportedContentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            // A value that does not parse: let the regular parser report it
+            throw new UnsupportedContentException();
+        }
+    }
+    
+    /**
+     * @return chunk start offsets followed by the file size; every offset except
+     *         the first is the position of a {@code <trkpt} tag
+     */
+    private List<Long> chunkBoundaries(FileChannel channel, long fileSize) throws IOException {
+        long size = chunkSize > 0
+            ? chunkSize
+            : Math.max(MIN_CHUNK_SIZE,
+                       Math.min(MAX_CHUNK_SIZE, fileSize / (pool.getParallelism() * 4L)));
+        
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long next = size;
+        while (next < fileSize) {
+            long tag = findTrkpt(channel, next, fileSize);
+            if (tag < 0) {
+                break;
+            }
+            boundaries.add(tag);
+            next = tag + size;
+        }
+        boundaries.add(fileSize);
+        return boundaries;
+    }
+    
+    /**
+     * @return the offset of the first {@code <trkpt} tag at or after from, or -1
+     */
+    private static long findTrkpt(FileChannel channel, long from, long fileSize)
+            throws IOException {
+        for (long windowStart = from; windowStart < fileSize;
+             windowStart += SEARCH_WINDOW) {
+            // Windows overlap by the tag length so a tag on the seam is still found
+            long length = Math.min(SEARCH_WINDOW + TRKPT.length + 1, fileSize - windowStart);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            for (int i = 0; i < Math.min(SEARCH_WINDOW, length); i++) {
+                if (map.get(i) == '<' && isTag(map, i + 1, (int) length, TRKPT)) {
+                    return windowStart + i;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return true if the bytes at pos are name followed by whitespace, '>' or '/'
+     */
+    private static boolean isTag(MappedByteBuffer map, int pos, int limit, byte[] name) {
+        if (pos + name.length >= limit) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (map.get(pos + i) != name[i]) {
+                return false;
+            }
+        }
+        byte after = map.get(pos + name.length);
+        return after == '>' || after == '/' || isWhitespace(after);
+    }
+    
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+    
+    /**
+     * Joins the chunk results in file order, numbering segments and tracks and
+     * printing the timestamp warnings with their index in the whole file
+     */
+    private static TrackBuffer join(List<ChunkResult> results) {
+        int total = 0;
+        for (ChunkResult result : results) {
+            total += result.track.size();
+        }
+        
+        double[] latitude = new double[total];
+        double[] longitude = new double[total];
+        double[] altitude = new double[total];
+        long[] epochMillis = new long[total];
+        TrackBuffer joined = new TrackBuffer(latitude, longitude, altitude, new double[total],
+                                             new double[total], epochMillis, total);
+        int offset = 0;
+        int trackCount = 0;
+        boolean pendingChange = false; // trk/trkseg tags after the last point so far
+        for (ChunkResult result : results) {
+            TrackBuffer chunk = result.track;
+            int n = chunk.size();
+            System.arraycopy(chunk.latitudes(), 0, latitude, offset, n);
+            System.arraycopy(chunk.longitudes(), 0, longitude, offset, n);
+            System.arraycopy(chunk.altitudes(), 0, altitude, offset, n);
+            System.arraycopy(chunk.epochMillisArray(), 0, epochMillis, offset, n);
+            for (int index : result.badTimestamps) {
+                System.err.println("Warning: Could not parse timestamp at index "
+                                   + (offset + index));
+            }
+            // Track numbers continue from the trk tags of the earlier chunks
+            if (pendingChange && n > 0) {
+                joined.markSegment(offset, Math.max(trackCount - 1, 0));
+            }
+            for (int[] start : result.segmentStarts) {
+                joined.markSegment(offset + start[0], Math.max(trackCount + start[1] - 1, 0));
+            }
+            pendingChange = n > 0 ? result.trailingChange : pendingChange || result.trailingChange;
+            trackCount += result.trackCount;
+            offset += n;
+        }
+        return joined;
+    }
+    
+    private static class ChunkResult {
+        final TrackBuffer track;
+        final List<Integer> badTimestamps;
+        final List<int[]> segmentStarts; // {point index, trk tags seen before it}
+        final int trackCount; // trk tags in the chunk
+        final boolean trailingChange; // trk/trkseg tags after the last point
+        
+        ChunkResult(TrackBuffer track, List<Integer> badTimestamps, 
+                    List<int[]> segmentStarts, int trackCount, boolean trailingChange) {
+            this.track = track;
+            this.badTimestamps = badTimestamps;
+            this.segmentStarts = segmentStarts;
+            this.trackCount = trackCount;
+            this.trailingChange = trailingChange;
+        }
+    }
+    
+    /**
+     * Thrown when a chunk contains XML the scanner does not decode
+     */
+    private static class UnsupportedContentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        UnsupportedContentException() {
+            super(null, null, false, false);
+        }
+    }
+    
+    /**
+     * Scans one mapped chunk for track points
+     */
+    private static class ChunkScanner {
+        private final MappedByteBuffer map;
+        private final int limit;
+        private final boolean first;
+        private final TrackBuffer track;
+        private final List<Integer> badTimestamps = new ArrayList<>();
+        private final List<int[]> segmentStarts = new ArrayList<>();
+        private int trackCount;
+        private boolean structureChanged; // trk/trkseg tag since the previous point
+        private int pos;
+        
+        ChunkScanner(MappedByteBuffer map, boolean first) {
+            this.map = map;
+            this.limit = map.limit();
+            this.first = first;
+            this.track = new TrackBuffer(Math.max(16, limit / 128));
+        }
+        
+        ChunkResult scan() {
+            if (first) {
+                checkEncoding();
+            }
+            while (true) {
+                int open = indexOf('<', pos);
+                if (open < 0) {
+                    return new ChunkResult(track, badTimestamps, segmentStarts, trackCount,
+                                           structureChanged);
+                }
+                pos = open + 1;
+                if (pos < limit && map.get(pos) == '!') {
+                    throw new UnsupportedContentException(); // comment, CDATA or DTD
+                }
+                if (isTag(map, pos, limit, TRKPT)) {
+                    pos += TRKPT.length;
+                    readPoint();
+                } else if (isTag(map, pos, limit, TRK)) {
+                    trackCount++;
+                    structureChanged = true;
+                } else if (isTag(map, pos, limit, TRKSEG)
+                           || (pos < limit && map.get(pos) == '/'
+                               && (isTag(map, pos + 1, limit, TRK)
+                                   || isTag(map, pos + 1, limit, TRKSEG)))) {
+                    structureChanged = true;
+                }
+            }
+        }
+        
+        /**
+         * Reads one trkpt; pos is just after the tag name
+         */
+        private void readPoint() {
+            String lat = "";
+            String lon = "";
+            
+            // Attributes up to '>' or '/>'
+            while (true) {
+                skipWhitespace();
+                byte b = at(pos);
+                if (b == '>' || b == '/') {
+                    break;
+                }
+                int nameStart = pos;
+                while (at(pos) != '=' && !isWhitespace(at(pos))) {
+                    pos++;
+                }
+                int nameEnd = pos;
+                skipWhitespace();
+                expect('=');
+                skipWhitespace();
+                String value = readQuoted();
+                if (matches(nameStart, nameEnd, LAT)) {
+                    lat = value;
+                } else if (matches(nameStart, nameEnd, LON)) {
+                    lon = value;
+                }
+            }
+            
+            double latitude = Double.parseDouble(lat);
+            double longitude = Double.parseDouble(lon);
+            double altitude = 0;
+            long epochMillis = TrackBuffer.NO_TIME;
+            
+            if (at(pos) == '/') {
+                pos++;
+                expect('>');
+                addPoint(latitude, longitude, altitude, epochMillis);
+                return;
+            }
+            pos++;
+            
+            // Content up to </trkpt>; only the first ele and time count
+            boolean haveEle = false;
+            boolean haveTime = false;
+            while (true) {
+                int open = indexOf('<', pos);
+                if (open < 0) {
+                    throw new UnsupportedContentException(); // trkpt runs past the chunk
+                }
+                pos = open + 1;
+                byte b = at(pos);
+                if (b == '!' || b == '?') {
+                    throw new UnsupportedContentException();
+                }
+                if (b == '/') {
+                    if (isTag(map, pos + 1, limit, TRKPT)) {
+                        pos = indexOf('>', pos) + 1;
+                        break;
+                    }
+                } else if (isTag(map, pos, limit, TRKPT)) {
+                    throw new UnsupportedContentException();
+                } else if (!haveEle && isTag(map, pos, limit, ELE)) {
+                    haveEle = true;
+                    altitude = Double.parseDouble(readElementText(ELE));
+                } else if (!haveTime && isTag(map, pos, limit, TIME)) {
+                    haveTime = true;
+                    String text = readElementText(TIME);
+                    try {
+                        epochMillis = TimestampParser.parseEpochMillis(text);
+                    } catch (Exception e) {
+                        badTimestamps.add(track.size());
+                    }
+                }
+            }
+            
+            addPoint(latitude, longitude, altitude, epochMillis);
+        }
+        
+        private void addPoint(double latitude, double longitude, double altitude,
+                              long epochMillis) {
+            if (structureChanged) {
+                segmentStarts.add(new int[] {track.size(), trackCount});
+                structureChanged = false;
+            }
+            track.add(latitude, longitude, altitude, epochMillis);
+        }
+        
+        /**
+         * Reads the text of a simple element; pos is at its name
+         */
+        private String readElementText(byte[] name) {
+            int close = indexOf('>', pos);
+            if (close < 0 || at(close - 1) == '/') {
+                throw new UnsupportedContentException();
+            }
+            int textStart = close + 1;
+            int textEnd = indexOf('<', textStart);
+            if (textEnd < 0 || at(textEnd + 1) != '/' || !isTag(map, textEnd + 2, limit, name)) {
+                throw new UnsupportedContentException(); // nested markup
+            }
+            pos = textEnd;
+            return decode(textStart, textEnd);
+        }
+        
+        private String readQuoted() {
+            byte quote = at(pos);
+            if (quote != '"' && quote != '\'') {
+                throw new UnsupportedContentException();
+            }
+            int end = indexOf(quote, pos + 1);
+            if (end < 0) {
+                throw new UnsupportedContentException();
+            }
+            String value = decode(pos + 1, end);
+            pos = end + 1;
+            return value;
+        }
+        
+        /**
+         * Decodes plain ASCII text; entity references are left to the XML parsers
+         */
+        private String decode(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            map.get(start, bytes);
+            for (byte b : bytes) {
+                if (b == '&' || b < 0) {
+                    throw new UnsupportedContentException();
+                }
+            }
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        
+        /**
+         * Accepts a missing declaration and ASCII-compatible encodings only
+         */
+        private void checkEncoding() {
+            if (limit >= 2 && (map.get(0) == 0 || map.get(1) == 0
+                               || (map.get(0) & 0xFF) == 0xFE || (map.get(0) & 0xFF) == 0xFF)) {
+                throw new UnsupportedContentException(); // UTF-16 or UTF-32
+            }
+            int declEnd = indexOf('>', 0);
+            if (declEnd < 0) {
+                return;
+            }
+            String declaration = decodeHeader(0, declEnd).toLowerCase(Locale.ROOT);
+            int encoding = declaration.indexOf("encoding");
+            if (!declaration.contains("<?xml") || encoding < 0) {
+                return;
+            }
+            String name = declaration.substring(encoding + "encoding".length())
+                .replaceAll("^\\s*=\\s*[\"']([^\"']*)[\"'].*$", "$1");
+            if (!(name.equals("utf-8") || name.equals("us-ascii") || name.equals("ascii")
+                  || name.startsWith("iso-8859-") || name.startsWith("windows-125"))) {
+                throw new UnsupportedContentException();
+            }
+        }
+        
+        private String decodeHeader(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            map.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        
+        private boolean matches(int start, int end, byte[] name) {
+            if (end - start != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (map.get(start + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private void skipWhitespace() {
+            while (isWhitespace(at(pos))) {
+                pos++;
+            }
+        }
+        
+        private void expect(char c) {
+            if (at(pos) != c) {
+                throw new UnsupportedContentException();
+            }
+            pos++;
+        }
+        
+        private byte at(int index) {
+            if (index >= limit) {
+                throw new UnsupportedContentException();
+            }
+            return map.get(index);
+        }
+        
+        private int indexOf(int value, int from) {
+            for (int i = from; i < limit; i++) {
+                if (map.get(i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Headless renderer that saves elevation profile plots as PNG
+ *
+ * The chart is drawn straight onto an image that each thread keeps between
+ * plots, rather than by painting a component into a new image, and written with
+ * a reused PNG writer at the chosen deflate level. The chart is opaque, so it is
+ * written as RGB without an alpha channel. In palette mode it is written with an
+ * 8-bit palette (see ColorPalette), which roughly halves the file size.
+ *
+ * Poster-size plots, over MAX_IMAGE_PIXELS, are drawn in bands of whole rows
+ * instead, each written out through a PngStreamWriter before the next is drawn,
+ * so memory depends on the band size and not the image size. A band is drawn
+ * in tiles whose clips leave out the points elsewhere in the plot. These plots
+ * are always RGB, since the palette would have to come from the whole image.
+ */
+public class PngRenderer {
+    
+    public static final int DEFAULT_WIDTH = 1000;
+    public static final int DEFAULT_HEIGHT = 600;
+    public static final int DEFAULT_COMPRESSION = 4; // ImageIO's deflate level
+    
+    static final int MIN_WIDTH = 200; // room for the axis labels and the chart
+    static final int MIN_HEIGHT = 150;
+    static final int MAX_SIZE = 65535;
+    static final int MAX_IMAGE_PIXELS = 16 * 1024 * 1024; // larger plots are drawn in bands
+    private static final int MAX_REUSED_PIXELS = 4 * 1024 * 1024; // larger images are not kept
+    private static final int BAND_PIXELS = MAX_REUSED_PIXELS;
+    private static final int TILE_WIDTH = 2048;
+    
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+    
+    private final int width;
+    private final int height;
+    private final int compressionLevel;
+    private final boolean palette;
+    
+    /**
+     * Renders 1000x600 RGB images at the default compression level, the same
+     * pixels the plot window shows
+     */
+    public PngRenderer() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_COMPRESSION, false);
+    }
+    
+    /**
+     * @param compressionLevel deflate level, 0 (none, fastest) to 9 (smallest)
+     * @param palette true to write an 8-bit palette image instead of RGB
+     * @throws IllegalArgumentException if the size or level is out of range
+     */
+    public PngRenderer(int width, int height, int compressionLevel, boolean palette) {
+        if (width < MIN_WIDTH || height < MIN_HEIGHT || width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("PNG size must be between " + MIN_WIDTH + "x"
+                                               + MIN_HEIGHT + " and " + MAX_SIZE + "x" + MAX_SIZE
+                                               + ": " + width + "x" + height);
+        }
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("PNG compression level must be 0 to 9: "
+                                               + compressionLevel);
+        }
+        this.width = width;
+        this.height = height;
+        this.compressionLevel = compressionLevel;
+        this.palette = palette;
+    }
+    
+    public int width() {
+        return width;
+    }
+    
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Saves the elevation profile plot of a track to a PNG file
+     * @param title The name to display in the title
+     * @throws IOException if the file cannot be written
+     */
+    public void save(TrackBuffer track, String title, String outputPath) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath))) {
+            write(track, title, out);
+        }
+    }
+    
+    /**
+     * Writes the elevation profile plot of a track as PNG to a stream, which is
+     * not closed
+     * @param title The name to display in the title
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(TrackBuffer track, String title, OutputStream out) throws IOException {
+        if ((long) width * height > MAX_IMAGE_PIXELS) {
+            writeBands(track, title, out);
+            return;
+        }
+        Workspace workspace = WORKSPACE.get();
+        BufferedImage image = workspace.image(width, height);
+        
+        Metrics.Span draw = Metrics.begin(Metrics.Stage.DRAW);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            setHints(g2);
+            new ElevationPlotter(track, title).drawChart(g2, width, height);
+        } finally {
+            g2.dispose();
+            draw.end(track != null ? track.size() : 0, 0, 0);
+        }
+        
+        Metrics.Span encode = Metrics.begin(Metrics.Stage.ENCODE);
+        long written = 0;
+        try {
+            RenderedImage output = palette ? workspace.indexed(image) : image;
+            written = encode(output, compressionLevel, out);
+        } finally {
+            encode.end(0, 0, written);
+        }
+    }
+    
+    /**
+     * Draws and writes a poster-size plot one band of rows at a time
+     */
+    private void writeBands(TrackBuffer track, String title, OutputStream out) 
+            throws IOException {
+        int bandHeight = Math.min(height, Math.max(1, BAND_PIXELS / width));
+        BufferedImage band = WORKSPACE.get().image(width, bandHeight);
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        ElevationPlotter plotter = new ElevationPlotter(track, title); // decimates once
+        
+        try (PngStreamWriter png = new PngStreamWriter(out, width, height, compressionLevel)) {
+            for (int top = 0; top < height; top += bandHeight) {
+                int rows = Math.min(bandHeight, height - top);
+                
+                Metrics.Span draw = Metrics.begin(Metrics.Stage.DRAW);
+                Graphics2D g2 = band.createGraphics();
+                try {
+                    setHints(g2);
+                    g2.translate(0, -top);
+                    for (int left = 0; left < width; left += TILE_WIDTH) {
+                        Graphics2D tile = (Graphics2D) g2.create();
+                        try {
+                            tile.clipRect(left, top, Math.min(TILE_WIDTH, width - left), rows);
+                            plotter.drawChart(tile, width, height);
+                        } finally {
+                            tile.dispose();
+                        }
+                    }
+                } finally {
+                    g2.dispose();
+                    draw.end(top == 0 && track != null ? track.size() : 0, 0, 0);
+                }
+                
+                Metrics.Span encode = Metrics.begin(Metrics.Stage.ENCODE);
+                long before = png.bytesWritten();
+                try {
+                    png.writeRows(pixels, 0, rows);
+                    if (top + rows == height) {
+                        png.finish();
+                    }
+                } finally {
+                    encode.end(0, 0, png.bytesWritten() - before);
+                }
+            }
+        }
+    }
+    
+    private static void setHints(Graphics2D g2) {
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                            RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+    
+    /**
+     * Writes any image as PNG at a deflate level with the calling thread's reused
+     * writer; the stream is not closed
+     * @return the number of bytes written
+     * @throws IOException if the stream cannot be written
+     */
+    static long encode(RenderedImage image, int compressionLevel, OutputStream out) 
+            throws IOException {
+        ImageWriter writer = WORKSPACE.get().writer();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality((9 - compressionLevel) / 9f); // ImageIO maps it back to a level
+        
+        // A memory cache keeps ImageIO from buffering the stream in a temporary file
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            stream.flush();
+            return stream.getStreamPosition();
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+    
+    /**
+     * Image, palette buffers and PNG writer kept by each rendering thread
+     */
+    private static class Workspace {
+        private BufferedImage image;
+        private ImageWriter writer;
+        private ColorPalette colorPalette;
+        private byte[] indices;
+        private final int[] paletteColors = new int[ColorPalette.MAX_COLORS];
+        
+        BufferedImage image(int width, int height) {
+            if (image != null && image.getWidth() == width && image.getHeight() == height) {
+                return image;
+            }
+            BufferedImage created = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            image = (long) width * height <= MAX_REUSED_PIXELS ? created : null;
+            return created;
+        }
+        
+        /**
+         * @return the image reduced to an 8-bit palette
+         */
+        BufferedImage indexed(BufferedImage rgb) {
+            int width = rgb.getWidth();
+            int height = rgb.getHeight();
+            int length = width * height;
+            int[] pixels = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+            
+            if (colorPalette == null) {
+                colorPalette = new ColorPalette();
+            }
+            byte[] out = indices != null && indices.length == length ? indices : new byte[length];
+            if (length <= MAX_REUSED_PIXELS) {
+                indices = out;
+            }
+            int colors = colorPalette.quantize(pixels, length, out, paletteColors);
+            
+            IndexColorModel model = new IndexColorModel(8, colors, paletteColors, 0, false, -1,
+                                                         DataBuffer.TYPE_BYTE);
+            WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(out, length), width, height, width, 1, new int[] {0}, null);
+            return new BufferedImage(model, raster, false, null);
+        }
+        
+        ImageWriter writer() {
+            if (writer == null) {
+                writer = ImageIO.getImageWritersByFormatName("png").next();
+            }
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that is given an RGB image a band of rows at a time
+ *
+ * ImageIO needs the whole image before it writes anything. This writer
+ * compresses each band into IDAT chunks as it arrives and sends them on, so an
+ * image never has to be in memory at once. Each row is filtered with whichever
+ * of the five PNG filters gives the smallest sum of absolute differences, the
+ * heuristic ImageIO uses too. Close it to free the deflater.
+ */
+final class PngStreamWriter implements AutoCloseable {
+    
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_BYTES = 64 * 1024; // IDAT data per chunk
+    private static final int FILTERS = 5; // none, sub, up, average, paeth
+    
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[CHUNK_BYTES];
+    private int chunkLength;
+    private byte[] row; // RGB bytes of the row being written
+    private byte[] previous; // and of the row above it, zero above the first
+    private final byte[][] filtered = new byte[FILTERS][]; // filter type byte, then the row
+    private int rows;
+    private long written;
+    
+    /**
+     * @param out stream the PNG is written to; it is not closed
+     * @param compressionLevel deflate level, 0 (none, fastest) to 9 (smallest)
+     */
+    PngStreamWriter(OutputStream out, int width, int height, int compressionLevel) {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        row = new byte[3 * width];
+        previous = new byte[3 * width];
+        for (int f = 0; f < FILTERS; f++) {
+            filtered[f] = new byte[3 * width + 1];
+            filtered[f][0] = (byte) f;
+        }
+        deflater = new Deflater(compressionLevel);
+    }
+    
+    /**
+     * @return the number of bytes written so far
+     */
+    long bytesWritten() {
+        return written;
+    }
+    
+    /**
+     * Compresses the next rows of the image
+     * @param pixels RGB pixels, a row of the image width after another; the
+     *               alpha byte is ignored
+     * @throws IOException if the stream cannot be written
+     */
+    void writeRows(int[] pixels, int offset, int count) throws IOException {
+        if (rows + count > height) {
+            throw new IllegalStateException("More rows than the image height of " + height);
+        }
+        if (written == 0) {
+            out.write(SIGNATURE);
+            written += SIGNATURE.length;
+            byte[] header = new byte[13];
+            putInt(header, 0, width);
+            putInt(header, 4, height);
+            header[8] = 8; // bits per channel
+            header[9] = 2; // RGB; compression, filter method and interlace are all 0
+            writeChunk("IHDR", header, header.length);
+        }
+        
+        for (int r = 0; r < count; r++) {
+            int start = offset + r * width;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[start + x];
+                row[3 * x] = (byte) (rgb >> 16);
+                row[3 * x + 1] = (byte) (rgb >> 8);
+                row[3 * x + 2] = (byte) rgb;
+            }
+            deflater.setInput(filter());
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+            rows++;
+        }
+    }
+    
+    /**
+     * Writes the rest of the compressed image and the end of the file
+     * @throws IllegalStateException if fewer rows than the height were written
+     * @throws IOException if the stream cannot be written
+     */
+    void finish() throws IOException {
+        if (rows != height) {
+            throw new IllegalStateException("Only " + rows + " of " + height
+                                            + " rows were written");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+        }
+        writeChunk("IEND", chunk, 0);
+        out.flush();
+    }
+    
+    @Override
+    public void close() {
+        deflater.end();
+    }
+    
+    /**
+     * @return the row filtered the way that leaves the smallest differences
+     */
+    private byte[] filter() {
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        int length = row.length;
+        for (int f = 0; f < FILTERS; f++) {
+            byte[] out = filtered[f];
+            long sum = 0;
+            for (int i = 0; i < length && sum < bestSum; i++) {
+                int x = row[i] & 0xFF;
+                int a = i >= 3 ? row[i - 3] & 0xFF : 0; // left
+                int b = previous[i] & 0xFF; // up
+                int c = i >= 3 ? previous[i - 3] & 0xFF : 0; // up left
+                int predicted = switch (f) {
+                    case 0 -> 0;
+                    case 1 -> a;
+                    case 2 -> b;
+                    case 3 -> (a + b) >> 1;
+                    default -> paeth(a, b, c);
+                };
+                byte value = (byte) (x - predicted);
+                out[i + 1] = value;
+                sum += Math.abs(value);
+            }
+            if (sum < bestSum) {
+                best = out;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+    
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+    
+    /**
+     * Runs the deflater into the chunk buffer, writing the chunk once it is full
+     */
+    private void deflate() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_BYTES - chunkLength);
+        if (chunkLength == CHUNK_BYTES) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+    
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] prefix = new byte[8];
+        putInt(prefix, 0, length);
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(typeBytes, 0, prefix, 4, 4);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] suffix = new byte[4];
+        putInt(suffix, 0, (int) crc.getValue());
+        
+        out.write(prefix);
+        out.write(data, 0, length);
+        out.write(suffix);
+        written += 12 + length;
+    }
+    
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
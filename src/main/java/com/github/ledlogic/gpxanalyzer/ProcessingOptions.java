@@ -0,0 +1,77 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+
+/**
+ * Settings shared by every file processed in one run of ElevationProfileApp
+ */
+public class ProcessingOptions {
+    
+    public boolean showGui = true;
+    public boolean streaming = false; // use the StAX parser instead of the DOM parser
+    public boolean parallelParse = false; // split each file into chunks parsed on all cores
+    public int threads = 0; // 0 = process files one at a time
+    public int memoryMegabytes = 0; // heap budget of the batch pipeline, 0 = half the max heap
+    public boolean follow = false; // tail a single growing file
+    public int servePort = 0; // > 0 = run the HTTP render service on this port
+    public String bindAddress; // interface the service listens on, or null for loopback
+    public int cacheMegabytes = RenderServer.DEFAULT_CACHE_MB; // --serve cache size
+    public boolean buildIndex = false; // build or update the directory's spatial index
+    public SpatialIndex.Area queryArea; // list the indexed tracks inside this area, or null
+    public boolean watch = false; // keep processing new and changed files in the directory
+    public boolean gzipCsv = false; // write .csv.gz instead of .csv
+    public boolean csvStatistics = false; // prefix the CSV with '#' statistics lines
+    public boolean cache = false; // load/save parsed tracks as .gpxbin sidecars
+    public DistanceMethod distanceMethod = DistanceMethod.HAVERSINE;
+    public SegmentPolicy segmentPolicy = SegmentPolicy.BRIDGE; // distance across trkseg gaps
+    public boolean splitSegments = false; // also write a CSV and PNG per track segment
+    public boolean savePng = true;
+    public boolean saveSvg = false; // also or instead write a vector .svg plot
+    public int pngWidth = PngRenderer.DEFAULT_WIDTH; // plot size, also used for SVG
+    public int pngHeight = PngRenderer.DEFAULT_HEIGHT;
+    public int pngCompression = PngRenderer.DEFAULT_COMPRESSION; // deflate level 0-9
+    public boolean pngPalette = false; // write 8-bit palette PNGs instead of RGB
+    public String demDirectory; // directory of SRTM .hgt tiles to correct altitudes from, or null
+    public int demCacheMegabytes = ElevationModel.DEFAULT_CACHE_MB; // mapped tiles kept
+    public String heatmapFile; // draw all files into this heatmap PNG instead, or null
+    public int heatmapSize = Heatmap.DEFAULT_SIZE; // largest heatmap width and height
+    public String metricsFile; // per-stage metrics report (.json or Prometheus text), or null
+    public String outputDirectory; // Directory where CSVs and PNGs will be saved
+    
+    private ElevationModel elevationModel;
+    
+    /**
+     * @return true if files should be processed concurrently by the batch pipeline
+     */
+    public boolean isBatch() {
+        return threads > 0;
+    }
+    
+    /**
+     * @return the terrain model of the --dem tiles, shared by every file, or null
+     *         without --dem
+     */
+    public synchronized ElevationModel elevationModel() {
+        if (elevationModel == null && demDirectory != null) {
+            elevationModel = new ElevationModel(new File(demDirectory), 
+                                                demCacheMegabytes * 1024L * 1024L);
+        }
+        return elevationModel;
+    }
+    
+    /**
+     * @return a renderer for the PNG settings
+     * @throws IllegalArgumentException if the size or compression level is out of range
+     */
+    public PngRenderer pngRenderer() {
+        return new PngRenderer(pngWidth, pngHeight, pngCompression, pngPalette);
+    }
+    
+    /**
+     * @return a renderer for SVG plots of the PNG size
+     * @throws IllegalArgumentException if the size is out of range
+     */
+    public SvgRenderer svgRenderer() {
+        return new SvgRenderer(pngWidth, pngHeight);
+    }
+}
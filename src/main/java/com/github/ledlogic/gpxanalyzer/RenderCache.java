@@ -0,0 +1,74 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache bounded by the approximate size of its values
+ *
+ * Used by RenderServer for parsed tracks and rendered outputs. Each value is put
+ * with its size in bytes; when the total exceeds the limit, the entries used
+ * longest ago are evicted. A value larger than the whole limit is not cached.
+ */
+final class RenderCache {
+    
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    
+    RenderCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    /**
+     * @return the cached value, or null if there is none
+     */
+    synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+    
+    synchronized void put(String key, Object value, long size) {
+        if (size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, size));
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+        
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().size;
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * @return a one-line JSON summary of the cache
+     */
+    synchronized String status() {
+        return String.format("{\"entries\":%d,\"bytes\":%d,\"maxBytes\":%d,\"hits\":%d,"
+                             + "\"misses\":%d}",
+                             entries.size(), bytes, maxBytes, hits, misses);
+    }
+    
+    private static class Entry {
+        final Object value;
+        final long size;
+        
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP service that analyzes GPX files posted to it, so that a web tier does not
+ * start a JVM per request
+ *
+ * <pre>
+ * POST /png    GPX in, elevation profile PNG out
+ * POST /svg    GPX in, elevation profile SVG out
+ * POST /csv    GPX in, CSV export out
+ * POST /stats  GPX in, track statistics as JSON out
+ * GET  /status cache summary as JSON
+ * GET  /metrics per-stage timings and queue depths as Prometheus text
+ *              (/metrics.json for JSON)
+ * </pre>
+ * Query parameters: distance (haversine, vincenty, fast), segments (bridge,
+ * connect), title (PNG title, default "track"), csv-stats (true to start the
+ * CSV with '#' statistics lines) and, for PNG and SVG, width and height, and for
+ * PNG compression (0-9) and palette (true for an 8-bit palette image).
+ *
+ * Parsed tracks and outputs are kept in an LRU cache keyed by the SHA-256 of the
+ * posted GPX and the parameters, so repeated requests for the same upload skip
+ * parsing and rendering. Requests are handled on a fixed pool of threads, and
+ * PNG rendering, the most CPU-intensive step, is limited to one per CPU core.
+ *
+ * The service has no authentication, so by default it only listens on the
+ * loopback interface. The uploads being read are held in memory, so their total
+ * size is limited as well as the size of each; a request that would go over the
+ * total waits a while for others to finish and is then refused with 503. Plots
+ * are limited to MAX_PLOT_PIXELS, which PngRenderer draws in one image.
+ */
+public class RenderServer {
+    
+    public static final int DEFAULT_CACHE_MB = 256;
+    private static final int MAX_UPLOAD_BYTES = 256 * 1024 * 1024;
+    private static final int MAX_UPLOAD_BYTES_IN_FLIGHT = 2 * MAX_UPLOAD_BYTES; // all requests
+    private static final long UPLOAD_WAIT_SECONDS = 30;
+    private static final int MAX_PLOT_SIZE = 16384; // posters are cached whole, so not served
+    static final int MAX_PLOT_PIXELS = 4 * 1024 * 1024; // width * height, e.g. 2048x2048
+    
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final RenderCache cache;
+    private final Semaphore renderPermits;
+    private final Semaphore uploadBytes = new Semaphore(MAX_UPLOAD_BYTES_IN_FLIGHT);
+    
+    /**
+     * Listens on the loopback interface only
+     * @param threads number of request handler threads
+     * @param cacheBytes size limit of the track and output cache
+     */
+    public RenderServer(int port, int threads, long cacheBytes) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, threads, cacheBytes);
+    }
+    
+    /**
+     * @param address interface to listen on; the wildcard address listens on all
+     * @param threads number of request handler threads
+     * @param cacheBytes size limit of the track and output cache
+     */
+    public RenderServer(InetAddress address, int port, int threads, long cacheBytes) 
+            throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        AtomicInteger counter = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gpx-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        cache = new RenderCache(cacheBytes);
+        renderPermits = new Semaphore(Runtime.getRuntime().availableProcessors());
+        
+        server.createContext("/", this::handle);
+        server.setExecutor(handlers);
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    /**
+     * Stops accepting requests and waits up to delaySeconds for running ones
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        handlers.shutdown();
+    }
+    
+    public int port() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * @return the address and port the server listens on
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        Metrics.queueDepth("http-requests", ((ThreadPoolExecutor) handlers).getQueue().size());
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/status")) {
+                send(exchange, 200, "application/json", cache.status().getBytes(), null);
+                return;
+            }
+            if (path.equals("/metrics")) {
+                send(exchange, 200, "text/plain; version=0.0.4",
+                     Metrics.prometheus().getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            if (path.equals("/metrics.json")) {
+                send(exchange, 200, "application/json",
+                     Metrics.json().getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            if (!path.equals("/png") && !path.equals("/svg") && !path.equals("/csv")
+                    && !path.equals("/stats")) {
+                sendError(exchange, 404, "Unknown path: " + path);
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Use POST with the GPX file as the request body");
+                return;
+            }
+            
+            Map<String, String> params = queryParameters(exchange.getRequestURI().getRawQuery());
+            DistanceMethod method;
+            SegmentPolicy policy;
+            PngRenderer renderer;
+            try {
+                method = DistanceMethod.fromName(params.getOrDefault("distance", "haversine"));
+                policy = SegmentPolicy.fromName(params.getOrDefault("segments", "bridge"));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Unknown distance or segments value");
+                return;
+            }
+            try {
+                renderer = pngRenderer(params);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            
+            byte[] gpx;
+            try {
+                gpx = readBody(exchange.getRequestBody());
+            } catch (UploadRejected e) {
+                sendError(exchange, e.status, e.getMessage());
+                return;
+            }
+            try {
+                respond(exchange, path, params, method, policy, renderer, gpx);
+            } finally {
+                uploadBytes.release(gpx.length);
+            }
+        } catch (Exception e) {
+            System.err.println("Error handling " + exchange.getRequestURI() + ": " 
+                               + e.getMessage());
+            sendError(exchange, 500, "Internal error");
+        }
+    }
+    
+    /**
+     * Answers a request for an upload, from the cache if it was seen before
+     */
+    private void respond(HttpExchange exchange, String path, Map<String, String> params,
+                         DistanceMethod method, SegmentPolicy policy, PngRenderer renderer,
+                         byte[] gpx) throws Exception {
+        String trackKey = cacheKey(sha256(gpx), method.name(), policy.name());
+        String outputKey = cacheKey(path, trackKey, params.getOrDefault("title", "track"),
+                                    params.getOrDefault("csv-stats", "false"),
+                                    params.get("width"), params.get("height"),
+                                    params.get("compression"), params.get("palette"));
+        byte[] output = (byte[]) cache.get(outputKey);
+        String cacheStatus = "hit";
+        if (output == null) {
+            cacheStatus = "miss";
+            TrackBuffer track;
+            try {
+                track = track(trackKey, gpx, method, policy);
+            } catch (Exception e) {
+                sendError(exchange, 400, "Could not parse GPX: " + e.getMessage());
+                return;
+            }
+            output = render(path, track, params, renderer);
+            cache.put(outputKey, output, output.length);
+        }
+        
+        String contentType = path.equals("/png") ? "image/png"
+                             : path.equals("/svg") ? "image/svg+xml"
+                             : path.equals("/csv") ? "text/csv" : "application/json";
+        send(exchange, 200, contentType, output, cacheStatus);
+    }
+    
+    /**
+     * @return the parsed track, from the cache if the same GPX was parsed before
+     */
+    private TrackBuffer track(String key, byte[] gpx, DistanceMethod method,
+                              SegmentPolicy policy) throws Exception {
+        TrackBuffer track = (TrackBuffer) cache.get(key);
+        if (track == null) {
+            Metrics.Span parse = Metrics.begin(Metrics.Stage.PARSE);
+            try {
+                track = GPXElevationProfile.parseTrack(new ByteArrayInputStream(gpx), method);
+            } finally {
+                parse.end(track != null ? track.size() : 0, gpx.length, 0);
+            }
+            if (policy != SegmentPolicy.BRIDGE && track.segmentCount() > 1) {
+                track.computeDistances(method, policy);
+            }
+            track.statistics(); // gathered before the track is shared between threads
+            track.trimToSize(); // the cache holds it for what it takes
+            cache.put(key, track, track.memoryBytes());
+        }
+        return track;
+    }
+    
+    private byte[] render(String path, TrackBuffer track, Map<String, String> params,
+                          PngRenderer renderer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (path) {
+            case "/png":
+                Metrics.queueDepth("http-render", renderPermits.getQueueLength());
+                renderPermits.acquire();
+                try {
+                    renderer.write(track, params.getOrDefault("title", "track"), out);
+                } finally {
+                    renderPermits.release();
+                }
+                break;
+            case "/svg":
+                new SvgRenderer(renderer.width(), renderer.height())
+                    .write(track, params.getOrDefault("title", "track"), out);
+                break;
+            case "/csv":
+                GPXElevationProfile.exportToCSV(track, out,
+                                                Boolean.parseBoolean(params.get("csv-stats")));
+                break;
+            default:
+                out.write(statisticsJson(track).getBytes(StandardCharsets.UTF_8));
+                break;
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * @return a renderer for the width, height, compression and palette parameters
+     * @throws IllegalArgumentException if a value is not a number or out of range
+     */
+    private static PngRenderer pngRenderer(Map<String, String> params) {
+        PngRenderer renderer;
+        try {
+            renderer = new PngRenderer(
+                Integer.parseInt(params.getOrDefault("width", "" + PngRenderer.DEFAULT_WIDTH)),
+                Integer.parseInt(params.getOrDefault("height", "" + PngRenderer.DEFAULT_HEIGHT)),
+                Integer.parseInt(params.getOrDefault("compression", 
+                                                     "" + PngRenderer.DEFAULT_COMPRESSION)),
+                Boolean.parseBoolean(params.get("palette")));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("width, height and compression must be numbers");
+        }
+        if (renderer.width() > MAX_PLOT_SIZE || renderer.height() > MAX_PLOT_SIZE) {
+            throw new IllegalArgumentException("width and height must be at most " 
+                                               + MAX_PLOT_SIZE);
+        }
+        if ((long) renderer.width() * renderer.height() > MAX_PLOT_PIXELS) {
+            throw new IllegalArgumentException("width times height must be at most " 
+                                               + MAX_PLOT_PIXELS + " pixels");
+        }
+        return renderer;
+    }
+    
+    /**
+     * @return the track statistics as a JSON object
+     */
+    static String statisticsJson(TrackBuffer track) {
+        TrackStatistics stats = track.statistics();
+        return "{\"pointCount\":" + stats.pointCount()
+               + ",\"segmentCount\":" + track.segmentCount()
+               + ",\"totalDistance\":" + jsonNumber(stats.totalDistance())
+               + ",\"minAltitude\":" + jsonNumber(stats.minAltitude())
+               + ",\"maxAltitude\":" + jsonNumber(stats.maxAltitude())
+               + ",\"ascent\":" + jsonNumber(stats.ascent())
+               + ",\"descent\":" + jsonNumber(stats.descent())
+               + ",\"elapsedTimeMillis\":" + stats.elapsedTimeMillis()
+               + ",\"movingTimeMillis\":" + stats.movingTimeMillis()
+               + ",\"maxSpeed\":" + jsonNumber(stats.maxSpeed())
+               + ",\"averageGrade\":" + jsonNumber(stats.averageGrade())
+               + "}";
+    }
+    
+    /**
+     * JSON has no NaN or infinity; they are written as null
+     */
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+    
+    /**
+     * Reads the request body, reserving its bytes from the in-flight upload limit
+     * as they arrive. The caller releases the body's length once it is done with it.
+     * @throws UploadRejected if the body exceeds MAX_UPLOAD_BYTES, or the limit
+     *         stays used up by other requests
+     */
+    private byte[] readBody(InputStream in) throws IOException, InterruptedException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        try {
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > MAX_UPLOAD_BYTES) {
+                    throw new UploadRejected(413, "GPX file larger than " + MAX_UPLOAD_BYTES 
+                                                  + " bytes");
+                }
+                Metrics.queueDepth("http-upload", uploadBytes.getQueueLength());
+                if (!uploadBytes.tryAcquire(read, UPLOAD_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new UploadRejected(503, "Too many uploads in progress, try again later");
+                }
+                body.write(buffer, 0, read);
+            }
+        } catch (IOException | InterruptedException e) {
+            uploadBytes.release(body.size());
+            throw e;
+        }
+        return body.toByteArray();
+    }
+    
+    /**
+     * An upload refused before it was read in full
+     */
+    private static class UploadRejected extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        
+        UploadRejected(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT),
+                       URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+    
+    /**
+     * Joins the parts of a cache key with '/', each URL-encoded, so that no part
+     * (a title, say) can contain the separator and run into the next. Present
+     * parts start with '=', so an empty one differs from a missing one.
+     */
+    static String cacheKey(String... parts) {
+        StringBuilder key = new StringBuilder();
+        for (String part : parts) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(part == null ? "" : "=" + URLEncoder.encode(part, StandardCharsets.UTF_8));
+        }
+        return key.toString();
+    }
+    
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE provides SHA-256
+        }
+    }
+    
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8",
+             (message + "\n").getBytes(StandardCharsets.UTF_8), null);
+    }
+    
+    private static void send(HttpExchange exchange, int status, String contentType,
+                             byte[] body, String cacheStatus) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (cacheStatus != null) {
+            exchange.getResponseHeaders().set("X-Cache", cacheStatus);
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.util.Locale;
+
+/**
+ * How the cumulative distance of a whole file crosses from one track segment
+ * (trkseg) to the next
+ *
+ * Statistics, CSVs and plots of a single segment always start at 0 m; the policy
+ * only decides the distance column of the whole file, which stays increasing so
+ * it can be plotted as one profile.
+ */
+public enum SegmentPolicy {
+    
+    /** The next segment continues at the distance where the previous one ended */
+    BRIDGE,
+    
+    /** The straight-line gap between the segments is counted, as if they were one */
+    CONNECT;
+    
+    /**
+     * Looks up a policy by its command line name (case-insensitive)
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static SegmentPolicy fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
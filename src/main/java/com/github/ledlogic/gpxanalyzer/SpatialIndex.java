@@ -0,0 +1,857 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Spatial index (.gpxindex) of the GPX files in a directory tree
+ *
+ * Every track segment is cut into runs of up to RUN_POINTS consecutive points,
+ * and the bounding boxes of the runs are stored as a packed R-tree: the runs are
+ * sorted along a Hilbert curve, so neighbouring runs are close together, and
+ * every NODE_SIZE boxes of a level are enclosed by one box of the level above,
+ * up to a single root. Searches walk the tree straight from the memory-mapped
+ * file and touch only the nodes whose boxes meet the area, so they take
+ * milliseconds however large the archive is. A search yields candidate point
+ * ranges; {@link #query} decodes only the candidate files to find the points
+ * that are really inside the area.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header  magic "GPXI", version, file count, run count, level count, name
+ *           bytes (24 bytes)
+ *   levels  end of each level in the box table, leaves first, as ints
+ *   boxes   min latitude, min longitude, max latitude, max longitude of every
+ *           run and then of every node, as floats rounded outward
+ *   runs    file, first point, end point of every run, as ints
+ *   files   length, modification time as longs, point count, name offset as
+ *           ints, per file (24 bytes)
+ *   names   paths of the files relative to the directory, UTF-8
+ * </pre>
+ * Rebuilding keeps the runs of files whose length and modification time are
+ * unchanged, so only new and changed files are parsed.
+ */
+public final class SpatialIndex {
+    
+    public static final String FILE_NAME = ".gpxindex";
+    
+    static final int RUN_POINTS = 128;
+    private static final int NODE_SIZE = 16;
+    private static final int MAGIC = 0x47505849; // "GPXI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int BOX_SIZE = 16;
+    private static final int RUN_SIZE = 12;
+    private static final int FILE_SIZE = 24;
+    private static final int MAX_FILES = 1 << 24; // search packs file numbers into 24 bits
+    private static final int HILBERT_SIDE = 1 << 15;
+    
+    private final File directory;
+    private final MappedByteBuffer map;
+    private final int fileCount;
+    private final int runCount;
+    private final int[] levelEnds;
+    private final int boxesOffset;
+    private final int runsOffset;
+    private final int filesOffset;
+    private final int namesOffset;
+    private final int nameBytes;
+    
+    private SpatialIndex(File directory, MappedByteBuffer map) throws IOException {
+        this.directory = directory;
+        this.map = map;
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not a spatial index file");
+        }
+        if (map.getInt(4) != VERSION) {
+            throw new IOException("Index was written by another version");
+        }
+        fileCount = map.getInt(8);
+        runCount = map.getInt(12);
+        int levels = map.getInt(16);
+        nameBytes = map.getInt(20);
+        if (fileCount < 0 || runCount < 0 || levels < 0 || levels > 32 || nameBytes < 0) {
+            throw new IOException("Corrupt index header");
+        }
+        
+        levelEnds = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            levelEnds[l] = map.getInt(HEADER_SIZE + 4 * l);
+        }
+        int boxes = levels > 0 ? levelEnds[levels - 1] : 0;
+        boxesOffset = HEADER_SIZE + 4 * levels;
+        runsOffset = boxesOffset + BOX_SIZE * boxes;
+        filesOffset = runsOffset + RUN_SIZE * runCount;
+        namesOffset = filesOffset + FILE_SIZE * fileCount;
+        if ((long) namesOffset + nameBytes != map.capacity()
+                || (levels > 0 && levelEnds[0] != runCount)) {
+            throw new IOException("Truncated or corrupt index file");
+        }
+    }
+    
+    /**
+     * @return the index file of a directory
+     */
+    public static File indexFileFor(File directory) {
+        return new File(directory, FILE_NAME);
+    }
+    
+    /**
+     * Opens the index of a directory
+     * @throws NoSuchFileException if the directory has not been indexed
+     * @throws IOException if the index cannot be read
+     */
+    public static SpatialIndex open(File directory) throws IOException {
+        Path path = indexFileFor(directory).toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index file too large to map");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return new SpatialIndex(directory, map);
+        }
+    }
+    
+    /**
+     * Indexes every GPX file under a directory, or updates its existing index,
+     * parsing new and changed files concurrently with the parser chosen by the
+     * options. Files that cannot be parsed are reported and left out.
+     * @param out receives warnings and a summary line
+     * @return the new index
+     * @throws IOException if the directory cannot be listed or the index written
+     */
+    public static SpatialIndex build(File directory, ProcessingOptions options, PrintStream out)
+            throws IOException {
+        long startTime = System.nanoTime();
+        Path root = directory.toPath();
+        List<Path> gpxFiles;
+        try (Stream<Path> walk = Files.walk(root)) {
+            gpxFiles = walk.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".gpx"))
+                           .filter(Files::isRegularFile)
+                           .sorted()
+                           .collect(Collectors.toList());
+        }
+        if (gpxFiles.size() > MAX_FILES) {
+            throw new IOException("Too many GPX files to index: " + gpxFiles.size());
+        }
+        
+        SpatialIndex previous = null;
+        try {
+            previous = open(directory);
+        } catch (NoSuchFileException e) {
+            // First build
+        } catch (IOException e) {
+            out.println("Warning: rebuilding unreadable index " + FILE_NAME + ": "
+                        + e.getMessage());
+        }
+        Map<String, Integer> previousFiles = previous != null ? previous.fileNumbers() : Map.of();
+        int[] previousRunStarts = previous != null ? previous.runsByFile() : null;
+        
+        int threads = options.threads > 0 ? options.threads
+                                          : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<FileRuns>> results = new ArrayList<>(gpxFiles.size());
+        int reused = 0;
+        try {
+            for (Path gpxFile : gpxFiles) {
+                String name = root.relativize(gpxFile).toString().replace(File.separatorChar, '/');
+                long length = Files.size(gpxFile);
+                long modified = Files.getLastModifiedTime(gpxFile).toMillis();
+                
+                Integer number = previousFiles.get(name);
+                if (number != null && previous.fileLength(number) == length
+                        && previous.fileModified(number) == modified) {
+                    results.add(CompletableFuture.completedFuture(
+                        previous.fileRuns(number, previousRunStarts)));
+                    reused++;
+                    continue;
+                }
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        File file = gpxFile.toFile();
+                        TrackBuffer track = ElevationProfileApp.readTrack(file, options);
+                        return FileRuns.of(name, length, modified, track);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, pool));
+            }
+            
+            List<FileRuns> files = new ArrayList<>(results.size());
+            for (int f = 0; f < results.size(); f++) {
+                try {
+                    files.add(results.get(f).join());
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    out.println("Warning: not indexing " + gpxFiles.get(f) + ": "
+                                + cause.getMessage());
+                }
+            }
+            
+            write(files, indexFileFor(directory).toPath());
+            SpatialIndex index = open(directory);
+            out.printf("Indexed %d file(s) (%d parsed, %d unchanged), %d point runs, "
+                       + "%.1f KB, in %.2f s%n",
+                       index.fileCount, files.size() - reused, reused, index.runCount,
+                       indexFileFor(directory).length() / 1024.0,
+                       (System.nanoTime() - startTime) / 1e9);
+            return index;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    public int fileCount() {
+        return fileCount;
+    }
+    
+    public int runCount() {
+        return runCount;
+    }
+    
+    /**
+     * Finds the runs whose bounding boxes meet an area, without decoding any file
+     * @return one match per candidate file, in file order, with the point ranges
+     *         of its candidate runs
+     */
+    public List<Match> search(Area area) {
+        int levels = levelEnds.length;
+        if (levels == 0) {
+            return List.of();
+        }
+        
+        long[] hits = new long[64];
+        int hitCount = 0;
+        int[] stack = new int[2 * levels * NODE_SIZE];
+        int top = 0;
+        stack[top++] = levelEnds[levels - 1] - 1; // the root
+        stack[top++] = levels - 1;
+        
+        while (top > 0) {
+            int level = stack[--top];
+            int box = stack[--top];
+            int offset = boxesOffset + BOX_SIZE * box;
+            if (!area.intersects(map.getFloat(offset), map.getFloat(offset + 4),
+                                 map.getFloat(offset + 8), map.getFloat(offset + 12))) {
+                continue;
+            }
+            
+            if (level == 0) {
+                int run = runsOffset + RUN_SIZE * box;
+                long file = map.getInt(run);
+                long first = map.getInt(run + 4);
+                long end = map.getInt(run + 8);
+                if (hitCount == hits.length) {
+                    hits = Arrays.copyOf(hits, hitCount * 2);
+                }
+                // Sorts by file, then point; a run holds at most RUN_POINTS points
+                hits[hitCount++] = file << 39 | first << 8 | (end - first - 1);
+                continue;
+            }
+            
+            // The children of box n of a level are the NODE_SIZE boxes from
+            // n * NODE_SIZE on in the level below
+            int childStart = levelStartOf(level - 1) + (box - levelStartOf(level)) * NODE_SIZE;
+            int childEnd = Math.min(childStart + NODE_SIZE, levelEnds[level - 1]);
+            for (int child = childStart; child < childEnd; child++) {
+                stack[top++] = child;
+                stack[top++] = level - 1;
+            }
+        }
+        
+        Arrays.sort(hits, 0, hitCount);
+        List<Match> matches = new ArrayList<>();
+        List<Range> ranges = new ArrayList<>();
+        for (int h = 0; h < hitCount; h++) {
+            int file = (int) (hits[h] >>> 39);
+            int first = (int) (hits[h] >>> 8) & Integer.MAX_VALUE;
+            int last = first + (int) (hits[h] & 0xFF);
+            
+            if (!ranges.isEmpty() && ranges.get(ranges.size() - 1).last() + 1 == first) {
+                Range previous = ranges.remove(ranges.size() - 1);
+                ranges.add(new Range(previous.first(), last));
+            } else {
+                ranges.add(new Range(first, last));
+            }
+            
+            boolean fileDone = h + 1 == hitCount || (int) (hits[h + 1] >>> 39) != file;
+            if (fileDone) {
+                matches.add(match(file, ranges));
+                ranges = new ArrayList<>();
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Finds the points inside an area: searches the index, then decodes each
+     * candidate file, and only those, with the parser chosen by the options
+     * @return one match per file with points inside the area, in file order, with
+     *         the exact ranges of those points
+     * @throws Exception if a candidate file cannot be read
+     */
+    public List<Match> query(Area area, ProcessingOptions options) throws Exception {
+        List<CompletableFuture<Match>> results = new ArrayList<>();
+        for (Match candidate : search(area)) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    TrackBuffer track = ElevationProfileApp.readTrack(candidate.file(), options);
+                    return candidate.refine(track, area);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, ForkJoinPool.commonPool()));
+        }
+        
+        List<Match> matches = new ArrayList<>();
+        for (CompletableFuture<Match> result : results) {
+            try {
+                Match match = result.join();
+                if (!match.ranges().isEmpty()) {
+                    matches.add(match);
+                }
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return matches;
+    }
+    
+    private int levelStartOf(int level) {
+        return level > 0 ? levelEnds[level - 1] : 0;
+    }
+    
+    private Match match(int file, List<Range> ranges) {
+        String name = fileName(file);
+        File gpxFile = new File(directory, name);
+        boolean stale = gpxFile.length() != fileLength(file)
+                        || gpxFile.lastModified() != fileModified(file);
+        return new Match(name, gpxFile, stale, List.copyOf(ranges));
+    }
+    
+    private long fileLength(int file) {
+        return map.getLong(filesOffset + FILE_SIZE * file);
+    }
+    
+    private long fileModified(int file) {
+        return map.getLong(filesOffset + FILE_SIZE * file + 8);
+    }
+    
+    private int filePoints(int file) {
+        return map.getInt(filesOffset + FILE_SIZE * file + 16);
+    }
+    
+    private String fileName(int file) {
+        int start = map.getInt(filesOffset + FILE_SIZE * file + 20);
+        int end = file + 1 < fileCount ? map.getInt(filesOffset + FILE_SIZE * (file + 1) + 20)
+                                       : nameBytes;
+        byte[] bytes = new byte[end - start];
+        map.get(namesOffset + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private Map<String, Integer> fileNumbers() {
+        Map<String, Integer> numbers = new HashMap<>(2 * fileCount);
+        for (int f = 0; f < fileCount; f++) {
+            numbers.put(fileName(f), f);
+        }
+        return numbers;
+    }
+    
+    /**
+     * @return for every file, the position of its first run in the order of
+     *         {@link #fileRuns}, and the run numbers grouped by file after them
+     */
+    private int[] runsByFile() {
+        int[] starts = new int[fileCount + 1 + runCount];
+        for (int r = 0; r < runCount; r++) {
+            starts[map.getInt(runsOffset + RUN_SIZE * r) + 1]++;
+        }
+        for (int f = 0; f < fileCount; f++) {
+            starts[f + 1] += starts[f];
+        }
+        int[] next = Arrays.copyOf(starts, fileCount);
+        for (int r = 0; r < runCount; r++) {
+            int file = map.getInt(runsOffset + RUN_SIZE * r);
+            starts[fileCount + 1 + next[file]++] = r;
+        }
+        return starts;
+    }
+    
+    /**
+     * Reads back the runs of one file for a rebuild
+     */
+    private FileRuns fileRuns(int file, int[] runsByFile) {
+        int from = runsByFile[file];
+        int count = runsByFile[file + 1] - from;
+        FileRuns runs = new FileRuns(fileName(file), fileLength(file), fileModified(file),
+                                     filePoints(file), count);
+        for (int i = 0; i < count; i++) {
+            int r = runsByFile[fileCount + 1 + from + i];
+            int box = boxesOffset + BOX_SIZE * r;
+            int run = runsOffset + RUN_SIZE * r;
+            runs.add(map.getInt(run + 4), map.getInt(run + 8),
+                     map.getFloat(box), map.getFloat(box + 4),
+                     map.getFloat(box + 8), map.getFloat(box + 12));
+        }
+        return runs;
+    }
+    
+    /**
+     * Sorts the runs along the Hilbert curve, builds the node levels above them
+     * and writes the index through a temporary file
+     */
+    private static void write(List<FileRuns> files, Path target) throws IOException {
+        int runCount = 0;
+        for (FileRuns file : files) {
+            runCount += file.count;
+        }
+        
+        // Each key is the Hilbert position of a run's center above the run's number
+        long[] keys = new long[runCount];
+        int[] runFile = new int[runCount];
+        int[] runIndex = new int[runCount];
+        int r = 0;
+        for (int f = 0; f < files.size(); f++) {
+            FileRuns file = files.get(f);
+            for (int i = 0; i < file.count; i++) {
+                double lat = ((double) file.boxes[4 * i] + file.boxes[4 * i + 2]) / 2;
+                double lon = ((double) file.boxes[4 * i + 1] + file.boxes[4 * i + 3]) / 2;
+                runFile[r] = f;
+                runIndex[r] = i;
+                keys[r] = hilbert(lat, lon) << 32 | r;
+                r++;
+            }
+        }
+        Arrays.sort(keys);
+        
+        List<float[]> levels = new ArrayList<>();
+        float[] leaves = new float[4 * runCount];
+        for (int k = 0; k < runCount; k++) {
+            int run = (int) keys[k];
+            System.arraycopy(files.get(runFile[run]).boxes, 4 * runIndex[run], leaves, 4 * k, 4);
+        }
+        if (runCount > 0) {
+            levels.add(leaves);
+        }
+        while (!levels.isEmpty() && levels.get(levels.size() - 1).length > 4) {
+            float[] children = levels.get(levels.size() - 1);
+            int childCount = children.length / 4;
+            float[] nodes = new float[4 * ((childCount + NODE_SIZE - 1) / NODE_SIZE)];
+            for (int n = 0; n < nodes.length / 4; n++) {
+                int from = n * NODE_SIZE;
+                int to = Math.min(from + NODE_SIZE, childCount);
+                float minLat = Float.MAX_VALUE;
+                float minLon = Float.MAX_VALUE;
+                float maxLat = -Float.MAX_VALUE;
+                float maxLon = -Float.MAX_VALUE;
+                for (int c = from; c < to; c++) {
+                    minLat = Math.min(minLat, children[4 * c]);
+                    minLon = Math.min(minLon, children[4 * c + 1]);
+                    maxLat = Math.max(maxLat, children[4 * c + 2]);
+                    maxLon = Math.max(maxLon, children[4 * c + 3]);
+                }
+                nodes[4 * n] = minLat;
+                nodes[4 * n + 1] = minLon;
+                nodes[4 * n + 2] = maxLat;
+                nodes[4 * n + 3] = maxLon;
+            }
+            levels.add(nodes);
+        }
+        
+        List<byte[]> names = new ArrayList<>(files.size());
+        int nameBytes = 0;
+        for (FileRuns file : files) {
+            byte[] name = file.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            nameBytes += name.length;
+        }
+        
+        long boxes = 0;
+        for (float[] level : levels) {
+            boxes += level.length / 4;
+        }
+        long size = HEADER_SIZE + 4L * levels.size() + BOX_SIZE * boxes + (long) RUN_SIZE * runCount
+                    + (long) FILE_SIZE * files.size() + nameBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Index would be too large to map: " + size + " bytes");
+        }
+        
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), FILE_NAME, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024)
+                                             .order(ByteOrder.LITTLE_ENDIAN);
+                chunk.putInt(MAGIC);
+                chunk.putInt(VERSION);
+                chunk.putInt(files.size());
+                chunk.putInt(runCount);
+                chunk.putInt(levels.size());
+                chunk.putInt(nameBytes);
+                
+                int levelEnd = 0;
+                for (float[] level : levels) {
+                    levelEnd += level.length / 4;
+                    chunk = ensure(channel, chunk, 4).putInt(levelEnd);
+                }
+                for (float[] level : levels) {
+                    for (float value : level) {
+                        ensure(channel, chunk, 4).putFloat(value);
+                    }
+                }
+                for (int k = 0; k < runCount; k++) {
+                    int run = (int) keys[k];
+                    FileRuns file = files.get(runFile[run]);
+                    ensure(channel, chunk, RUN_SIZE).putInt(runFile[run])
+                        .putInt(file.bounds[2 * runIndex[run]])
+                        .putInt(file.bounds[2 * runIndex[run] + 1]);
+                }
+                int nameOffset = 0;
+                for (int f = 0; f < files.size(); f++) {
+                    FileRuns file = files.get(f);
+                    ensure(channel, chunk, FILE_SIZE).putLong(file.length)
+                        .putLong(file.modified).putInt(file.points).putInt(nameOffset);
+                    nameOffset += names.get(f).length;
+                }
+                for (byte[] name : names) {
+                    for (byte b : name) {
+                        ensure(channel, chunk, 1).put(b);
+                    }
+                }
+                flushChunk(channel, chunk);
+            }
+            
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer chunk, int bytes)
+            throws IOException {
+        if (chunk.remaining() < bytes) {
+            flushChunk(channel, chunk);
+        }
+        return chunk;
+    }
+    
+    private static void flushChunk(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+    
+    /**
+     * @return the position of a point along a Hilbert curve over the whole
+     *         latitude/longitude plane
+     */
+    private static long hilbert(double lat, double lon) {
+        int x = (int) Math.min((lon + 180) / 360 * HILBERT_SIDE, HILBERT_SIDE - 1);
+        int y = (int) Math.min((lat + 90) / 180 * HILBERT_SIDE, HILBERT_SIDE - 1);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+        long d = 0;
+        for (int s = HILBERT_SIDE / 2; s > 0; s /= 2) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = HILBERT_SIDE - 1 - x;
+                    y = HILBERT_SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+    
+    /**
+     * Largest float not above a value, so boxes stored as floats still enclose
+     * every point
+     */
+    private static float floorFloat(double value) {
+        float f = (float) value;
+        return f > value ? Math.nextDown(f) : f;
+    }
+    
+    private static float ceilFloat(double value) {
+        float f = (float) value;
+        return f < value ? Math.nextUp(f) : f;
+    }
+    
+    /**
+     * The runs of one file while an index is built
+     */
+    private static class FileRuns {
+        final String name;
+        final long length;
+        final long modified;
+        final int points;
+        float[] boxes; // min lat, min lon, max lat, max lon per run
+        int[] bounds; // first point, end point per run
+        int count;
+        
+        FileRuns(String name, long length, long modified, int points, int capacity) {
+            this.name = name;
+            this.length = length;
+            this.modified = modified;
+            this.points = points;
+            boxes = new float[4 * Math.max(capacity, 1)];
+            bounds = new int[2 * Math.max(capacity, 1)];
+        }
+        
+        /**
+         * Cuts every segment of a track into runs of up to RUN_POINTS points
+         */
+        static FileRuns of(String name, long length, long modified, TrackBuffer track) {
+            int capacity = track.size() / RUN_POINTS + track.segmentCount();
+            FileRuns runs = new FileRuns(name, length, modified, track.size(), capacity);
+            double[] latitudes = track.latitudes();
+            double[] longitudes = track.longitudes();
+            
+            for (int s = 0; s < track.segmentCount(); s++) {
+                int end = track.segmentEnd(s);
+                for (int from = track.segmentStart(s); from < end; from += RUN_POINTS) {
+                    int to = Math.min(from + RUN_POINTS, end);
+                    double minLat = latitudes[from];
+                    double maxLat = minLat;
+                    double minLon = longitudes[from];
+                    double maxLon = minLon;
+                    for (int i = from + 1; i < to; i++) {
+                        minLat = Math.min(minLat, latitudes[i]);
+                        maxLat = Math.max(maxLat, latitudes[i]);
+                        minLon = Math.min(minLon, longitudes[i]);
+                        maxLon = Math.max(maxLon, longitudes[i]);
+                    }
+                    runs.add(from, to, floorFloat(minLat), floorFloat(minLon),
+                             ceilFloat(maxLat), ceilFloat(maxLon));
+                }
+            }
+            return runs;
+        }
+        
+        void add(int first, int end, float minLat, float minLon, float maxLat, float maxLon) {
+            if (count == bounds.length / 2) {
+                boxes = Arrays.copyOf(boxes, boxes.length * 2);
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            boxes[4 * count] = minLat;
+            boxes[4 * count + 1] = minLon;
+            boxes[4 * count + 2] = maxLat;
+            boxes[4 * count + 3] = maxLon;
+            bounds[2 * count] = first;
+            bounds[2 * count + 1] = end;
+            count++;
+        }
+    }
+    
+    /**
+     * Inclusive range of point indices, counted from 0 across all segments of a
+     * file in the same order as the rows of its CSV export
+     */
+    public record Range(int first, int last) {
+        @Override
+        public String toString() {
+            return first == last ? String.valueOf(first) : first + "-" + last;
+        }
+    }
+    
+    /**
+     * A file with points in (or, from {@link #search}, possibly in) the area
+     * @param name path of the file relative to the indexed directory
+     * @param stale true if the file changed after it was indexed
+     */
+    public record Match(String name, File file, boolean stale, List<Range> ranges) {
+        
+        /**
+         * @return the match narrowed to the points of the candidate ranges that
+         *         are inside the area
+         */
+        Match refine(TrackBuffer track, Area area) {
+            List<Range> inside = new ArrayList<>();
+            for (Range candidate : ranges) {
+                int first = -1;
+                int last = Math.min(candidate.last(), track.size() - 1);
+                for (int i = candidate.first(); i <= last + 1; i++) {
+                    boolean in = i <= last && area.contains(track.latitude(i), track.longitude(i));
+                    if (in && first < 0) {
+                        first = i;
+                    } else if (!in && first >= 0) {
+                        inside.add(new Range(first, i - 1));
+                        first = -1;
+                    }
+                }
+            }
+            return new Match(name, file, stale, List.copyOf(inside));
+        }
+    }
+    
+    /**
+     * Area searched for: a latitude/longitude box, which crosses the 180th
+     * meridian if its west edge is east of its east edge, or a circle of a
+     * radius in meters around a point
+     */
+    public static final class Area {
+        private final double minLat;
+        private final double maxLat;
+        private final double west;
+        private final double east;
+        private final double centerLat;
+        private final double centerLon;
+        private final double radius; // NaN for a box
+        
+        private Area(double minLat, double west, double maxLat, double east,
+                     double centerLat, double centerLon, double radius) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.west = west;
+            this.east = east;
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.radius = radius;
+        }
+        
+        /**
+         * @throws IllegalArgumentException if a coordinate is out of range
+         */
+        public static Area box(double minLat, double minLon, double maxLat, double maxLon) {
+            checkLatitude(minLat);
+            checkLatitude(maxLat);
+            checkLongitude(minLon);
+            checkLongitude(maxLon);
+            if (minLat > maxLat) {
+                throw new IllegalArgumentException("Minimum latitude is above the maximum: "
+                                                   + minLat + " > " + maxLat);
+            }
+            return new Area(minLat, minLon, maxLat, maxLon, Double.NaN, Double.NaN, Double.NaN);
+        }
+        
+        /**
+         * @throws IllegalArgumentException if a coordinate or the radius is out of range
+         */
+        public static Area near(double lat, double lon, double meters) {
+            checkLatitude(lat);
+            checkLongitude(lon);
+            if (!(meters > 0)) {
+                throw new IllegalArgumentException("Radius must be positive: " + meters);
+            }
+            double dLat = Math.toDegrees(meters / DistanceMethod.EARTH_RADIUS);
+            double minLat = lat - dLat;
+            double maxLat = lat + dLat;
+            double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+            double dLon = cosLat > 0 ? dLat / cosLat : 360;
+            if (minLat <= -90 || maxLat >= 90 || dLon >= 180) {
+                // The circle reaches a pole, so it spans every longitude
+                return new Area(Math.max(minLat, -90), -180, Math.min(maxLat, 90), 180,
+                                lat, lon, meters);
+            }
+            double west = lon - dLon < -180 ? lon - dLon + 360 : lon - dLon;
+            double east = lon + dLon > 180 ? lon + dLon - 360 : lon + dLon;
+            return new Area(minLat, west, maxLat, east, lat, lon, meters);
+        }
+        
+        /**
+         * Parses "minLat,minLon,maxLat,maxLon"
+         * @throws IllegalArgumentException if the text is not a valid box
+         */
+        public static Area parseBox(String text) {
+            double[] values = parseNumbers(text, 4, "minLat,minLon,maxLat,maxLon");
+            return box(values[0], values[1], values[2], values[3]);
+        }
+        
+        /**
+         * Parses "lat,lon,meters"
+         * @throws IllegalArgumentException if the text is not a valid circle
+         */
+        public static Area parseNear(String text) {
+            double[] values = parseNumbers(text, 3, "lat,lon,meters");
+            return near(values[0], values[1], values[2]);
+        }
+        
+        boolean intersects(float boxMinLat, float boxMinLon, float boxMaxLat, float boxMaxLon) {
+            if (boxMaxLat < minLat || boxMinLat > maxLat) {
+                return false;
+            }
+            if (west <= east) {
+                return boxMaxLon >= west && boxMinLon <= east;
+            }
+            return boxMaxLon >= west || boxMinLon <= east;
+        }
+        
+        boolean contains(double lat, double lon) {
+            if (!Double.isNaN(radius)) {
+                return GPXElevationProfile.haversineDistance(centerLat, centerLon, lat, lon)
+                       <= radius;
+            }
+            if (lat < minLat || lat > maxLat) {
+                return false;
+            }
+            return west <= east ? lon >= west && lon <= east : lon >= west || lon <= east;
+        }
+        
+        private static double[] parseNumbers(String text, int count, String format) {
+            String[] parts = text.split(",");
+            if (parts.length != count) {
+                throw new IllegalArgumentException("Expected " + format + ": " + text);
+            }
+            double[] values = new double[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    values[i] = Double.parseDouble(parts[i].trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected " + format + ": " + text);
+            }
+            return values;
+        }
+        
+        private static void checkLatitude(double lat) {
+            if (!(lat >= -90 && lat <= 90)) {
+                throw new IllegalArgumentException("Latitude must be between -90 and 90: " + lat);
+            }
+        }
+        
+        private static void checkLongitude(double lon) {
+            if (!(lon >= -180 && lon <= 180)) {
+                throw new IllegalArgumentException("Longitude must be between -180 and 180: "
+                                                   + lon);
+            }
+        }
+    }
+}
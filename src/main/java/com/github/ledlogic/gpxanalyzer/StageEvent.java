@@ -0,0 +1,43 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one processing stage of one track, committed by
+ * Metrics.Span. Unlike the Metrics totals, its duration includes nested stages,
+ * so the parse of a parser that measures distances as it goes includes them.
+ * Record with -XX:StartFlightRecording and view the events in JDK Mission
+ * Control or with {@code jfr print --events com.github.ledlogic.gpxanalyzer.Stage}.
+ */
+@Name("com.github.ledlogic.gpxanalyzer.Stage")
+@Label("GPX Processing Stage")
+@Description("Time spent parsing, measuring, exporting or rendering one track")
+@Category("GPX Analyzer")
+@StackTrace(false)
+class StageEvent extends Event {
+    
+    @Label("Stage")
+    String stage;
+    
+    @Label("Points")
+    long points;
+    
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+    
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+    
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread in this stage, excluding nested stages")
+    @DataAmount
+    long allocated;
+}
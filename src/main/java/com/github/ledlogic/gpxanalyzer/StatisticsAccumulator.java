@@ -0,0 +1,112 @@
+package com.github.ledlogic.gpxanalyzer;
+
+/**
+ * Single-pass statistics over a track, fed one point at a time in track order
+ *
+ * Nothing is stored per point, so it can run alongside parsing or the distance
+ * pass, and {@link #result()} can be taken at any time for running totals.
+ * Ascent and descent use a hysteresis threshold: altitude changes are only
+ * counted once they move at least that far from the last counted altitude, which
+ * keeps GPS noise from adding up to phantom climbing.
+ */
+public class StatisticsAccumulator {
+    
+    /** Default hysteresis for ascent/descent, in meters */
+    public static final double DEFAULT_ELEVATION_THRESHOLD = 3.0;
+    
+    /** Slowest speed that counts as moving, in meters per second */
+    public static final double MOVING_SPEED_THRESHOLD = 0.5;
+    
+    private final double elevationThreshold;
+    
+    private int pointCount;
+    private double totalDistance;
+    private double minAltitude = Double.POSITIVE_INFINITY;
+    private double maxAltitude = Double.NEGATIVE_INFINITY;
+    private double firstAltitude;
+    private double lastAltitude;
+    private double referenceAltitude; // last altitude counted for ascent/descent
+    private double ascent;
+    private double descent;
+    
+    private long firstTime = TrackBuffer.NO_TIME;
+    private long lastTime = TrackBuffer.NO_TIME;
+    private long movingTimeMillis;
+    private double maxSpeed;
+    private double lastTimedDistance; // distance of the last timestamped point
+    
+    public StatisticsAccumulator() {
+        this(DEFAULT_ELEVATION_THRESHOLD);
+    }
+    
+    public StatisticsAccumulator(double elevationThreshold) {
+        this.elevationThreshold = elevationThreshold;
+    }
+    
+    /**
+     * Adds the next point of the track
+     * @param altitude altitude in meters
+     * @param distanceFromStart cumulative path distance of the point in meters
+     * @param epochMillis timestamp, or TrackBuffer.NO_TIME
+     */
+    public void accept(double altitude, double distanceFromStart, long epochMillis) {
+        if (pointCount == 0) {
+            firstAltitude = altitude;
+            referenceAltitude = altitude;
+        }
+        totalDistance = distanceFromStart;
+        pointCount++;
+        lastAltitude = altitude;
+        minAltitude = Math.min(minAltitude, altitude);
+        maxAltitude = Math.max(maxAltitude, altitude);
+        
+        // Hysteresis: only count a climb or drop once it exceeds the threshold
+        double change = altitude - referenceAltitude;
+        if (change >= elevationThreshold) {
+            ascent += change;
+            referenceAltitude = altitude;
+        } else if (-change >= elevationThreshold) {
+            descent -= change;
+            referenceAltitude = altitude;
+        }
+        
+        if (epochMillis != TrackBuffer.NO_TIME) {
+            if (firstTime == TrackBuffer.NO_TIME) {
+                firstTime = epochMillis;
+            } else {
+                long dt = epochMillis - lastTime;
+                if (dt > 0) {
+                    double speed = (distanceFromStart - lastTimedDistance) / (dt / 1000.0);
+                    maxSpeed = Math.max(maxSpeed, speed);
+                    if (speed >= MOVING_SPEED_THRESHOLD) {
+                        movingTimeMillis += dt;
+                    }
+                }
+            }
+            lastTime = epochMillis;
+            lastTimedDistance = distanceFromStart;
+        }
+    }
+    
+    /**
+     * @return the statistics of all points accepted so far
+     */
+    public TrackStatistics result() {
+        boolean empty = pointCount == 0;
+        long elapsed = firstTime != TrackBuffer.NO_TIME ? lastTime - firstTime : 0;
+        double grade = totalDistance > 0
+                       ? (lastAltitude - firstAltitude) / totalDistance * 100.0
+                       : 0;
+        
+        return new TrackStatistics(pointCount,
+                                   totalDistance,
+                                   empty ? Double.NaN : minAltitude,
+                                   empty ? Double.NaN : maxAltitude,
+                                   ascent,
+                                   descent,
+                                   elapsed,
+                                   movingTimeMillis,
+                                   maxSpeed,
+                                   grade);
+    }
+}
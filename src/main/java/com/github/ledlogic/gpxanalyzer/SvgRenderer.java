@@ -0,0 +1,297 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Saves elevation profile plots as SVG
+ *
+ * Produces the chart of the PNG output (axes, grid, filled profile, timestamp
+ * labels and start/end markers) as vector graphics that scale in reports. The
+ * document is written element by element straight to the stream, without a
+ * raster image or a DOM. The profile is decimated to at most two vertices per
+ * pixel column of the nominal size, so the file stays small however many points
+ * the track has. The layout of the chart comes from the ChartLayout the
+ * plotter uses.
+ */
+public class SvgRenderer {
+    
+    private static final int PADDING = ChartLayout.PADDING;
+    private static final String PROFILE_COLOR = "#4682b4";
+    
+    // Measures the timestamp labels for their background boxes, as the plotter does
+    private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 11);
+    private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+    
+    private final int width;
+    private final int height;
+    
+    /**
+     * Renders at the PNG default size of 1000x600
+     */
+    public SvgRenderer() {
+        this(PngRenderer.DEFAULT_WIDTH, PngRenderer.DEFAULT_HEIGHT);
+    }
+    
+    /**
+     * @param width nominal width, which also sets the profile resolution
+     * @throws IllegalArgumentException if the size is out of range
+     */
+    public SvgRenderer(int width, int height) {
+        if (width < PngRenderer.MIN_WIDTH || height < PngRenderer.MIN_HEIGHT
+                || width > PngRenderer.MAX_SIZE || height > PngRenderer.MAX_SIZE) {
+            throw new IllegalArgumentException("Plot size must be between "
+                                               + PngRenderer.MIN_WIDTH + "x"
+                                               + PngRenderer.MIN_HEIGHT + " and "
+                                               + PngRenderer.MAX_SIZE + "x"
+                                               + PngRenderer.MAX_SIZE + ": "
+                                               + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Saves the elevation profile plot of a track to an SVG file
+     * @param title The name to display in the title
+     * @throws IOException if the file cannot be written
+     */
+    public void save(TrackBuffer track, String title, String outputPath) throws IOException {
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            write(track, title, out);
+        }
+    }
+    
+    /**
+     * Writes the elevation profile plot of a track as SVG to a stream, which is
+     * flushed but not closed
+     * @param title The name to display in the title
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(TrackBuffer track, String title, OutputStream out) throws IOException {
+        Metrics.Span span = Metrics.begin(Metrics.Stage.SVG);
+        out = Metrics.counting(out);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            new Document(writer).write(track, title);
+            writer.flush();
+        } finally {
+            span.end(track != null ? track.size() : 0, 0, Metrics.bytesWritten(out));
+        }
+    }
+    
+    /**
+     * Writes one chart; holds the layout the coordinates are scaled to
+     */
+    private class Document {
+        private final Writer out;
+        private ChartLayout layout;
+        
+        Document(Writer out) {
+            this.out = out;
+        }
+        
+        void write(TrackBuffer track, String title) throws IOException {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width
+                      + "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height
+                      + "\" font-family=\"Arial, Helvetica, sans-serif\">\n");
+            out.write("<rect width=\"100%\" height=\"100%\" fill=\"#eeeeee\"/>\n");
+            
+            if (track == null || track.isEmpty()) {
+                out.write("<text x=\"" + (width / 2 - 50) + "\" y=\"" + height / 2
+                          + "\" font-size=\"12\">No data to display</text>\n</svg>\n");
+                return;
+            }
+            
+            TrackStatistics stats = track.statistics();
+            layout = ChartLayout.withAltitudeMargin(width, height, 0, track.totalDistance(),
+                                                    stats.minAltitude(), stats.maxAltitude());
+            
+            // Axes, then the grid over them as in the PNG
+            int bottom = layout.bottom();
+            out.write("<g stroke=\"#000000\" stroke-width=\"2\">\n");
+            line(PADDING, PADDING, PADDING, bottom);
+            line(PADDING, bottom, width - PADDING, bottom);
+            out.write("</g>\n");
+            writeGrid();
+            writeProfile(track);
+            writeDataPoints(track);
+            
+            out.write("<text x=\"" + width / 2 + "\" y=\"30\" text-anchor=\"middle\" "
+                      + "font-size=\"16\" font-weight=\"bold\">");
+            text(title != null && !title.isEmpty() ? title : "Elevation Profile");
+            out.write("</text>\n</svg>\n");
+        }
+        
+        private void writeGrid() throws IOException {
+            out.write("<g stroke=\"#c0c0c0\" stroke-width=\"1\">\n");
+            for (int i = 0; i <= ChartLayout.ALTITUDE_DIVISIONS; i++) {
+                int y = (int) layout.scaleY(layout.altitudeTick(i));
+                line(PADDING, y, width - PADDING, y);
+            }
+            for (int i = 0; i <= ChartLayout.DISTANCE_DIVISIONS; i++) {
+                int x = (int) layout.scaleX(layout.distanceTick(i));
+                line(x, PADDING, x, layout.bottom());
+            }
+            out.write("</g>\n");
+            
+            out.write("<g font-size=\"10\">\n");
+            for (int i = 0; i <= ChartLayout.ALTITUDE_DIVISIONS; i++) {
+                double alt = layout.altitudeTick(i);
+                int y = (int) layout.scaleY(alt);
+                out.write("<text x=\"" + ChartLayout.altitudeLabelRight() + "\" y=\""
+                          + ChartLayout.altitudeLabelBaseline(y) + "\" text-anchor=\"end\">"
+                          + ChartLayout.altitudeLabel(alt) + "</text>\n");
+            }
+            for (int i = 0; i <= ChartLayout.DISTANCE_DIVISIONS; i++) {
+                double dist = layout.distanceTick(i);
+                int x = (int) layout.scaleX(dist);
+                out.write("<text x=\"" + x + "\" y=\"" + layout.distanceLabelBaseline()
+                          + "\" text-anchor=\"middle\">" + layout.distanceLabel(dist)
+                          + "</text>\n");
+            }
+            out.write("</g>\n");
+            
+            out.write("<g font-size=\"12\" font-weight=\"bold\">\n");
+            out.write("<text transform=\"rotate(-90)\" x=\"" + layout.altitudeTitleX()
+                      + "\" y=\"20\">" + ChartLayout.ALTITUDE_TITLE + "</text>\n");
+            out.write("<text x=\"" + width / 2 + "\" y=\"" + layout.distanceTitleBaseline()
+                      + "\" text-anchor=\"middle\">" + layout.distanceTitle() + "</text>\n");
+            out.write("</g>\n");
+        }
+        
+        /**
+         * Writes the decimated profile line, then the translucent fill under it
+         */
+        private void writeProfile(TrackBuffer track) throws IOException {
+            DecimatedSeries series = DecimatedSeries.minMax(track, layout.minDist, layout.maxDist,
+                                                            Math.max(1, width - 2 * PADDING));
+            if (series.size == 0) {
+                return;
+            }
+            
+            out.write("<path fill=\"none\" stroke=\"" + PROFILE_COLOR + "\" stroke-width=\"2\" "
+                      + "stroke-linecap=\"square\" d=\"");
+            pathData(series);
+            out.write("\"/>\n");
+            
+            out.write("<path fill=\"" + PROFILE_COLOR + "\" fill-opacity=\"0.196\" d=\"");
+            pathData(series);
+            out.write(" L");
+            point(layout.scaleX(layout.maxDist), layout.bottom());
+            out.write(" L");
+            point(layout.scaleX(layout.minDist), layout.bottom());
+            out.write(" Z\"/>\n");
+        }
+        
+        private void pathData(DecimatedSeries series) throws IOException {
+            for (int i = 0; i < series.size; i++) {
+                out.write(i == 0 ? "M" : " L");
+                point(layout.scaleX(series.distance[i]), layout.scaleY(series.altitude[i]));
+            }
+        }
+        
+        /**
+         * Writes up to 15 evenly spaced points with their timestamp labels, and
+         * the start and end markers
+         */
+        private void writeDataPoints(TrackBuffer track) throws IOException {
+            int size = track.size();
+            int interval = ChartLayout.labelInterval(size);
+            
+            out.write("<g font-size=\"11\" font-weight=\"bold\">\n");
+            for (int i = 0; i < size; i += interval) {
+                double x = layout.scaleX(track.distanceFromStart(i));
+                double y = layout.scaleY(track.altitude(i));
+                circle(x, y, 4, PROFILE_COLOR, null);
+                
+                if (track.hasTimestamp(i)) {
+                    String text = ChartLayout.formatTimeWithElevation(track.timestamp(i),
+                                                                      track.altitude(i));
+                    ChartLayout.Label label = ChartLayout.timestampLabel(x, y,
+                        (int) Math.ceil(LABEL_FONT.getStringBounds(text, FONT_CONTEXT).getWidth()),
+                        (int) Math.ceil(LABEL_FONT.getLineMetrics(text, FONT_CONTEXT).getHeight()));
+                    
+                    out.write("<rect x=\"" + label.boxX + "\" y=\"" + label.boxY
+                              + "\" width=\"" + label.boxWidth + "\" height=\""
+                              + label.boxHeight + "\" fill=\"#ffffff\" "
+                              + "fill-opacity=\"0.863\"/>\n");
+                    out.write("<text x=\"" + label.x + "\" y=\"" + label.baseline + "\">" + text
+                              + "</text>\n");
+                }
+            }
+            out.write("</g>\n");
+            
+            if (size > 1 && track.hasTimestamp(0)) {
+                circle(layout.scaleX(track.distanceFromStart(0)),
+                       layout.scaleY(track.altitude(0)), 5, "#00b400", "#006400");
+                circle(layout.scaleX(track.distanceFromStart(size - 1)),
+                       layout.scaleY(track.altitude(size - 1)), 5, "#ff0000", "#960000");
+            }
+        }
+        
+        private void line(int x1, int y1, int x2, int y2) throws IOException {
+            out.write("<line x1=\"" + x1 + "\" y1=\"" + y1 + "\" x2=\"" + x2 + "\" y2=\"" + y2
+                      + "\"/>\n");
+        }
+        
+        private void circle(double x, double y, int radius, String fill, String stroke)
+                throws IOException {
+            out.write("<circle cx=\"");
+            number(x);
+            out.write("\" cy=\"");
+            number(y);
+            out.write("\" r=\"" + radius + "\" fill=\"" + fill + "\"");
+            if (stroke != null) {
+                out.write(" stroke=\"" + stroke + "\" stroke-width=\"2\"");
+            }
+            out.write("/>\n");
+        }
+        
+        private void point(double x, double y) throws IOException {
+            number(x);
+            out.write(',');
+            number(y);
+        }
+        
+        /**
+         * Writes a coordinate rounded to 0.1 pixel, without String.format
+         */
+        private void number(double value) throws IOException {
+            long tenths = Math.round(value * 10);
+            if (tenths < 0) {
+                out.write('-');
+                tenths = -tenths;
+            }
+            out.write(Long.toString(tenths / 10));
+            if (tenths % 10 != 0) {
+                out.write('.');
+                out.write((char) ('0' + tenths % 10));
+            }
+        }
+        
+        /**
+         * Writes text with the XML special characters escaped
+         */
+        private void text(String value) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&': out.write("&amp;"); break;
+                    case '<': out.write("&lt;"); break;
+                    case '>': out.write("&gt;"); break;
+                    case '"': out.write("&quot;"); break;
+                    default: out.write(c); break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.ledlogic.gpxanalyzer;
+
+/**
+ * Chronological order of track points, given their epoch millisecond timestamps
+ *
+ * Points are ordered by time with a stable sort. A point without a timestamp
+ * (TrackBuffer.NO_TIME) stays right after the timestamped point it followed in
+ * the file, and points before the first timestamp stay at the start, so every
+ * track has one well-defined order. Tracks recorded by a device are nearly always
+ * in order already; that is detected in one pass and no sort is done.
+ */
+final class TimeOrder {
+    
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    
+    private TimeOrder() {
+    }
+    
+    /**
+     * @return true if the timestamped points in [from, to) are already in
+     *         chronological order
+     */
+    static boolean isSorted(long[] epochMillis, int from, int to) {
+        long previous = Long.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            long time = epochMillis[i];
+            if (time != TrackBuffer.NO_TIME) {
+                if (time < previous) {
+                    return false;
+                }
+                previous = time;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return the indices of the points in [from, to) in chronological order, or
+     *         null if the points are already in that order
+     */
+    static int[] sortedOrder(long[] epochMillis, int from, int to) {
+        if (isSorted(epochMillis, from, to)) {
+            return null;
+        }
+        
+        // Untimed points sort with the last timestamp seen before them
+        int size = to - from;
+        long[] keys = new long[size];
+        int[] order = new int[size];
+        long current = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (epochMillis[from + i] != TrackBuffer.NO_TIME) {
+                current = epochMillis[from + i];
+            }
+            keys[i] = current;
+            order[i] = from + i;
+        }
+        
+        mergeSort(keys, order, keys.clone(), order.clone(), 0, size);
+        return order;
+    }
+    
+    /**
+     * Stable merge sort of keys[from, to) carrying order along. The scratch arrays
+     * start as copies of the input; source and destination swap at every level.
+     */
+    private static void mergeSort(long[] keys, int[] order, long[] scratchKeys,
+                                  int[] scratchOrder, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(keys, order, from, to);
+            return;
+        }
+        
+        int mid = (from + to) >>> 1;
+        mergeSort(scratchKeys, scratchOrder, keys, order, from, mid);
+        mergeSort(scratchKeys, scratchOrder, keys, order, mid, to);
+        
+        // Halves already in order: a single copy instead of a merge
+        if (scratchKeys[mid - 1] <= scratchKeys[mid]) {
+            System.arraycopy(scratchKeys, from, keys, from, to - from);
+            System.arraycopy(scratchOrder, from, order, from, to - from);
+            return;
+        }
+        
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && scratchKeys[left] <= scratchKeys[right])) {
+                keys[i] = scratchKeys[left];
+                order[i] = scratchOrder[left++];
+            } else {
+                keys[i] = scratchKeys[right];
+                order[i] = scratchOrder[right++];
+            }
+        }
+    }
+    
+    private static void insertionSort(long[] keys, int[] order, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long key = keys[i];
+            int index = order[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            order[j + 1] = index;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.time.Instant;
+
+/**
+ * Decodes GPX &lt;time&gt; values (ISO-8601, e.g. 2026-01-11T14:37:12.250Z)
+ *
+ * The fixed layout that GPS devices write - four-digit year, optional fraction,
+ * 'Z' or a +HH:MM offset - is decoded with plain digit arithmetic, without
+ * building a Formatter parse context or any other object. Anything else is
+ * handed to Instant.parse, so the accepted inputs, the results and the
+ * exceptions are exactly those of Instant.parse.
+ */
+public final class TimestampParser {
+    
+    private static final long NOT_DECODED = Long.MIN_VALUE;
+    private static final int FRACTION_START = 19; // index after "yyyy-MM-ddTHH:mm:ss"
+    
+    private TimestampParser() {
+    }
+    
+    /**
+     * @return the time in milliseconds since the epoch (sub-millisecond digits are
+     *         truncated, as by Instant.toEpochMilli)
+     * @throws java.time.format.DateTimeParseException if the text is not a valid instant
+     */
+    public static long parseEpochMillis(CharSequence text) {
+        long seconds = decodeSeconds(text);
+        if (seconds == NOT_DECODED) {
+            return Instant.parse(text).toEpochMilli();
+        }
+        return seconds * 1000 + fractionNanos(text) / 1_000_000;
+    }
+    
+    /**
+     * @return the time as an Instant, keeping all fraction digits
+     * @throws java.time.format.DateTimeParseException if the text is not a valid instant
+     */
+    public static Instant parseInstant(CharSequence text) {
+        long seconds = decodeSeconds(text);
+        if (seconds == NOT_DECODED) {
+            return Instant.parse(text);
+        }
+        return Instant.ofEpochSecond(seconds, fractionNanos(text));
+    }
+    
+    /**
+     * Validates the whole text and decodes it up to whole seconds
+     * @return epoch seconds, or NOT_DECODED if the text is not in the fast layout
+     */
+    private static long decodeSeconds(CharSequence s) {
+        int length = s.length();
+        if (length < 20
+                || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return NOT_DECODED;
+        }
+        
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            return NOT_DECODED; // includes leap seconds, which Instant.parse adjusts
+        }
+        
+        // Optional fraction of 1 to 9 digits
+        int pos = FRACTION_START;
+        if (s.charAt(pos) == '.') {
+            int start = ++pos;
+            while (pos < length && pos - start < 9 && isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start || pos == length) {
+                return NOT_DECODED;
+            }
+        }
+        
+        // Zone: 'Z' or +HH:MM / -HH:MM
+        int offsetSeconds;
+        char zone = s.charAt(pos);
+        if (zone == 'Z' && pos + 1 == length) {
+            offsetSeconds = 0;
+        } else if ((zone == '+' || zone == '-') && pos + 6 == length && s.charAt(pos + 3) == ':') {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            if (offsetHours < 0 || offsetHours > 17 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return NOT_DECODED;
+            }
+            offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+            if (zone == '-') {
+                offsetSeconds = -offsetSeconds;
+            }
+        } else {
+            return NOT_DECODED;
+        }
+        
+        return epochDay(year, month, day) * 86400L
+               + hour * 3600 + minute * 60 + second - offsetSeconds;
+    }
+    
+    /**
+     * @return the fraction of a second in nanoseconds; the text must already
+     *         have been validated by decodeSeconds
+     */
+    private static int fractionNanos(CharSequence s) {
+        if (s.charAt(FRACTION_START) != '.') {
+            return 0;
+        }
+        int nanos = 0;
+        int scale = 100_000_000;
+        for (int pos = FRACTION_START + 1; isDigit(s.charAt(pos)); pos++) {
+            nanos += (s.charAt(pos) - '0') * scale;
+            scale /= 10;
+        }
+        return nanos;
+    }
+    
+    /**
+     * @return the value of count decimal digits starting at start, or -1 if
+     *         any of them is not a digit
+     */
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+    
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date
+     * (H. Hinnant's days_from_civil)
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,625 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Columnar (structure-of-arrays) storage for a GPS track
+ *
+ * Holds latitude, longitude, altitude, cumulative distance and the distance from
+ * the previous point in primitive double arrays and timestamps as epoch
+ * milliseconds, so a track of millions of points is a handful of arrays instead of
+ * millions of TrackPoint and Instant objects. Both distances are stored as they
+ * were measured, so they are those of the TrackPoint path bit for bit.
+ *
+ * Timestamps are kept at millisecond precision, the finest GPS receivers log;
+ * any further fraction digits of a GPX time are truncated, as by
+ * Instant.toEpochMilli. The TrackPoint path sorts and measures by the same
+ * milliseconds, so only {@link #timestamp(int)} can differ from a parsed
+ * Instant, by less than a millisecond. Points without a timestamp hold
+ * {@link #NO_TIME}.
+ *
+ * The points are grouped into segments, one per GPX trkseg, each remembering the
+ * index of the trk it belongs to. A buffer filled without
+ * {@link #startSegment(int)} is a single segment.
+ */
+public class TrackBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    /** Marker stored in the epoch column for points without a timestamp */
+    public static final long NO_TIME = Long.MIN_VALUE;
+    
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int PARALLEL_BLOCK_SIZE = 64 * 1024; // points per distance task
+    
+    private double[] latitude;
+    private double[] longitude;
+    private double[] altitude;
+    private double[] distance; // cumulative distance in meters
+    private double[] step; // distance from the previous point in meters
+    private long[] epochMillis;
+    private int size;
+    private int[] segmentStarts = new int[1]; // first point of each segment
+    private int[] segmentTracks = new int[1]; // trk index of each segment
+    private int segmentCount; // 0 = the whole buffer is one segment
+    private transient TrackStatistics statistics; // computed with the distances, or on demand
+    
+    public TrackBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public TrackBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        latitude = new double[capacity];
+        longitude = new double[capacity];
+        altitude = new double[capacity];
+        distance = new double[capacity];
+        step = new double[capacity];
+        epochMillis = new long[capacity];
+    }
+    
+    /**
+     * Wraps existing columns without copying; each array must hold at least size values
+     */
+    TrackBuffer(double[] latitude, double[] longitude, double[] altitude, double[] distance,
+                double[] step, long[] epochMillis, int size) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.distance = distance;
+        this.step = step;
+        this.epochMillis = epochMillis;
+        this.size = size;
+    }
+    
+    /**
+     * Creates a buffer holding a copy of the given points, including their distances.
+     * Timestamps are truncated to milliseconds.
+     */
+    public static TrackBuffer fromPoints(List<TrackPoint> points) {
+        TrackBuffer buffer = new TrackBuffer(points.size());
+        int segment = -1;
+        for (TrackPoint point : points) {
+            if (point.segment != segment || buffer.size == 0) {
+                buffer.startSegment(point.track);
+                segment = point.segment;
+            }
+            buffer.add(point.latitude, point.longitude, point.altitude,
+                       point.timestamp != null ? point.timestamp.toEpochMilli() : NO_TIME);
+            buffer.distance[buffer.size - 1] = point.distanceFromStart;
+            buffer.step[buffer.size - 1] = point.distanceFromPrevious;
+        }
+        return buffer;
+    }
+    
+    /**
+     * Appends a point; its distance stays 0 until {@link #computeDistances()} runs
+     */
+    public void add(double lat, double lon, double alt, long epochMillis) {
+        if (size == latitude.length) {
+            grow();
+        }
+        latitude[size] = lat;
+        longitude[size] = lon;
+        altitude[size] = alt;
+        distance[size] = 0;
+        step[size] = 0;
+        this.epochMillis[size] = epochMillis;
+        size++;
+        statistics = null;
+    }
+    
+    /**
+     * Appends all points of another buffer as they are, including their distances.
+     * If the other buffer was filled without startSegment, its points continue
+     * the current segment; otherwise each of its segments, the first included,
+     * starts a new segment here.
+     */
+    public void append(TrackBuffer other) {
+        while (latitude.length < size + other.size) {
+            grow();
+        }
+        for (int s = 0; s < other.segmentCount; s++) {
+            markSegment(size + other.segmentStarts[s], other.segmentTracks[s]);
+        }
+        System.arraycopy(other.latitude, 0, latitude, size, other.size);
+        System.arraycopy(other.longitude, 0, longitude, size, other.size);
+        System.arraycopy(other.altitude, 0, altitude, size, other.size);
+        System.arraycopy(other.distance, 0, distance, size, other.size);
+        System.arraycopy(other.step, 0, step, size, other.size);
+        System.arraycopy(other.epochMillis, 0, epochMillis, size, other.size);
+        size += other.size;
+        statistics = null;
+    }
+    
+    /**
+     * Sets the cumulative distance of point i and its distance from the point before
+     */
+    void setDistance(int i, double distanceFromStart, double distanceFromPrevious) {
+        distance[i] = distanceFromStart;
+        step[i] = distanceFromPrevious;
+    }
+    
+    /**
+     * Replaces the altitude of point i; the statistics are gathered again when
+     * next asked for
+     */
+    void setAltitude(int i, double alt) {
+        altitude[i] = alt;
+        statistics = null;
+    }
+    
+    /**
+     * Starts a new segment with the next point added. Calling it again before
+     * adding a point replaces the empty segment.
+     * @param trackIndex index of the GPX trk the segment belongs to
+     */
+    public void startSegment(int trackIndex) {
+        markSegment(size, trackIndex);
+    }
+    
+    /**
+     * Records that a segment starts at point start; starts must be added in order
+     */
+    void markSegment(int start, int trackIndex) {
+        if (segmentCount == 0 && start > 0) {
+            // Points added before the first explicit segment form their own
+            appendSegment(0, 0);
+        }
+        if (segmentCount > 0 && segmentStarts[segmentCount - 1] == start) {
+            segmentTracks[segmentCount - 1] = trackIndex;
+            return;
+        }
+        appendSegment(start, trackIndex);
+    }
+    
+    private void appendSegment(int start, int trackIndex) {
+        if (segmentCount == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+            segmentTracks = Arrays.copyOf(segmentTracks, segmentCount * 2);
+        }
+        segmentStarts[segmentCount] = start;
+        segmentTracks[segmentCount] = trackIndex;
+        segmentCount++;
+    }
+    
+    private void grow() {
+        int capacity = latitude.length + (latitude.length >> 1) + 1;
+        latitude = Arrays.copyOf(latitude, capacity);
+        longitude = Arrays.copyOf(longitude, capacity);
+        altitude = Arrays.copyOf(altitude, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+        step = Arrays.copyOf(step, capacity);
+        epochMillis = Arrays.copyOf(epochMillis, capacity);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the number of segments (0 for an empty buffer)
+     */
+    public int segmentCount() {
+        if (segmentCount == 0) {
+            return size > 0 ? 1 : 0;
+        }
+        // A segment started after the last point has no points yet
+        return segmentStarts[segmentCount - 1] < size ? segmentCount : segmentCount - 1;
+    }
+    
+    /**
+     * @return the index of the first point of segment s
+     */
+    public int segmentStart(int s) {
+        return segmentCount == 0 ? 0 : segmentStarts[s];
+    }
+    
+    /**
+     * @return the index after the last point of segment s
+     */
+    public int segmentEnd(int s) {
+        return s + 1 < segmentCount ? segmentStarts[s + 1] : size;
+    }
+    
+    /**
+     * @return the index of the GPX trk that segment s belongs to
+     */
+    public int segmentTrack(int s) {
+        return segmentCount == 0 ? 0 : segmentTracks[s];
+    }
+    
+    /**
+     * Copies segment s into a buffer of its own, with distances measured from
+     * the first point of the segment
+     */
+    public TrackBuffer segment(int s) {
+        int from = segmentStart(s);
+        int count = segmentEnd(s) - from;
+        double[] dist = new double[count];
+        for (int i = 0; i < count; i++) {
+            dist[i] = distance[from + i] - distance[from];
+        }
+        double[] steps = Arrays.copyOfRange(step, from, from + count);
+        if (count > 0) {
+            steps[0] = 0;
+        }
+        TrackBuffer segment = new TrackBuffer(
+            Arrays.copyOfRange(latitude, from, from + count),
+            Arrays.copyOfRange(longitude, from, from + count),
+            Arrays.copyOfRange(altitude, from, from + count),
+            dist,
+            steps,
+            Arrays.copyOfRange(epochMillis, from, from + count),
+            count);
+        segment.markSegment(0, segmentTrack(s));
+        return segment;
+    }
+    
+    /**
+     * Copies the track reduced to at most about maxPoints points, for a plot window
+     * that may stay open long after the track is processed. Each run of points
+     * keeps its lowest and highest point, in track order, plus the first and last
+     * point of the track; the statistics are those of the whole track, and each
+     * point keeps its distance from its predecessor in the track. Tracks that
+     * are small enough are copied unchanged. Segments are not kept.
+     */
+    public TrackBuffer thinned(int maxPoints) {
+        if (size <= maxPoints) {
+            TrackBuffer copy = new TrackBuffer(Arrays.copyOf(latitude, size),
+                                               Arrays.copyOf(longitude, size),
+                                               Arrays.copyOf(altitude, size),
+                                               Arrays.copyOf(distance, size),
+                                               Arrays.copyOf(step, size),
+                                               Arrays.copyOf(epochMillis, size), size);
+            copy.statistics = statistics();
+            return copy;
+        }
+        
+        int buckets = Math.max(maxPoints / 2 - 1, 1);
+        int run = (size + buckets - 1) / buckets;
+        TrackBuffer copy = new TrackBuffer(2 * buckets + 2);
+        int last = -1;
+        for (int from = 0; from < size; from += run) {
+            int to = Math.min(from + run, size);
+            int low = from;
+            int high = from;
+            for (int i = from + 1; i < to; i++) {
+                if (altitude[i] < altitude[low]) {
+                    low = i;
+                }
+                if (altitude[i] > altitude[high]) {
+                    high = i;
+                }
+            }
+            int[] kept = {from == 0 ? 0 : -1, Math.min(low, high), Math.max(low, high),
+                          to == size ? size - 1 : -1};
+            for (int i : kept) {
+                if (i > last) {
+                    copy.addCopy(this, i);
+                    last = i;
+                }
+            }
+        }
+        copy.statistics = statistics();
+        return copy;
+    }
+    
+    private void addCopy(TrackBuffer source, int i) {
+        add(source.latitude[i], source.longitude[i], source.altitude[i], source.epochMillis[i]);
+        distance[size - 1] = source.distance[i];
+        step[size - 1] = source.step[i];
+    }
+    
+    /**
+     * @return the approximate heap size of the track in bytes, including spare
+     *         capacity of its columns
+     */
+    public long memoryBytes() {
+        long columns = 8L * (latitude.length + longitude.length + altitude.length
+                             + distance.length + step.length + epochMillis.length);
+        return 128 + columns + 8L * segmentStarts.length;
+    }
+    
+    /**
+     * Releases the spare capacity of the columns once no more points will be added
+     */
+    public void trimToSize() {
+        if (latitude.length > size) {
+            int capacity = Math.max(size, 1);
+            latitude = Arrays.copyOf(latitude, capacity);
+            longitude = Arrays.copyOf(longitude, capacity);
+            altitude = Arrays.copyOf(altitude, capacity);
+            distance = Arrays.copyOf(distance, capacity);
+            step = Arrays.copyOf(step, capacity);
+            epochMillis = Arrays.copyOf(epochMillis, capacity);
+        }
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public double latitude(int i) {
+        return latitude[i];
+    }
+    
+    public double longitude(int i) {
+        return longitude[i];
+    }
+    
+    public double altitude(int i) {
+        return altitude[i];
+    }
+    
+    public double distanceFromStart(int i) {
+        return distance[i];
+    }
+    
+    public double distanceFromPrevious(int i) {
+        return step[i];
+    }
+    
+    public long epochMillis(int i) {
+        return epochMillis[i];
+    }
+    
+    public boolean hasTimestamp(int i) {
+        return epochMillis[i] != NO_TIME;
+    }
+    
+    /**
+     * @return the timestamp of point i, or null if it has none
+     */
+    public Instant timestamp(int i) {
+        return hasTimestamp(i) ? Instant.ofEpochMilli(epochMillis[i]) : null;
+    }
+    
+    /**
+     * @return the cumulative distance of the last point in meters
+     */
+    public double totalDistance() {
+        return size == 0 ? 0 : distance[size - 1];
+    }
+    
+    /*
+     * Direct column access for hot loops. The returned arrays are the live backing
+     * storage and may be longer than size(); only indices below size() are valid.
+     */
+    
+    public double[] latitudes() {
+        return latitude;
+    }
+    
+    public double[] longitudes() {
+        return longitude;
+    }
+    
+    public double[] altitudes() {
+        return altitude;
+    }
+    
+    public double[] distances() {
+        return distance;
+    }
+    
+    public double[] steps() {
+        return step;
+    }
+    
+    public long[] epochMillisArray() {
+        return epochMillis;
+    }
+    
+    /**
+     * Sorts the points of each segment chronologically (see {@link TimeOrder} for
+     * points without a timestamp) and trims the columns to the number of points.
+     * Segments keep their order. Segments that are already in order are only
+     * checked, not sorted.
+     */
+    public void sortByTime() {
+        int[] order = null;
+        for (int s = 0; s < segmentCount(); s++) {
+            int from = segmentStart(s);
+            int[] segmentOrder = TimeOrder.sortedOrder(epochMillis, from, segmentEnd(s));
+            if (segmentOrder != null) {
+                if (order == null) {
+                    order = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        order[i] = i;
+                    }
+                }
+                System.arraycopy(segmentOrder, 0, order, from, segmentOrder.length);
+            }
+        }
+        
+        if (order == null) {
+            if (latitude.length != size) {
+                latitude = Arrays.copyOf(latitude, size);
+                longitude = Arrays.copyOf(longitude, size);
+                altitude = Arrays.copyOf(altitude, size);
+                epochMillis = Arrays.copyOf(epochMillis, size);
+            }
+            distance = new double[size];
+            step = new double[size];
+            statistics = null;
+            return;
+        }
+        
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        double[] alt = new double[size];
+        long[] time = new long[size];
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            lat[i] = latitude[from];
+            lon[i] = longitude[from];
+            alt[i] = altitude[from];
+            time[i] = epochMillis[from];
+        }
+        latitude = lat;
+        longitude = lon;
+        altitude = alt;
+        epochMillis = time;
+        distance = new double[size];
+        step = new double[size];
+        statistics = null;
+    }
+    
+    /**
+     * Fills in the cumulative distance column with haversine distances
+     */
+    public void computeDistances() {
+        computeDistances(DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Fills in the cumulative distance column, bridging segment gaps
+     */
+    public void computeDistances(DistanceMethod method) {
+        computeDistances(method, SegmentPolicy.BRIDGE);
+    }
+    
+    /**
+     * Fills in the cumulative distance column by summing the distances
+     * between consecutive points. The track statistics are gathered in the
+     * same pass.
+     * @param policy whether the gap before each new segment is counted
+     */
+    public void computeDistances(DistanceMethod method, SegmentPolicy policy) {
+        Metrics.Span span = Metrics.begin(Metrics.Stage.DISTANCE);
+        DistanceMethod.Cursor cursor = method.cursor();
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        double cumulativeDistance = 0;
+        if (size > 0) {
+            distance[0] = 0;
+            step[0] = 0;
+            cursor.next(latitude[0], longitude[0]);
+            accumulator.accept(altitude[0], 0, epochMillis[0]);
+        }
+        int segment = 1;
+        int nextSegmentStart = segmentCount() > 1 ? segmentStart(1) : size;
+        for (int i = 1; i < size; i++) {
+            double step = cursor.next(latitude[i], longitude[i]);
+            if (i == nextSegmentStart) {
+                if (policy == SegmentPolicy.BRIDGE) {
+                    step = 0;
+                }
+                segment++;
+                nextSegmentStart = segment < segmentCount() ? segmentStart(segment) : size;
+            }
+            cumulativeDistance += step;
+            distance[i] = cumulativeDistance;
+            this.step[i] = step;
+            accumulator.accept(altitude[i], cumulativeDistance, epochMillis[i]);
+        }
+        statistics = accumulator.result();
+        span.end(size, 0, 0);
+    }
+    
+    /**
+     * Fills in the cumulative distance column using a fork-join pool. The step
+     * lengths (the trigonometry) are computed in parallel blocks, each starting
+     * from the point before it; the running sum and the statistics are then taken
+     * in order, so the result is bit-for-bit that of
+     * {@link #computeDistances(DistanceMethod, SegmentPolicy)}.
+     */
+    public void computeDistances(DistanceMethod method, SegmentPolicy policy, 
+                                 ForkJoinPool pool) {
+        int blocks = Math.min(size / PARALLEL_BLOCK_SIZE, pool.getParallelism() * 4);
+        if (blocks <= 1) {
+            computeDistances(method, policy);
+            return;
+        }
+        
+        Metrics.Span span = Metrics.begin(Metrics.Stage.DISTANCE);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            int from = (int) ((long) size * b / blocks);
+            int to = (int) ((long) size * (b + 1) / blocks);
+            tasks.add(pool.submit(() -> {
+                DistanceMethod.Cursor cursor = method.cursor();
+                if (from > 0) {
+                    cursor.next(latitude[from - 1], longitude[from - 1]);
+                }
+                for (int i = from; i < to; i++) {
+                    step[i] = cursor.next(latitude[i], longitude[i]);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        
+        if (policy == SegmentPolicy.BRIDGE) {
+            for (int s = 1; s < segmentCount(); s++) {
+                step[segmentStart(s)] = 0;
+            }
+        }
+        
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        double cumulativeDistance = 0;
+        for (int i = 0; i < size; i++) {
+            cumulativeDistance += step[i];
+            distance[i] = cumulativeDistance;
+            accumulator.accept(altitude[i], cumulativeDistance, epochMillis[i]);
+        }
+        statistics = accumulator.result();
+        span.end(size, 0, 0);
+    }
+    
+    /**
+     * @return the statistics of the track; computed in one pass over the columns
+     *         if they were not already gathered by {@link #computeDistances()}
+     */
+    public TrackStatistics statistics() {
+        if (statistics == null) {
+            StatisticsAccumulator accumulator = new StatisticsAccumulator();
+            for (int i = 0; i < size; i++) {
+                accumulator.accept(altitude[i], distance[i], epochMillis[i]);
+            }
+            statistics = accumulator.result();
+        }
+        return statistics;
+    }
+    
+    /**
+     * Creates a TrackPoint copy of point i
+     */
+    public TrackPoint get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        TrackPoint point = new TrackPoint(latitude[i], longitude[i], altitude[i], timestamp(i));
+        point.distanceFromStart = distance[i];
+        point.distanceFromPrevious = step[i];
+        return point;
+    }
+    
+    /**
+     * Returns a read-only List view for code that works with TrackPoints.
+     * Each get() creates a fresh TrackPoint, so changes to it are not written back.
+     */
+    public List<TrackPoint> asList() {
+        return new PointListView();
+    }
+    
+    private class PointListView extends AbstractList<TrackPoint> implements RandomAccess {
+        @Override
+        public TrackPoint get(int index) {
+            return TrackBuffer.this.get(index);
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * Binary sidecar cache (.gpxbin) holding a parsed track next to its GPX file
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   magic "GPXB", version, point count, distance method id, source file
+ *            length, segment count (32 bytes)
+ *   columns  latitude[n], longitude[n], altitude[n], distance[n], step[n] as
+ *            doubles, epochMillis[n] as longs
+ *   segments segment start[s], segment trk index[s] as ints
+ * </pre>
+ * Reading maps the file with FileChannel.map and bulk-copies the columns into a
+ * TrackBuffer, so a cached track loads without any XML parsing or distance math.
+ * A mapping can hold at most 2 GB, so the columns are mapped in windows of up to
+ * MAP_BYTES; caches of tracks with tens of millions of points load the same way.
+ * A cache written with a different distance method is treated as stale.
+ */
+public class TrackCache {
+    
+    public static final String EXTENSION = ".gpxbin";
+    
+    private static final int MAGIC = 0x47505842; // "GPXB"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 32;
+    private static final long MAP_BYTES = 1L << 30; // largest window mapped at once
+    
+    /**
+     * @return the sidecar file used for the given GPX file
+     */
+    public static File sidecarFor(File gpxFile) {
+        String name = gpxFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(gpxFile.getAbsoluteFile().getParentFile(), base + EXTENSION);
+    }
+    
+    /**
+     * @return true if the sidecar exists and is newer than the GPX file
+     */
+    public static boolean isFresh(File gpxFile, File sidecar) {
+        return sidecar.isFile() && sidecar.lastModified() > gpxFile.lastModified();
+    }
+    
+    /**
+     * Loads the track from a fresh sidecar, or parses the GPX file and writes the
+     * sidecar for the next run. A sidecar that cannot be read is ignored and rebuilt.
+     */
+    public static TrackBuffer loadOrParse(File gpxFile, boolean streaming) throws Exception {
+        return loadOrParse(gpxFile, streaming, DistanceMethod.HAVERSINE);
+    }
+    
+    /**
+     * Loads or parses a track whose distances are measured with the given method
+     */
+    public static TrackBuffer loadOrParse(File gpxFile, boolean streaming, 
+                                          DistanceMethod method) throws Exception {
+        return loadOrParse(gpxFile, method, 
+            () -> GPXElevationProfile.loadTrack(gpxFile.getAbsolutePath(), streaming, method));
+    }
+    
+    /**
+     * Loads a track from a fresh sidecar, or obtains it from parser and writes the
+     * sidecar for the next run
+     * @param method distance method the parser measures with
+     */
+    public static TrackBuffer loadOrParse(File gpxFile, DistanceMethod method, 
+                                          Callable<TrackBuffer> parser) throws Exception {
+        File sidecar = sidecarFor(gpxFile);
+        
+        if (isFresh(gpxFile, sidecar)) {
+            try {
+                TrackBuffer track = read(sidecar, gpxFile.length(), method);
+                if (track != null) {
+                    return track;
+                }
+            } catch (IOException e) {
+                System.err.println("Warning: Ignoring unreadable cache " + sidecar.getName()
+                                   + ": " + e.getMessage());
+            }
+        }
+        
+        TrackBuffer track = parser.call();
+        
+        try {
+            write(track, sidecar, gpxFile.length(), method);
+        } catch (IOException e) {
+            // The cache is only an optimization; the parsed track is still valid
+            System.err.println("Warning: Could not write cache " + sidecar.getName()
+                               + ": " + e.getMessage());
+        }
+        return track;
+    }
+    
+    /**
+     * Reads a sidecar file
+     * @param expectedSourceLength length of the GPX file the sidecar must belong to
+     * @param expectedMethod distance method the cached distances must have been measured with
+     * @return the cached track, or null if it was written for a different source file
+     *         or distance method
+     * @throws IOException if the file is not a valid sidecar
+     */
+    public static TrackBuffer read(File sidecar, long expectedSourceLength, 
+                                   DistanceMethod expectedMethod) throws IOException {
+        return read(sidecar, expectedSourceLength, expectedMethod, MAP_BYTES);
+    }
+    
+    /**
+     * Reads a sidecar file, mapping at most mapBytes of it at a time
+     */
+    static TrackBuffer read(File sidecar, long expectedSourceLength, 
+                            DistanceMethod expectedMethod, long mapBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("File too short for header");
+            }
+            
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a track cache file");
+            }
+            if (header.getInt(4) != VERSION) {
+                return null; // written by another version; rebuilt like a stale cache
+            }
+            int size = header.getInt(8);
+            int methodId = header.getInt(12);
+            long sourceLength = header.getLong(16);
+            int segments = header.getInt(24);
+            if (size < 0 || segments < 0 || segments > size 
+                    || fileSize != HEADER_SIZE + 48L * size + 8L * segments) {
+                throw new IOException("Truncated or corrupt cache file");
+            }
+            if (sourceLength != expectedSourceLength || methodId != expectedMethod.id) {
+                return null;
+            }
+            
+            double[] latitude = new double[size];
+            double[] longitude = new double[size];
+            double[] altitude = new double[size];
+            double[] distance = new double[size];
+            double[] step = new double[size];
+            long[] epochMillis = new long[size];
+            int[] segmentStarts = new int[segments];
+            int[] segmentTracks = new int[segments];
+            
+            long offset = HEADER_SIZE;
+            offset = readColumn(channel, offset, latitude, size, mapBytes);
+            offset = readColumn(channel, offset, longitude, size, mapBytes);
+            offset = readColumn(channel, offset, altitude, size, mapBytes);
+            offset = readColumn(channel, offset, distance, size, mapBytes);
+            offset = readColumn(channel, offset, step, size, mapBytes);
+            offset = readColumn(channel, offset, epochMillis, size, mapBytes);
+            offset = readColumn(channel, offset, segmentStarts, segments, mapBytes);
+            readColumn(channel, offset, segmentTracks, segments, mapBytes);
+            
+            TrackBuffer track = new TrackBuffer(latitude, longitude, altitude, distance, 
+                                                step, epochMillis, size);
+            int previousStart = -1;
+            for (int s = 0; s < segments; s++) {
+                int start = segmentStarts[s];
+                if (start <= previousStart || start >= size) {
+                    throw new IOException("Corrupt segment table");
+                }
+                track.markSegment(start, segmentTracks[s]);
+                previousStart = start;
+            }
+            return track;
+        }
+    }
+    
+    /**
+     * Copies count values of a double[], long[] or int[] column from the file,
+     * mapping at most mapBytes at a time
+     * @return the offset after the column
+     */
+    private static long readColumn(FileChannel channel, long offset, Object column, int count,
+                                   long mapBytes) throws IOException {
+        int width = column instanceof int[] ? 4 : 8;
+        int perWindow = (int) Math.min(Math.max(mapBytes / width, 1), Integer.MAX_VALUE);
+        for (int from = 0; from < count; from += perWindow) {
+            int n = Math.min(perWindow, count - from);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                                               offset + (long) from * width, (long) n * width);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (column instanceof double[] doubles) {
+                map.asDoubleBuffer().get(doubles, from, n);
+            } else if (column instanceof long[] longs) {
+                map.asLongBuffer().get(longs, from, n);
+            } else {
+                map.asIntBuffer().get((int[]) column, from, n);
+            }
+        }
+        return offset + (long) count * width;
+    }
+    
+    /**
+     * Writes a sidecar file. The data goes to a temporary file first and is then
+     * moved into place, so concurrent readers never see a partial cache.
+     */
+    public static void write(TrackBuffer track, File sidecar, long sourceLength, 
+                             DistanceMethod method) throws IOException {
+        int size = track.size();
+        Path target = sidecar.toPath();
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(),
+                                         sidecar.getName(), ".tmp");
+        
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(size);
+                header.putInt(method.id);
+                header.putLong(sourceLength);
+                header.putInt(track.segmentCount());
+                header.putInt(0); // reserved
+                header.flip();
+                writeFully(channel, header);
+                
+                ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                writeColumn(channel, chunk, track.latitudes(), size);
+                writeColumn(channel, chunk, track.longitudes(), size);
+                writeColumn(channel, chunk, track.altitudes(), size);
+                writeColumn(channel, chunk, track.distances(), size);
+                writeColumn(channel, chunk, track.steps(), size);
+                
+                long[] epochMillis = track.epochMillisArray();
+                for (int i = 0; i < size; i++) {
+                    if (chunk.remaining() < 8) {
+                        flushChunk(channel, chunk);
+                    }
+                    chunk.putLong(epochMillis[i]);
+                }
+                
+                int segments = track.segmentCount();
+                for (int s = 0; s < segments; s++) {
+                    if (chunk.remaining() < 4) {
+                        flushChunk(channel, chunk);
+                    }
+                    chunk.putInt(track.segmentStart(s));
+                }
+                for (int s = 0; s < segments; s++) {
+                    if (chunk.remaining() < 4) {
+                        flushChunk(channel, chunk);
+                    }
+                    chunk.putInt(track.segmentTrack(s));
+                }
+                flushChunk(channel, chunk);
+            }
+            
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private static void writeColumn(FileChannel channel, ByteBuffer chunk, double[] column,
+                                    int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            if (chunk.remaining() < 8) {
+                flushChunk(channel, chunk);
+            }
+            chunk.putDouble(column[i]);
+        }
+        flushChunk(channel, chunk);
+    }
+    
+    private static void flushChunk(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        writeFully(channel, chunk);
+        chunk.clear();
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Follows a GPX file that a device is still appending to, like tail -f
+ *
+ * Each poll reads only the bytes added since the previous one and parses the
+ * track points that are complete by then; a point still being written is left
+ * for the next poll. Distances and statistics are carried forward from the
+ * previous poll, so the work per poll is proportional to the new points. Points
+ * are kept in file order (a live log is written in time order). Segments are
+ * honored as by the other parsers.
+ *
+ * Each batch is parsed as a small document opened with a copy of the file's own
+ * gpx start tag, so that the namespace prefixes it declares (e.g. gpxtpx for
+ * Garmin extensions) stay bound.
+ *
+ * The file size is polled rather than watched with a WatchService, since some
+ * platforms implement WatchService by polling every few seconds, which would
+ * far exceed the update latency wanted here.
+ */
+public class TrackFollower {
+    
+    /** Time between polls of the file size */
+    public static final long POLL_MILLIS = 25;
+    
+    private static final int MAX_READ = 16 * 1024 * 1024; // bytes per poll
+    
+    private static final byte[] GPX = "gpx".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKPT = "trkpt".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRK = "trk".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKSEG = "trkseg".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKPT_END = "</trkpt>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_ROOT = "<gpx>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_START =
+        "<trk><trkseg>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_END =
+        "</trkseg></trk></gpx>".getBytes(StandardCharsets.US_ASCII);
+    
+    private final File file;
+    private final SegmentPolicy policy;
+    private final DistanceMethod.Cursor cursor;
+    private final StatisticsAccumulator accumulator = new StatisticsAccumulator();
+    
+    private long readPosition; // bytes of the file read so far
+    private byte[] pending = new byte[64 * 1024]; // bytes read but not yet consumed
+    private int pendingLength;
+    private byte[] root = BATCH_ROOT; // the file's gpx start tag, once read
+    
+    private double totalDistance;
+    private int trackCount;
+    private boolean structureChanged; // trk/trkseg tag since the previous point
+    private boolean segmentPending; // complete points left for the next batch
+    
+    public TrackFollower(File file, DistanceMethod method, SegmentPolicy policy) {
+        this.file = file;
+        this.policy = policy;
+        this.cursor = method.cursor();
+    }
+    
+    /**
+     * Reads what was appended to the file since the last poll
+     * @return the new complete points, with cumulative distances from the start
+     *         of the file and segment starts marked, or null if there are none
+     * @throws IOException if the file cannot be read or has become shorter
+     */
+    public TrackBuffer poll() throws Exception {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < readPosition) {
+                throw new IOException("File was truncated while following: " + file);
+            }
+            if (length == readPosition) {
+                return segmentPending ? parsePending() : null;
+            }
+            
+            int added = (int) Math.min(length - readPosition, MAX_READ);
+            if (pending.length < pendingLength + added) {
+                pending = Arrays.copyOf(pending,
+                                        Math.max(pending.length * 2, pendingLength + added));
+            }
+            in.seek(readPosition);
+            in.readFully(pending, pendingLength, added);
+            pendingLength += added;
+            readPosition += added;
+        }
+        return parsePending();
+    }
+    
+    /**
+     * Polls the file until the thread is interrupted, passing every non-empty
+     * batch of new points to the listener
+     */
+    public void follow(Consumer<TrackBuffer> listener) throws Exception {
+        while (!Thread.currentThread().isInterrupted()) {
+            TrackBuffer batch = poll();
+            if (batch != null) {
+                listener.accept(batch);
+            } else {
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+    }
+    
+    /**
+     * @return the statistics of all points read so far
+     */
+    public TrackStatistics statistics() {
+        return accumulator.result();
+    }
+    
+    /**
+     * Consumes the complete track points in the pending bytes. A batch ends before
+     * a point that starts a new segment, so that segments are only ever started
+     * at the first point of a batch and TrackBuffer.append continues the current
+     * segment otherwise.
+     */
+    private TrackBuffer parsePending() throws Exception {
+        // Byte ranges of the complete points, and the segment each one starts
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] newSegmentTrack = new int[16]; // -1 = same segment as the previous point
+        int count = 0;
+        
+        int consumed = 0;
+        int pos = 0;
+        segmentPending = false;
+        while (true) {
+            int open = indexOf(pending, (byte) '<', pos, pendingLength);
+            if (open < 0 || open + 1 + TRKPT.length >= pendingLength) {
+                break; // the rest may be the start of a tag
+            }
+            pos = open + 1;
+            if (isTag(pending, pos, pendingLength, GPX)) {
+                int end = startTagEnd(open, GPX.length);
+                if (end < 0) {
+                    break; // still being written
+                }
+                if (pending[end - 2] != '/') {
+                    root = Arrays.copyOfRange(pending, open, end);
+                }
+                consumed = end;
+                pos = end;
+            } else if (isTag(pending, pos, pendingLength, TRKPT)) {
+                int end = pointEnd(open);
+                if (end < 0) {
+                    break; // still being written
+                }
+                if (structureChanged && count > 0) {
+                    segmentPending = true;
+                    break;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                    newSegmentTrack = Arrays.copyOf(newSegmentTrack, count * 2);
+                }
+                starts[count] = open;
+                ends[count] = end;
+                newSegmentTrack[count] = structureChanged ? Math.max(trackCount - 1, 0) : -1;
+                structureChanged = false;
+                count++;
+                consumed = end;
+                pos = end;
+            } else if (isTag(pending, pos, pendingLength, TRK)) {
+                trackCount++;
+                structureChanged = true;
+                consumed = pos;
+            } else if (isTag(pending, pos, pendingLength, TRKSEG)
+                       || (pending[pos] == '/'
+                           && (isTag(pending, pos + 1, pendingLength, TRK)
+                               || isTag(pending, pos + 1, pendingLength, TRKSEG)))) {
+                structureChanged = true;
+                consumed = pos;
+            }
+        }
+        
+        TrackBuffer batch = count > 0 ? measure(parsePoints(starts, ends, count), newSegmentTrack)
+                                      : null;
+        
+        System.arraycopy(pending, consumed, pending, 0, pendingLength - consumed);
+        pendingLength -= consumed;
+        return batch;
+    }
+    
+    /**
+     * Parses the points with the streaming parser, wrapped in a minimal document
+     * under the file's root tag
+     */
+    private TrackBuffer parsePoints(int[] starts, int[] ends, int count) throws Exception {
+        int length = root.length + BATCH_START.length + BATCH_END.length;
+        for (int i = 0; i < count; i++) {
+            length += ends[i] - starts[i];
+        }
+        byte[] document = new byte[length];
+        System.arraycopy(root, 0, document, 0, root.length);
+        System.arraycopy(BATCH_START, 0, document, root.length, BATCH_START.length);
+        int at = root.length + BATCH_START.length;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(pending, starts[i], document, at, ends[i] - starts[i]);
+            at += ends[i] - starts[i];
+        }
+        System.arraycopy(BATCH_END, 0, document, at, BATCH_END.length);
+        
+        TrackBuffer points = GPXElevationProfile.readTrack(new ByteArrayInputStream(document));
+        if (points.size() != count) {
+            throw new IOException("Could not parse appended track points in " + file);
+        }
+        return points;
+    }
+    
+    /**
+     * Copies the parsed points into a batch with segments, distances and statistics
+     * continued from the earlier batches
+     */
+    private TrackBuffer measure(TrackBuffer points, int[] newSegmentTrack) {
+        TrackBuffer batch = new TrackBuffer(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            double step = cursor.next(points.latitude(i), points.longitude(i));
+            if (newSegmentTrack[i] >= 0) {
+                batch.startSegment(newSegmentTrack[i]);
+                if (policy == SegmentPolicy.BRIDGE) {
+                    step = 0;
+                }
+            }
+            totalDistance += step;
+            
+            batch.add(points.latitude(i), points.longitude(i), points.altitude(i),
+                      points.epochMillis(i));
+            batch.setDistance(i, totalDistance, step);
+            accumulator.accept(points.altitude(i), totalDistance, points.epochMillis(i));
+        }
+        return batch;
+    }
+    
+    /**
+     * @return the index just past the point whose tag starts at open, or -1 if
+     *         the point is not complete yet
+     */
+    private int pointEnd(int open) {
+        int pos = startTagEnd(open, TRKPT.length);
+        if (pos < 0 || pending[pos - 2] == '/') {
+            return pos; // a self-closing <trkpt .../> has no children
+        }
+        int close = indexOf(pending, TRKPT_END, pos, pendingLength);
+        return close < 0 ? -1 : close + TRKPT_END.length;
+    }
+    
+    /**
+     * @return the index just past the start tag at open, whose name has the given
+     *         length, or -1 if the tag is not complete yet
+     */
+    private int startTagEnd(int open, int nameLength) {
+        byte quote = 0;
+        for (int pos = open + 1 + nameLength; pos < pendingLength; pos++) {
+            byte b = pending[pos];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return pos + 1;
+            }
+        }
+        return -1;
+    }
+    
+    private static int indexOf(byte[] data, byte value, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int indexOf(byte[] data, byte[] value, int from, int limit) {
+        for (int i = from; i + value.length <= limit; i++) {
+            if (data[i] == value[0] && Arrays.equals(data, i, i + value.length,
+                                                     value, 0, value.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return true if the tag name at pos is exactly name
+     */
+    private static boolean isTag(byte[] data, int pos, int limit, byte[] name) {
+        if (pos + name.length >= limit) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (data[pos + i] != name[i]) {
+                return false;
+            }
+        }
+        byte after = data[pos + name.length];
+        return after == '>' || after == '/' || after == ' ' || after == '\t'
+               || after == '\r' || after == '\n';
+    }
+}
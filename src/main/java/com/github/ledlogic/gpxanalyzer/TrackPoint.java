@@ -15,6 +15,8 @@ public class TrackPoint implements Serializable, Comparable<TrackPoint> {
     public double distanceFromStart; // cumulative distance in meters
     public double distanceFromPrevious; // distance from previous point in meters
     public Instant timestamp; // time of the track point (may be null)
+    public int track; // index of the GPX trk the point belongs to
+    public int segment; // index of the track segment (trkseg) within the file
     
     public TrackPoint(double lat, double lon, double alt) {
         this.latitude = lat;
@@ -37,6 +39,11 @@ public class TrackPoint implements Serializable, Comparable<TrackPoint> {
                            timestamp != null ? timestamp.toString() : "N/A");
     }
     
+    /**
+     * Compares timestamps; points without one compare equal to every point, so this
+     * is not a total order on mixed tracks. Parsed tracks are ordered as in
+     * {@link TrackBuffer#sortByTime()} instead.
+     */
     @Override
     public int compareTo(TrackPoint other) {
         // Sort by timestamp if both have timestamps
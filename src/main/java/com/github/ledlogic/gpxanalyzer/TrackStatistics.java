@@ -0,0 +1,40 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.Serializable;
+
+/**
+ * Summary statistics of a track, produced by StatisticsAccumulator
+ *
+ * Distances are in meters, altitudes in meters, times in milliseconds and speeds
+ * in meters per second. Time-based values are 0 when the track has no timestamps.
+ *
+ * @param pointCount number of track points
+ * @param totalDistance cumulative path distance
+ * @param minAltitude lowest altitude (NaN for an empty track)
+ * @param maxAltitude highest altitude (NaN for an empty track)
+ * @param ascent total climb, counting only changes of at least the hysteresis threshold
+ * @param descent total descent, counting only changes of at least the hysteresis threshold
+ * @param elapsedTimeMillis time between the first and last timestamp
+ * @param movingTimeMillis time spent moving faster than the moving-speed threshold
+ * @param maxSpeed highest speed between two consecutive timestamped points
+ * @param averageGrade net altitude change over total distance, in percent
+ */
+public record TrackStatistics(int pointCount,
+                              double totalDistance,
+                              double minAltitude,
+                              double maxAltitude,
+                              double ascent,
+                              double descent,
+                              long elapsedTimeMillis,
+                              long movingTimeMillis,
+                              double maxSpeed,
+                              double averageGrade) implements Serializable {
+    
+    public double elevationRange() {
+        return maxAltitude - minAltitude;
+    }
+    
+    public boolean hasTime() {
+        return elapsedTimeMillis > 0;
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of the GPX files a watched directory has already been processed for
+ *
+ * Each file is stored with its size, modification time and SHA-256 content hash.
+ * A file whose size and time are unchanged is not read at all; one that was only
+ * touched or copied over with the same content is recognized by its hash. The
+ * manifest also records the processing options, since different options produce
+ * different outputs. It is saved as a text file in the watched directory:
+ * <pre>
+ * # gpxanalyzer watch manifest
+ * options &lt;options&gt;
+ * &lt;size&gt;\t&lt;mtime&gt;\t&lt;sha-256&gt;\t&lt;file name&gt;
+ * </pre>
+ */
+final class WatchManifest {
+    
+    static final String FILE_NAME = ".gpxwatch";
+    private static final String HEADER = "# gpxanalyzer watch manifest";
+    private static final String OPTIONS_PREFIX = "options ";
+    
+    private final Path path;
+    private final String options;
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private boolean dirty;
+    
+    private WatchManifest(Path path, String options) {
+        this.path = path;
+        this.options = options;
+    }
+    
+    /**
+     * Loads the manifest of a directory. A missing or unreadable manifest, or one
+     * written with other options, is treated as empty so every file is processed.
+     */
+    static WatchManifest load(File directory, String options) {
+        WatchManifest manifest = new WatchManifest(new File(directory, FILE_NAME).toPath(),
+                                                   options);
+        if (!Files.isRegularFile(manifest.path)) {
+            return manifest;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(manifest.path,
+                                                             StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            String savedOptions = reader.readLine();
+            if (!HEADER.equals(header) || savedOptions == null
+                    || !savedOptions.startsWith(OPTIONS_PREFIX)) {
+                System.err.println("Warning: ignoring unrecognized manifest " + manifest.path);
+                return manifest;
+            }
+            if (!savedOptions.substring(OPTIONS_PREFIX.length()).equals(options)) {
+                System.out.println("Processing options changed; all files will be reprocessed");
+                return manifest;
+            }
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    manifest.entries.put(fields[3], new Entry(Long.parseLong(fields[0]),
+                                                              Long.parseLong(fields[1]),
+                                                              fields[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Warning: could not read manifest " + manifest.path
+                               + ": " + e.getMessage());
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+    
+    /**
+     * @return true if the file was processed with exactly this size and time
+     */
+    synchronized boolean isCurrent(String name, long size, long lastModified) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.size == size && entry.lastModified == lastModified;
+    }
+    
+    /**
+     * @return true if the file was processed with this content
+     */
+    synchronized boolean hasHash(String name, String hash) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.hash.equals(hash);
+    }
+    
+    synchronized void put(String name, long size, long lastModified, String hash) {
+        entries.put(name, new Entry(size, lastModified, hash));
+        dirty = true;
+    }
+    
+    synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            dirty = true;
+        }
+    }
+    
+    /**
+     * Writes the manifest if it changed since the last save. The file is replaced
+     * atomically where the file system allows it, so a crash leaves either the old
+     * or the new manifest.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.write(OPTIONS_PREFIX + options);
+                writer.newLine();
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.hash
+                                 + "\t" + e.getKey());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Warning: could not save manifest " + path + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * @return the SHA-256 of the file contents as a hex string
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE provides SHA-256
+        }
+        
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+        
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
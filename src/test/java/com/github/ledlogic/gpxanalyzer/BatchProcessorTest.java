@@ -0,0 +1,53 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Batches whose files fail part way through the pipeline
+ */
+class BatchProcessorTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void failedAnalysisReleasesItsFileAndTheBatchFinishes() throws Exception {
+        // More files than the stage queues hold, so that feeding the next stage
+        // blocks, with the CSV of every third one in the way of a directory
+        List<File> files = new ArrayList<>();
+        for (int f = 0; f < 24; f++) {
+            files.add(TestTracks.write(directory, "walk" + f + ".gpx",
+                                       TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 40, 40)));
+            if (f % 3 == 0) {
+                Files.createDirectory(directory.resolve("walk" + f + ".csv"));
+            }
+        }
+        
+        ProcessingOptions options = new ProcessingOptions();
+        options.threads = 2;
+        options.memoryMegabytes = 1;
+        options.showGui = false;
+        options.savePng = false;
+        options.outputDirectory = directory.toString();
+        BatchProcessor batch = new BatchProcessor(options);
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> batch.run(files));
+        
+        assertEquals(16, batch.succeeded());
+        assertEquals(8, batch.failed());
+        assertEquals(0, batch.budget().used(), "every file released its memory");
+        assertTrue(batch.budget().peak() > 0);
+        assertTrue(Files.isRegularFile(directory.resolve("walk1.csv")));
+    }
+}
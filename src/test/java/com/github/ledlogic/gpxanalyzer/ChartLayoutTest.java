@@ -0,0 +1,53 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Placement of the chart's ticks and labels
+ */
+class ChartLayoutTest {
+    
+    @Test
+    void ticksSpanTheAxesInsideThePadding() {
+        ChartLayout layout = ChartLayout.withAltitudeMargin(1000, 600, 0, 5000, 100, 200);
+        
+        assertEquals(90, layout.altitudeTick(0), 1e-9);
+        assertEquals(210, layout.altitudeTick(ChartLayout.ALTITUDE_DIVISIONS), 1e-9);
+        assertEquals(ChartLayout.PADDING, layout.scaleX(layout.distanceTick(0)), 1e-9);
+        assertEquals(1000 - ChartLayout.PADDING,
+                     layout.scaleX(layout.distanceTick(ChartLayout.DISTANCE_DIVISIONS)), 1e-9);
+        assertEquals(layout.bottom(), layout.scaleY(layout.altitudeTick(0)), 1e-9);
+        assertEquals("2.50 km", layout.distanceLabel(2500));
+        assertEquals("Distance (kilometers)", layout.distanceTitle());
+    }
+    
+    @Test
+    void shortWindowsAreLabeledInMeters() {
+        ChartLayout layout = new ChartLayout(1000, 600, 200, 1199, 0, 10);
+        
+        assertEquals("250.00 m", layout.distanceLabel(250));
+        assertEquals("Distance (meters)", layout.distanceTitle());
+    }
+    
+    @Test
+    void timestampLabelsMoveBelowPointsNearTheTop() {
+        ChartLayout.Label above = ChartLayout.timestampLabel(300, 300, 80, 14);
+        assertEquals(260, above.x);
+        assertEquals(288, above.baseline);
+        assertEquals(above.baseline - 14 + 2, above.boxY);
+        
+        ChartLayout.Label below = ChartLayout.timestampLabel(300, ChartLayout.PADDING + 5, 80, 14);
+        assertTrue(below.baseline > ChartLayout.PADDING + 5);
+    }
+    
+    @Test
+    void atMostFifteenPointsAreLabeled() {
+        assertEquals(1, ChartLayout.labelInterval(1));
+        assertEquals(1, ChartLayout.labelInterval(15));
+        assertEquals(1, ChartLayout.labelInterval(29));
+        assertEquals(100, ChartLayout.labelInterval(1500));
+    }
+}
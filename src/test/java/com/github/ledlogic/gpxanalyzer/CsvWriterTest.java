@@ -0,0 +1,64 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The hand-written fixed-point formatting against printf
+ */
+class CsvWriterTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void writeFixedMatchesPrintf() throws Exception {
+        Random random = new Random(42);
+        double[] special = {0, -0.0, 0.005, 0.015, 2.675, -1.005, 1e-9, 999_999.995, 1e12,
+                            -1e300, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE};
+        for (int decimals = 0; decimals <= 7; decimals++) {
+            for (double value : special) {
+                assertFormat(value, decimals);
+            }
+            for (int i = 0; i < 20_000; i++) {
+                double magnitude = Math.pow(10, random.nextInt(12) - 4);
+                assertFormat((random.nextDouble() - 0.3) * magnitude, decimals);
+                assertFormat(random.nextInt(200_000) / 1000.0 + 0.0005, decimals); // near halves
+            }
+        }
+    }
+    
+    @Test
+    void gzipExportHoldsThePlainExport() throws Exception {
+        TrackBuffer track = GPXElevationProfile.parseTrack(TestTracks.samples()[0].getPath());
+        File plain = directory.resolve("track.csv").toFile();
+        File gzip = directory.resolve("track.csv.gz").toFile();
+        GPXElevationProfile.exportToCSV(track, plain.getPath(), false, true);
+        GPXElevationProfile.exportToCSV(track, gzip.getPath(), true, true);
+        
+        try (InputStream in = new GZIPInputStream(new FileInputStream(gzip))) {
+            assertArrayEquals(Files.readAllBytes(plain.toPath()), in.readAllBytes());
+        }
+    }
+    
+    private static void assertFormat(double value, int decimals) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(bytes)) {
+            writer.writeFixed(value, decimals);
+        }
+        assertEquals(String.format("%." + decimals + "f", value), bytes.toString(),
+                     "value " + value + ", " + decimals + " decimals");
+    }
+}
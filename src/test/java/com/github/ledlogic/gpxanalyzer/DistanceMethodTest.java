@@ -0,0 +1,82 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Distance methods against the haversine formula and a surveyed distance
+ */
+class DistanceMethodTest {
+    
+    @Test
+    void fastStaysWithinItsBoundOfHaversine() {
+        Random random = new Random(13);
+        DistanceMethod.Cursor fast = DistanceMethod.FAST.cursor();
+        DistanceMethod.Cursor haversine = DistanceMethod.HAVERSINE.cursor();
+        double lat = 0;
+        double lon = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 1000 == 0) {
+                // Start a new path anywhere short of the poles
+                lat = random.nextDouble() * 170 - 85;
+                lon = random.nextDouble() * 360 - 180;
+            } else {
+                // Steps of up to 0.001 rad on either axis
+                lat += Math.toDegrees((random.nextDouble() * 2 - 1) * 0.001);
+                lon += Math.toDegrees((random.nextDouble() * 2 - 1) * 0.001);
+            }
+            double expected = haversine.next(lat, lon);
+            double actual = fast.next(lat, lon);
+            assertEquals(expected, actual, 1e-7 * expected + 1e-9, "step " + i);
+        }
+    }
+    
+    @Test
+    void fastMeasuresLongStepsWithHaversine() {
+        DistanceMethod.Cursor fast = DistanceMethod.FAST.cursor();
+        assertEquals(0, fast.next(44.98, -93.25));
+        assertEquals(GPXElevationProfile.haversineDistance(44.98, -93.25, 45.2, -93.25),
+                     fast.next(45.2, -93.25));
+        assertEquals(GPXElevationProfile.haversineDistance(45.2, -93.25, 45.2, -92.0),
+                     fast.next(45.2, -92.0));
+    }
+    
+    @Test
+    void vincentyMeasuresTheEllipsoid() {
+        // Flinders Peak to Buninyong, Vincenty's own example
+        DistanceMethod.Cursor vincenty = DistanceMethod.VINCENTY.cursor();
+        vincenty.next(-degrees(37, 57, 3.72030), degrees(144, 25, 29.52440));
+        assertEquals(54972.271, vincenty.next(-degrees(37, 39, 10.15610),
+                                              degrees(143, 55, 35.38390)), 1e-3);
+    }
+    
+    @Test
+    void vincentyFallsBackToHaversineForAntipodalPoints() {
+        // Nearly antipodal, but far enough from it that the iteration converges
+        double converged = distance(DistanceMethod.VINCENTY, 0, 0, 0.5, 179.5);
+        double sphere = GPXElevationProfile.haversineDistance(0, 0, 0.5, 179.5);
+        assertTrue(Math.abs(converged - sphere) > 100, converged + " against " + sphere);
+        
+        // The iteration does not converge for these, so the sphere is used
+        assertEquals(GPXElevationProfile.haversineDistance(0, 0, 0.5, 179.7),
+                     distance(DistanceMethod.VINCENTY, 0, 0, 0.5, 179.7));
+        assertEquals(GPXElevationProfile.haversineDistance(0, 0, 0, 180),
+                     distance(DistanceMethod.VINCENTY, 0, 0, 0, 180));
+        assertEquals(0, distance(DistanceMethod.VINCENTY, 30, 60, 30, 60));
+    }
+    
+    private static double degrees(int degrees, int minutes, double seconds) {
+        return degrees + minutes / 60.0 + seconds / 3600.0;
+    }
+    
+    private static double distance(DistanceMethod method, double lat1, double lon1,
+                                   double lat2, double lon2) {
+        DistanceMethod.Cursor cursor = method.cursor();
+        cursor.next(lat1, lon1);
+        return cursor.next(lat2, lon2);
+    }
+}
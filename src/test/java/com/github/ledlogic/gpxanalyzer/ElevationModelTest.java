@@ -0,0 +1,114 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Heights looked up in small synthetic tiles
+ */
+class ElevationModelTest {
+    
+    private static final short VOID = -32768;
+    private static final int SIDE = 5; // samples a quarter degree apart
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void samplesAreReadAtTheirCornersAndInterpolatedBetween() throws Exception {
+        writeTile("N44W094.hgt", (row, column) -> 100 + 10 * row + column);
+        ElevationModel model = new ElevationModel(directory.toFile(), 1 << 20);
+        
+        // The south and west edges belong to the tile, the north and east ones
+        // to the tiles beyond
+        assertEquals(110, model.elevation(44.75, -94), 1e-9);
+        assertEquals(142, model.elevation(44, -93.5), 1e-9);
+        assertEquals(121, model.elevation(44.5, -93.75), 1e-9);
+        // Between samples the heights follow the plane through them
+        assertEquals(100 + 10 * 1.4 + 2.6, model.elevation(45 - 1.4 / 4, -94 + 2.6 / 4), 1e-9);
+        assertEquals(Double.NaN, model.elevation(44.5, -92.5));
+    }
+    
+    @Test
+    void bilinearWeightsFollowBothAxes() throws Exception {
+        // h = row * column is bilinear, so it is reproduced exactly inside a cell
+        writeTile("S34E151.HGT", (row, column) -> 50 * row * column);
+        ElevationModel model = new ElevationModel(directory.toFile(), 1 << 20);
+        
+        for (double row = 0.1; row < 4; row += 0.3) {
+            for (double column = 0; column < 4; column += 0.7) {
+                double lat = -33 - row / 4;
+                double lon = 151 + column / 4;
+                assertEquals(50 * row * column, model.elevation(lat, lon), 1e-6,
+                             row + ", " + column);
+            }
+        }
+    }
+    
+    @Test
+    void voidSamplesAreLeftOut() throws Exception {
+        writeTile("N00E000.hgt", (row, column) -> {
+            if (row == 0 && column == 0) {
+                return VOID;
+            }
+            return row >= 2 && row <= 3 && column >= 2 && column <= 3 ? VOID : 200;
+        });
+        ElevationModel model = new ElevationModel(directory.toFile(), 1 << 20);
+        
+        assertEquals(200, model.elevation(1 - 0.1 / 4, 0.1 / 4), 1e-9);
+        assertEquals(Double.NaN, model.elevation(1 - 2.5 / 4, 2.5 / 4));
+        assertEquals(200, model.elevation(1 - 1.5 / 4, 1.5 / 4), 1e-9);
+    }
+    
+    @Test
+    void correctReplacesOnlyCoveredPoints() throws Exception {
+        writeTile("N44W094.hgt", (row, column) -> 300);
+        writeTile("N44W093.hgt", (row, column) -> 400);
+        // A budget below one tile evicts each tile as the next is loaded
+        ElevationModel model = new ElevationModel(directory.toFile(), 1);
+        
+        TrackBuffer track = new TrackBuffer();
+        track.add(44.5, -93.5, 10, 0);
+        track.add(44.5, -92.5, 11, 1000);
+        track.add(43.5, -92.5, 12, 2000);
+        track.add(44.6, -93.6, 13, 3000);
+        
+        assertEquals(3, model.correct(track));
+        assertEquals(300, track.altitude(0), 1e-9);
+        assertEquals(400, track.altitude(1), 1e-9);
+        assertEquals(12, track.altitude(2), 1e-9);
+        assertEquals(300, track.altitude(3), 1e-9);
+    }
+    
+    @Test
+    void filesThatAreNotSquareGridsAreIgnored() throws Exception {
+        Files.write(directory.resolve("N10E010.hgt"), new byte[2 * 5 * 6]);
+        ElevationModel model = new ElevationModel(directory.toFile(), 1 << 20);
+        assertTrue(Double.isNaN(model.elevation(10.5, 10.5)));
+    }
+    
+    private interface Heights {
+        int at(int row, int column);
+    }
+    
+    /**
+     * Writes a tile of SIDE x SIDE big-endian samples, rows from north to south
+     */
+    private void writeTile(String name, Heights heights) throws IOException {
+        ByteBuffer samples = ByteBuffer.allocate(2 * SIDE * SIDE);
+        for (int row = 0; row < SIDE; row++) {
+            for (int column = 0; column < SIDE; column++) {
+                samples.putShort((short) heights.at(row, column));
+            }
+        }
+        Files.write(directory.resolve(name), samples.array());
+    }
+}
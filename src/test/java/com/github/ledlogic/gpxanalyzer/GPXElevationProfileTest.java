@@ -0,0 +1,74 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The streaming (StAX) parser against the DOM parser it replaces
+ */
+class GPXElevationProfileTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void streamingMatchesDomOnSampleTracks() throws Exception {
+        for (File sample : TestTracks.samples()) {
+            assertSameTrack(sample);
+        }
+    }
+    
+    @Test
+    void streamingMatchesDomAcrossSegmentsAndExtensions() throws Exception {
+        File file = TestTracks.write(directory, "garmin.gpx",
+                                     TestTracks.gpx(TestTracks.GARMIN_ROOT, true, 40, 1, 25));
+        TrackBuffer track = assertSameTrack(file);
+        assertEquals(66, track.size());
+        assertEquals(3, track.segmentCount());
+    }
+    
+    @Test
+    void pointsWithoutElevationOrTimeAreKept() throws Exception {
+        String gpx = TestTracks.PLAIN_ROOT + "<trk><trkseg>"
+            + "<trkpt lat=\"45.0\" lon=\"-93.0\"></trkpt>"
+            + "<trkpt lat=\"45.001\" lon=\"-93.0\"><ele>200.5</ele></trkpt>"
+            + "</trkseg></trk></gpx>";
+        TrackBuffer track = GPXElevationProfile.parseTrack(
+            new ByteArrayInputStream(gpx.getBytes(StandardCharsets.UTF_8)));
+        
+        assertEquals(2, track.size());
+        assertEquals(0.0, track.altitude(0));
+        assertEquals(200.5, track.altitude(1));
+        assertFalse(track.hasTimestamp(0));
+        assertEquals(111.2, track.totalDistance(), 0.1);
+    }
+    
+    /**
+     * Parses a file with both parsers and checks every column is identical
+     * @return the streamed track
+     */
+    private static TrackBuffer assertSameTrack(File file) throws Exception {
+        TrackBuffer dom = GPXElevationProfile.loadTrack(file.getPath(), false);
+        TrackBuffer stream = GPXElevationProfile.loadTrack(file.getPath(), true);
+        
+        assertEquals(dom.size(), stream.size(), file.getName());
+        assertEquals(dom.segmentCount(), stream.segmentCount(), file.getName());
+        for (int i = 0; i < dom.size(); i++) {
+            String at = file.getName() + " point " + i;
+            assertEquals(dom.latitude(i), stream.latitude(i), at);
+            assertEquals(dom.longitude(i), stream.longitude(i), at);
+            assertEquals(dom.altitude(i), stream.altitude(i), at);
+            assertEquals(dom.epochMillis(i), stream.epochMillis(i), at);
+            assertEquals(dom.distanceFromStart(i), stream.distanceFromStart(i), at);
+        }
+        return stream;
+    }
+}
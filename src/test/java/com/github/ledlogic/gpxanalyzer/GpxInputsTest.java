@@ -0,0 +1,206 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The documents handed out for files and archives, and their output names
+ */
+class GpxInputsTest {
+    
+    private static final String GPX = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 20);
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void entriesAreNamedAfterTheirArchive() throws Exception {
+        File zip = zip("bundle.zip", "dir/track.gpx", "notes.txt", "other.gpx");
+        
+        assertEquals(List.of("bundle_dir_track", "bundle_other"), baseNames(zip));
+        assertEquals("uploads_2026_jan_ride",
+                     GpxSource.entryBase("uploads.tar.gz", "2026/jan/ride.gpx"));
+        assertEquals("uploads_ride", GpxSource.entryBase("uploads.TGZ", "ride.GPX"));
+    }
+    
+    @Test
+    void documentsWithTheSameNameAreRenamed() throws Exception {
+        File plain = TestTracks.write(directory, "track.gpx", GPX);
+        File gzip = gzip("track.gpx.gz");
+        File zip = zip("a.zip", "b_c.gpx", "b/c.gpx", "B/C.gpx");
+        
+        assertEquals(List.of("track", "track-2", "a_b_c", "a_b_c-2", "a_B_C-3"),
+                     baseNames(plain, gzip, zip));
+    }
+    
+    @Test
+    void tarHeadersGiveEveryEntryItsFullPath() throws Exception {
+        String longPath = "tracks/" + "x".repeat(120) + "/long.gpx";
+        String paxPath = "tracks/" + "y".repeat(110) + "/pax.gpx";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        writeEntry(tar, "2026/jan", "ride.gpx", '0', GPX.getBytes(StandardCharsets.UTF_8));
+        writeEntry(tar, "", "././@LongLink", 'L',
+                   (longPath + "\0").getBytes(StandardCharsets.UTF_8));
+        writeEntry(tar, "", longPath.substring(0, 99), '0', GPX.getBytes(StandardCharsets.UTF_8));
+        writeEntry(tar, "", "PaxHeader", 'x', paxRecord("path", paxPath));
+        writeEntry(tar, "", "pax.gpx", '0', GPX.getBytes(StandardCharsets.UTF_8));
+        writeEntry(tar, "", "notes.txt", '0', "not a track".getBytes(StandardCharsets.UTF_8));
+        writeEntry(tar, "", "empty/", '5', new byte[0]);
+        writeEntry(tar, "", "last.GPX", '\0', GPX.getBytes(StandardCharsets.UTF_8));
+        File file = tarGz("bundle.tar.gz", tar);
+        
+        List<String> names = new ArrayList<>();
+        try (GpxInputs inputs = new GpxInputs(List.of(file))) {
+            for (GpxSource source = inputs.next(); source != null; source = inputs.next()) {
+                names.add(source.baseFilename());
+                assertEquals(GPX.length(), source.length());
+                assertEquals(20, ElevationProfileApp.readTrack(source, new ProcessingOptions())
+                                                    .size());
+            }
+        }
+        assertEquals(List.of("bundle_2026_jan_ride",
+                             "bundle_" + longPath.replace('/', '_').replace(".gpx", ""),
+                             "bundle_" + paxPath.replace('/', '_').replace(".gpx", ""),
+                             "bundle_last"),
+                     names);
+    }
+    
+    @Test
+    void tarEntriesAreReadWhenOpenedOrPassed() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            writeEntry(tar, "", "track" + i + ".gpx", '0',
+                       TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 10 + i)
+                           .getBytes(StandardCharsets.UTF_8));
+        }
+        File file = tarGz("bundle.tgz", tar);
+        
+        try (GpxInputs inputs = new GpxInputs(List.of(file))) {
+            GpxSource first = inputs.next();
+            GpxSource second = inputs.next(); // reads the first entry on the way
+            GpxSource third = inputs.next();
+            assertNull(inputs.next());
+            
+            ProcessingOptions options = new ProcessingOptions();
+            assertEquals(12, ElevationProfileApp.readTrack(third, options).size());
+            assertEquals(10, ElevationProfileApp.readTrack(first, options).size());
+            assertEquals(11, ElevationProfileApp.readTrack(second, options).size());
+        }
+    }
+    
+    @Test
+    void truncatedTarEntryFailsWhenOpened() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        writeEntry(tar, "", "track.gpx", '0', GPX.getBytes(StandardCharsets.UTF_8));
+        byte[] cut = Arrays.copyOf(tar.toByteArray(), 512 + 100);
+        ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+        truncated.write(cut);
+        File file = tarGz("cut.tar.gz", truncated);
+        
+        try (GpxInputs inputs = new GpxInputs(List.of(file))) {
+            GpxSource source = inputs.next();
+            assertThrows(IOException.class, () -> source.open().close());
+            assertNull(inputs.next());
+        }
+    }
+    
+    private static List<String> baseNames(File... files) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (GpxInputs inputs = new GpxInputs(List.of(files))) {
+            for (GpxSource source = inputs.next(); source != null; source = inputs.next()) {
+                names.add(source.baseFilename());
+            }
+        }
+        return names;
+    }
+    
+    private File zip(String name, String... entries) throws IOException {
+        File file = directory.resolve(name).toFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(GPX.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+    
+    /**
+     * Writes a ustar header and the padded content of one tar entry
+     */
+    private static void writeEntry(ByteArrayOutputStream tar, String prefix, String name,
+                                   char type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 124, String.format("%011o", content.length));
+        put(header, 136, String.format("%011o", 0));
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 345, prefix);
+        int checksum = 8 * ' ';
+        for (int i = 0; i < header.length; i++) {
+            checksum += i >= 148 && i < 156 ? 0 : header[i] & 0xff;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        header[155] = ' ';
+        tar.write(header);
+        tar.write(content);
+        tar.write(new byte[(512 - content.length % 512) % 512]);
+    }
+    
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+    
+    /**
+     * @return a pax extended header record, "length key=value\n", whose length
+     *         counts its own digits
+     */
+    private static byte[] paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int length = body.length() + 1;
+        while (length != body.length() + Integer.toString(length).length()) {
+            length++;
+        }
+        return (length + body).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private File tarGz(String name, ByteArrayOutputStream tar) throws IOException {
+        tar.write(new byte[1024]); // end of archive
+        File file = directory.resolve(name).toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            tar.writeTo(out);
+        }
+        return file;
+    }
+    
+    private File gzip(String name) throws IOException {
+        File file = directory.resolve(name).toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(GPX.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Heatmaps drawn whole against heatmaps drawn in parts and merged
+ */
+class HeatmapTest {
+
+    private static final int SIZE = 512;
+
+    @Test
+    void mergedPartsCountLikeOneHeatmap() {
+        List<TrackBuffer> tracks = tracks(new Random(5), 30);
+        Heatmap whole = new Heatmap(SIZE);
+        for (TrackBuffer track : tracks) {
+            whole.add(track);
+        }
+
+        Random random = new Random(9);
+        for (int parts : new int[] {1, 2, 3, 7}) {
+            Heatmap[] heatmaps = new Heatmap[parts];
+            for (int p = 0; p < parts; p++) {
+                heatmaps[p] = new Heatmap(SIZE);
+            }
+            for (TrackBuffer track : tracks) {
+                heatmaps[random.nextInt(parts)].add(track);
+            }
+            Heatmap merged = new Heatmap(SIZE);
+            for (Heatmap part : heatmaps) {
+                merged.merge(part);
+            }
+
+            assertEquals(whole.zoom(), merged.zoom(), parts + " parts");
+            assertEquals(whole.pointCount(), merged.pointCount(), parts + " parts");
+            assertArrayEquals(whole.drawnCounts(), merged.drawnCounts(), parts + " parts");
+            assertArrayEquals(pixels(whole.render()), pixels(merged.render()), parts + " parts");
+        }
+    }
+
+    @Test
+    void trackCountsDoNotDependOnTheZoomItWasDrawnAt() {
+        // Drawn at the highest zoom and then zoomed out, or straight at the lower zoom
+        TrackBuffer local = walk(new Random(1), 44.98, -93.25, 400, 2e-5);
+        TrackBuffer far = walk(new Random(2), 45.3, -92.8, 50, 2e-4);
+
+        Heatmap first = new Heatmap(SIZE);
+        first.add(local);
+        int zoomAlone = first.zoom();
+        first.add(far);
+        Heatmap second = new Heatmap(SIZE);
+        second.add(far);
+        second.add(local);
+
+        assertTrue(first.zoom() < zoomAlone, "the far track zooms out");
+        assertEquals(first.zoom(), second.zoom());
+        assertArrayEquals(first.drawnCounts(), second.drawnCounts());
+    }
+
+    @Test
+    void percentileMatchesSorting() {
+        Random random = new Random(11);
+        int[] counts = new int[20_000];
+        for (int i = 0; i < counts.length; i++) {
+            int kind = random.nextInt(4);
+            counts[i] = kind == 0 ? 0
+                        : kind == 1 ? 1 + random.nextInt(50)
+                        : kind == 2 ? random.nextInt(1 << 20)
+                        : Integer.MAX_VALUE - random.nextInt(1000);
+        }
+        int[] sorted = Arrays.stream(counts).filter(c -> c > 0).sorted().toArray();
+        for (double fraction : new double[] {0, 0.25, 0.5, 0.999, 1}) {
+            assertEquals(sorted[(int) ((sorted.length - 1) * fraction)],
+                         Heatmap.percentile(counts, fraction), "fraction " + fraction);
+        }
+        assertEquals(7, Heatmap.percentile(new int[] {0, 0, 7, 0}, 0.999));
+    }
+
+    private static byte[] pixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * @return walks around a few places, some far enough apart that a heatmap
+     *         holding them zooms out
+     */
+    private static List<TrackBuffer> tracks(Random random, int count) {
+        double[][] places = {{44.98, -93.25}, {44.99, -93.2}, {45.1, -93.0}, {46.8, -92.1}};
+        List<TrackBuffer> tracks = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            double[] place = places[random.nextInt(places.length)];
+            tracks.add(walk(random, place[0], place[1], 50 + random.nextInt(300),
+                            random.nextBoolean() ? 2e-5 : 3e-4));
+        }
+        return tracks;
+    }
+
+    /**
+     * @return a random walk of two segments, with steps up to step degrees
+     */
+    private static TrackBuffer walk(Random random, double lat, double lon, int points,
+                                    double step) {
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i < points; i++) {
+            if (i == 0 || i == points / 2) {
+                track.startSegment(0);
+            }
+            lat += (random.nextDouble() - 0.5) * step;
+            lon += (random.nextDouble() - 0.5) * step;
+            track.add(lat, lon, 0, i * 1000L);
+        }
+        return track;
+    }
+}
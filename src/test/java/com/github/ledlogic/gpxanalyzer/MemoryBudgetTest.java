@@ -0,0 +1,100 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reservations against the budget, and threads waiting for them
+ */
+class MemoryBudgetTest {
+    
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    
+    @Test
+    void reservationsAddUpAndPeakIsKept() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100, "test-memory-mb");
+        budget.acquire(60);
+        budget.acquire(40); // exactly fills the budget
+        assertEquals(100, budget.used());
+        budget.release(40);
+        budget.resize(60, 30);
+        assertEquals(30, budget.used());
+        budget.resize(30, 90); // grows past what acquire would allow, without waiting
+        assertEquals(90, budget.used());
+        budget.release(90);
+        assertEquals(0, budget.used());
+        assertEquals(100, budget.peak());
+        assertEquals(1, new MemoryBudget(0, "test-memory-mb").limit());
+    }
+    
+    @Test
+    void itemLargerThanTheBudgetIsAdmittedAlone() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100, "test-memory-mb");
+        assertTimeoutPreemptively(TIMEOUT, () -> budget.acquire(500));
+        assertEquals(500, budget.peak());
+        
+        Thread waiter = acquireOnThread(budget, 1);
+        awaitWaiting(waiter);
+        budget.release(500);
+        waiter.join(TIMEOUT.toMillis());
+        assertFalse(waiter.isAlive(), "released budget admits the next item");
+        assertEquals(1, budget.used());
+    }
+    
+    @Test
+    void shrinkingReservationWakesWaiters() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100, "test-memory-mb");
+        budget.acquire(80);
+        Thread waiter = acquireOnThread(budget, 50);
+        awaitWaiting(waiter);
+        budget.resize(80, 60); // still too little room
+        awaitWaiting(waiter);
+        budget.resize(60, 40);
+        waiter.join(TIMEOUT.toMillis());
+        assertFalse(waiter.isAlive(), "resize admits the waiting item");
+        assertEquals(90, budget.used());
+    }
+    
+    @Test
+    void interruptedWaiterReservesNothing() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100, "test-memory-mb");
+        budget.acquire(100);
+        Thread waiter = acquireOnThread(budget, 1);
+        awaitWaiting(waiter);
+        waiter.interrupt();
+        waiter.join(TIMEOUT.toMillis());
+        assertFalse(waiter.isAlive());
+        assertEquals(100, budget.used());
+    }
+    
+    private static Thread acquireOnThread(MemoryBudget budget, long bytes) {
+        Thread thread = new Thread(() -> {
+            try {
+                budget.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+    
+    /**
+     * Waits until the thread is blocked waiting for the budget
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.isAlive(), "thread is waiting, not done");
+            assertTrue(System.nanoTime() < deadline, "thread waits for the budget");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Chunked parsing against the regular parser, with chunk boundaries at every
+ * kind of place in the file
+ */
+class ParallelTrackParserTest {
+    
+    private static final long[] CHUNK_SIZES = {1, 97, 500, 1024, 4096, 1 << 20};
+    
+    @TempDir
+    Path directory;
+    
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    
+    @AfterEach
+    void shutDown() {
+        pool.shutdown();
+    }
+    
+    @Test
+    void segmentsSurviveEveryChunkSize() throws Exception {
+        assertChunksParseLikeWhole(TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 120, 1, 60, 2));
+    }
+    
+    @Test
+    void garminExtensionsAreSkipped() throws Exception {
+        assertChunksParseLikeWhole(TestTracks.gpx(TestTracks.GARMIN_ROOT, true, 80, 40));
+    }
+    
+    @Test
+    void tracksAreNumberedAcrossChunks() throws Exception {
+        String first = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 30, 20);
+        String second = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 0, 45)
+            .replace("T10:", "T11:");
+        String gpx = first.substring(0, first.indexOf("</gpx>"))
+                     + second.substring(second.indexOf("<trk>"));
+        TrackBuffer whole = GPXElevationProfile.parseTrack(
+            TestTracks.write(directory, "tracks.gpx", gpx).getPath());
+        assertEquals(1, whole.segmentTrack(whole.segmentCount() - 1));
+        assertChunksParseLikeWhole(gpx);
+    }
+    
+    @Test
+    void unsupportedContentFallsBackToTheRegularParser() throws Exception {
+        String gpx = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 50, 50);
+        int middle = gpx.indexOf("<trkpt", gpx.length() / 2);
+        assertChunksParseLikeWhole(gpx.substring(0, middle) + "<!-- paused -->"
+                                   + gpx.substring(middle));
+        assertChunksParseLikeWhole(gpx.replaceFirst("<ele>", "<ele><![CDATA[")
+                                      .replaceFirst("</ele>", "]]></ele>"));
+    }
+    
+    private void assertChunksParseLikeWhole(String gpx) throws Exception {
+        File file = TestTracks.write(directory, "track.gpx", gpx);
+        TrackBuffer expected = GPXElevationProfile.parseTrack(file.getPath(),
+                                                              DistanceMethod.HAVERSINE);
+        for (long chunkSize : CHUNK_SIZES) {
+            TrackBuffer track = new ParallelTrackParser(pool, DistanceMethod.HAVERSINE, chunkSize)
+                .parse(file);
+            String chunks = "chunk size " + chunkSize;
+            assertEquals(expected.size(), track.size(), chunks);
+            assertEquals(expected.segmentCount(), track.segmentCount(), chunks);
+            for (int s = 0; s < expected.segmentCount(); s++) {
+                assertEquals(expected.segmentStart(s), track.segmentStart(s), chunks);
+                assertEquals(expected.segmentTrack(s), track.segmentTrack(s), chunks);
+            }
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.latitude(i), track.latitude(i), chunks);
+                assertEquals(expected.altitude(i), track.altitude(i), chunks);
+                assertEquals(expected.epochMillis(i), track.epochMillis(i), chunks);
+                assertEquals(expected.distanceFromStart(i), track.distanceFromStart(i), 1e-6,
+                             chunks);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Streamed PNGs decoded by ImageIO, against the pixels they were given
+ */
+class PngStreamWriterTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void everyFilterDecodesToTheSamePixels() throws Exception {
+        // Noise, gradients and flat areas, so that each row picks a different filter
+        int width = 257;
+        int height = 203;
+        int[] pixels = new int[width * height];
+        Random random = new Random(3);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = switch (y / 20 % 5) {
+                    case 0 -> random.nextInt();
+                    case 1 -> (x * 7 << 16) | (x * 3 << 8) | x;
+                    case 2 -> (y * 5 << 16) | (y << 8) | (y * 11);
+                    case 3 -> ((x + y) * 3 << 16) | ((x * y) << 8) | (x ^ y);
+                    default -> 0x336699;
+                };
+                pixels[y * width + x] = pixel & 0xffffff;
+            }
+        }
+        
+        for (int level : new int[] {0, 4, 9}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (PngStreamWriter png = new PngStreamWriter(out, width, height, level)) {
+                // Bands of uneven heights, the first a single row
+                int[] bands = {1, 7, 64, height - 72};
+                int top = 0;
+                for (int rows : bands) {
+                    png.writeRows(pixels, top * width, rows);
+                    top += rows;
+                }
+                png.finish();
+                assertEquals(out.size(), png.bytesWritten());
+            }
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            assertPixels(pixels, width, height, decoded, "level " + level);
+        }
+    }
+    
+    @Test
+    void rowCountIsChecked() throws Exception {
+        int[] pixels = new int[10 * 4];
+        try (PngStreamWriter png = new PngStreamWriter(new ByteArrayOutputStream(), 10, 3, 4)) {
+            png.writeRows(pixels, 0, 2);
+            assertThrows(IllegalStateException.class, png::finish);
+            assertThrows(IllegalStateException.class, () -> png.writeRows(pixels, 0, 2));
+        }
+    }
+    
+    @Test
+    void posterIsDrawnInBandsLikeOneImage() throws Exception {
+        // Over MAX_IMAGE_PIXELS, so drawn in bands of several tiles each
+        int width = 4200;
+        int height = 4000;
+        assertTrue((long) width * height > PngRenderer.MAX_IMAGE_PIXELS);
+        File file = TestTracks.write(directory, "track.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 400, 200));
+        TrackBuffer track = GPXElevationProfile.parseTrack(file.getPath());
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngRenderer(width, height, 1, false).write(track, "poster", out);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        
+        BufferedImage whole = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = whole.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            new ElevationPlotter(track, "poster").drawChart(g2, width, height);
+        } finally {
+            g2.dispose();
+        }
+        int[] expected = whole.getRGB(0, 0, width, height, null, 0, width);
+        assertPixels(expected, width, height, decoded, "poster");
+    }
+    
+    private static void assertPixels(int[] expected, int width, int height,
+                                     BufferedImage decoded, String message) {
+        assertEquals(width, decoded.getWidth(), message);
+        assertEquals(height, decoded.getHeight(), message);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = decoded.getRGB(x, y) & 0xffffff;
+                if (pixel != (expected[y * width + x] & 0xffffff)) {
+                    assertEquals(Integer.toHexString(expected[y * width + x] & 0xffffff),
+                                 Integer.toHexString(pixel),
+                                 message + ", pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+}
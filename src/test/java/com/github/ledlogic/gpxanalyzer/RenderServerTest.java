@@ -0,0 +1,71 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Requests against a server on an ephemeral port
+ */
+class RenderServerTest {
+    
+    private static final String GPX = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 50);
+    
+    private RenderServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+    
+    @BeforeEach
+    void start() throws Exception {
+        server = new RenderServer(0, 2, 16 * 1024 * 1024);
+        server.start();
+    }
+    
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+    
+    @Test
+    void listensOnLoopbackByDefault() {
+        assertTrue(server.address().getAddress().isLoopbackAddress());
+    }
+    
+    @Test
+    void plotsOverThePixelLimitAreRefused() throws Exception {
+        assertEquals(200, post("/png?width=1000&height=600").statusCode());
+        assertEquals(400, post("/png?width=16384&height=16384").statusCode());
+        assertEquals(400, post("/svg?width=4096&height=4096").statusCode());
+    }
+    
+    @Test
+    void titlesCannotRunIntoTheNextKeyPart() throws Exception {
+        assertNotEquals(RenderServer.cacheKey("/png", "a/true", "false"),
+                        RenderServer.cacheKey("/png", "a", "true/false"));
+        assertNotEquals(RenderServer.cacheKey("/png", "", null),
+                        RenderServer.cacheKey("/png", null, ""));
+        
+        HttpResponse<byte[]> first = post("/svg?title=a%2Ftrue&csv-stats=false");
+        HttpResponse<byte[]> second = post("/svg?title=a&csv-stats=true%2Ffalse");
+        assertEquals("miss", second.headers().firstValue("X-Cache").orElse(null));
+        assertNotEquals(new String(first.body(), StandardCharsets.UTF_8),
+                        new String(second.body(), StandardCharsets.UTF_8));
+    }
+    
+    private HttpResponse<byte[]> post(String pathAndQuery) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + server.port() + pathAndQuery))
+            .POST(HttpRequest.BodyPublishers.ofString(GPX, StandardCharsets.UTF_8))
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Distances across segment gaps, and the segments of a file reported and
+ * exported on their own, from each of the parsers
+ */
+class SegmentPolicyTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void bridgeSkipsTheGapAndConnectCountsIt() throws Exception {
+        File file = TestTracks.write(directory, "walk.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 30, 1, 25));
+        for (ProcessingOptions options : parsers()) {
+            String parser = parserName(options);
+            TrackBuffer track = ElevationProfileApp.readTrack(file, options);
+            assertEquals(3, track.segmentCount(), parser);
+            
+            // Parsers bridge the gaps
+            for (int s = 1; s < track.segmentCount(); s++) {
+                int start = track.segmentStart(s);
+                assertEquals(0, track.distanceFromPrevious(start), parser);
+                assertEquals(track.distanceFromStart(start - 1), track.distanceFromStart(start),
+                             parser);
+            }
+            double bridged = track.totalDistance();
+            
+            track.computeDistances(DistanceMethod.HAVERSINE, SegmentPolicy.CONNECT);
+            double gaps = 0;
+            for (int s = 1; s < track.segmentCount(); s++) {
+                int start = track.segmentStart(s);
+                double gap = gap(track, start);
+                assertTrue(gap > 10, parser);
+                assertEquals(gap, track.distanceFromPrevious(start), 1e-9, parser);
+                assertEquals(track.distanceFromStart(start - 1) + gap,
+                             track.distanceFromStart(start), 1e-9, parser);
+                gaps += gap;
+            }
+            assertEquals(bridged + gaps, track.totalDistance(), 1e-6, parser);
+            assertEquals(track.totalDistance(), track.statistics().totalDistance(), 1e-9, parser);
+        }
+    }
+    
+    @Test
+    void eachSegmentStartsAtZeroUnderEitherPolicy() throws Exception {
+        File file = TestTracks.write(directory, "walk.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 40, 35));
+        for (SegmentPolicy policy : SegmentPolicy.values()) {
+            ProcessingOptions options = new ProcessingOptions();
+            options.segmentPolicy = policy;
+            options.splitSegments = true;
+            options.savePng = false;
+            options.outputDirectory = directory.toString();
+            TrackBuffer track = ElevationProfileApp.readTrack(file, options);
+            ElevationProfileApp.analyzeTrack(track, GpxSource.of(file), options,
+                                             new PrintStream(new ByteArrayOutputStream()));
+            
+            // The whole file's CSV counts the gap or not, as the policy says
+            int start = track.segmentStart(1);
+            double expectedStart = track.distanceFromStart(start - 1)
+                                   + (policy == SegmentPolicy.CONNECT ? gap(track, start) : 0);
+            assertEquals(expectedStart, csvDistances(directory.resolve("walk.csv"))[start],
+                         0.005, policy.name());
+            
+            for (int s = 0; s < track.segmentCount(); s++) {
+                TrackBuffer segment = track.segment(s);
+                double length = track.distanceFromStart(track.segmentEnd(s) - 1)
+                                - track.distanceFromStart(track.segmentStart(s));
+                String message = policy + ", segment " + (s + 1);
+                assertEquals(0, segment.distanceFromStart(0), message);
+                assertEquals(0, segment.distanceFromPrevious(0), message);
+                assertEquals(length, segment.statistics().totalDistance(), 1e-6, message);
+                
+                double[] csv = csvDistances(directory.resolve("walk_seg" + (s + 1) + ".csv"));
+                assertEquals(segment.size(), csv.length, message);
+                assertEquals(0, csv[0], message);
+                assertEquals(length, csv[csv.length - 1], 0.005, message);
+            }
+        }
+    }
+    
+    @Test
+    void parsersNumberSegmentsAndTracksAlike() throws Exception {
+        // Two segments in the first trk and one in the second
+        String first = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 30, 20);
+        String second = TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 0, 45)
+            .replace("T10:", "T11:");
+        File file = TestTracks.write(directory, "tracks.gpx",
+                                     first.substring(0, first.indexOf("</gpx>"))
+                                     + second.substring(second.indexOf("<trk>")));
+        
+        for (ProcessingOptions options : parsers()) {
+            String parser = parserName(options);
+            options.outputDirectory = directory.toString();
+            TrackBuffer track = ElevationProfileApp.readTrack(file, options);
+            assertEquals(3, track.segmentCount(), parser);
+            assertEquals(List.of(0, 30, 50), List.of(track.segmentStart(0), track.segmentStart(1),
+                                                     track.segmentStart(2)), parser);
+            assertEquals(List.of(0, 0, 1), List.of(track.segmentTrack(0), track.segmentTrack(1),
+                                                   track.segmentTrack(2)), parser);
+            
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            ElevationProfileApp.analyzeSegments(track, GpxSource.of(file), options,
+                                                new PrintStream(report, true, "UTF-8"));
+            String text = report.toString(StandardCharsets.UTF_8);
+            assertTrue(text.contains("Segment 1 (track 1): 30 points"), parser + "\n" + text);
+            assertTrue(text.contains("Segment 2 (track 1): 20 points"), parser + "\n" + text);
+            assertTrue(text.contains("Segment 3 (track 2): 45 points"), parser + "\n" + text);
+        }
+    }
+    
+    /**
+     * @return options selecting the DOM, StAX and chunked parsers
+     */
+    private static List<ProcessingOptions> parsers() {
+        ProcessingOptions dom = new ProcessingOptions();
+        ProcessingOptions stax = new ProcessingOptions();
+        stax.streaming = true;
+        ProcessingOptions chunked = new ProcessingOptions();
+        chunked.parallelParse = true;
+        return List.of(dom, stax, chunked);
+    }
+    
+    private static String parserName(ProcessingOptions options) {
+        return options.parallelParse ? "chunked" : options.streaming ? "StAX" : "DOM";
+    }
+    
+    /**
+     * @return the straight-line distance from the point before start to start
+     */
+    private static double gap(TrackBuffer track, int start) {
+        return GPXElevationProfile.haversineDistance(track.latitude(start - 1),
+                                                     track.longitude(start - 1),
+                                                     track.latitude(start),
+                                                     track.longitude(start));
+    }
+    
+    /**
+     * @return the Distance_m column of a CSV export
+     */
+    private static double[] csvDistances(Path csv) throws Exception {
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        return lines.stream()
+            .skip(1)
+            .mapToDouble(line -> Double.parseDouble(line.substring(0, line.indexOf(','))))
+            .toArray();
+    }
+}
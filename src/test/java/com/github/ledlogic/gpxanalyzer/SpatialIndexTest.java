@@ -0,0 +1,160 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Index queries against scanning every point of every file
+ */
+class SpatialIndexTest {
+    
+    @TempDir
+    Path directory;
+    
+    private final ProcessingOptions options = new ProcessingOptions();
+    
+    @BeforeEach
+    void writeTracks() throws Exception {
+        // Random walks around a few places, one of them on the 180th meridian
+        Random random = new Random(7);
+        double[][] places = {{44.98, -93.25}, {47.61, -122.33}, {-33.87, 151.21},
+                             {64.84, 179.999}, {0.01, -0.01}};
+        for (int f = 0; f < 40; f++) {
+            double[] place = places[f % places.length];
+            Files.createDirectories(directory.resolve("set" + f % 3));
+            TestTracks.write(directory, "set" + f % 3 + "/walk" + f + ".gpx",
+                             walk(random, place[0], place[1], 100 + random.nextInt(400)));
+        }
+        TestTracks.write(directory, "notes.txt", "not a track");
+    }
+    
+    @Test
+    void queriesFindExactlyThePointsInside() throws Exception {
+        SpatialIndex index = build();
+        assertEquals(40, index.fileCount());
+        assertTrue(index.runCount() > 16, "runs fill more than one node");
+        
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(44.97, -93.26, 45.0, -93.24));
+        assertQueryMatchesScan(index, SpatialIndex.Area.near(47.615, -122.335, 400));
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(-0.005, -0.02, 0.02, 0.005));
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(-90, -180, 90, 180));
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(10, 10, 20, 20));
+    }
+    
+    @Test
+    void boxesAndCirclesCrossTheAntimeridian() throws Exception {
+        SpatialIndex index = build();
+        SpatialIndex.Area box = SpatialIndex.Area.box(64.8, 179.99, 64.9, -179.99);
+        SpatialIndex.Match match = index.query(box, options).get(0);
+        TrackBuffer track = ElevationProfileApp.readTrack(match.file(), options);
+        boolean east = false;
+        boolean west = false;
+        for (SpatialIndex.Range range : match.ranges()) {
+            for (int i = range.first(); i <= range.last(); i++) {
+                east |= track.longitude(i) > 0;
+                west |= track.longitude(i) < 0;
+            }
+        }
+        assertTrue(east && west, "points found on both sides of the meridian");
+        assertQueryMatchesScan(index, box);
+        assertQueryMatchesScan(index, SpatialIndex.Area.near(64.84, -179.99, 2000));
+        assertQueryMatchesScan(index, SpatialIndex.Area.near(89.99, 0, 5000));
+    }
+    
+    @Test
+    void rebuildParsesOnlyChangedFiles() throws Exception {
+        build();
+        File changed = directory.resolve("set1/walk1.gpx").toFile();
+        TestTracks.write(directory, "set1/walk1.gpx", walk(new Random(1), 10, 10, 50));
+        assertTrue(changed.setLastModified(changed.lastModified() + 2000));
+        assertTrue(SpatialIndex.open(directory.toFile())
+                       .search(SpatialIndex.Area.box(9, 9, 11, 11)).isEmpty());
+        
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        SpatialIndex index = SpatialIndex.build(directory.toFile(), options,
+                                                new PrintStream(summary, true, "UTF-8"));
+        assertTrue(summary.toString(StandardCharsets.UTF_8).contains("(1 parsed, 39 unchanged)"),
+                   summary.toString(StandardCharsets.UTF_8));
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(9, 9, 11, 11));
+        assertQueryMatchesScan(index, SpatialIndex.Area.box(-90, -180, 90, 180));
+    }
+    
+    private SpatialIndex build() throws Exception {
+        return SpatialIndex.build(directory.toFile(), options,
+                                  new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    }
+    
+    /**
+     * Checks the query against the ranges of consecutive points inside the area
+     * found by parsing every file
+     */
+    private void assertQueryMatchesScan(SpatialIndex index, SpatialIndex.Area area)
+            throws Exception {
+        List<String> expected = new ArrayList<>();
+        List<Path> files;
+        try (var walk = Files.walk(directory)) {
+            files = walk.filter(p -> p.toString().endsWith(".gpx")).sorted().toList();
+        }
+        for (Path file : files) {
+            TrackBuffer track = ElevationProfileApp.readTrack(file.toFile(), options);
+            List<SpatialIndex.Range> ranges = new ArrayList<>();
+            int first = -1;
+            for (int i = 0; i <= track.size(); i++) {
+                boolean in = i < track.size()
+                             && area.contains(track.latitude(i), track.longitude(i));
+                if (in && first < 0) {
+                    first = i;
+                } else if (!in && first >= 0) {
+                    ranges.add(new SpatialIndex.Range(first, i - 1));
+                    first = -1;
+                }
+            }
+            if (!ranges.isEmpty()) {
+                String name = directory.relativize(file).toString();
+                expected.add(name.replace(File.separatorChar, '/') + " " + ranges);
+            }
+        }
+        
+        List<String> actual = new ArrayList<>();
+        for (SpatialIndex.Match match : index.query(area, options)) {
+            assertFalse(match.stale(), match.name());
+            actual.add(match.name() + " " + match.ranges());
+        }
+        assertEquals(expected, actual);
+    }
+    
+    /**
+     * @return a GPX track of a random walk of steps up to about 20 m from a
+     *         start point, wrapping longitudes past the 180th meridian
+     */
+    private static String walk(Random random, double lat, double lon, int points) {
+        StringBuilder gpx = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        gpx.append(TestTracks.PLAIN_ROOT).append("\n<trk><trkseg>\n");
+        for (int i = 0; i < points; i++) {
+            lat = Math.max(-90, Math.min(90, lat + (random.nextDouble() - 0.5) * 4e-4));
+            lon += (random.nextDouble() - 0.5) * 4e-4;
+            lon = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+            gpx.append(String.format(Locale.ROOT,
+                "<trkpt lat=\"%.7f\" lon=\"%.7f\"><ele>100</ele>"
+                + "<time>2026-01-11T%02d:%02d:%02dZ</time></trkpt>%n",
+                lat, lon, 10 + i / 3600, i / 60 % 60, i % 60));
+        }
+        return gpx.append("</trkseg></trk>\n</gpx>\n").toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Statistics of short hand-made tracks
+ */
+class StatisticsAccumulatorTest {
+    
+    private static final long NO_TIME = TrackBuffer.NO_TIME;
+    
+    @Test
+    void climbsAndDropsCountOnlyPastTheThreshold() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        // Noise under 3 m around 100 m, a 3 m climb, then a drop of 3.1 m
+        for (double altitude : new double[] {100, 102, 101, 102.9, 103, 101, 100.5, 99.9,
+                                             100.8, 99.2, 100.5}) {
+            accumulator.accept(altitude, 0, NO_TIME);
+        }
+        TrackStatistics stats = accumulator.result();
+        assertEquals(3, stats.ascent(), 1e-9);
+        assertEquals(3.1, stats.descent(), 1e-9);
+        
+        StatisticsAccumulator everyChange = new StatisticsAccumulator(0);
+        for (double altitude : new double[] {100, 102, 101, 104}) {
+            everyChange.accept(altitude, 0, NO_TIME);
+        }
+        assertEquals(5, everyChange.result().ascent(), 1e-9);
+        assertEquals(1, everyChange.result().descent(), 1e-9);
+    }
+    
+    @Test
+    void trackBelowSeaLevelKeepsItsHighestPoint() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        accumulator.accept(-50, 0, NO_TIME);
+        accumulator.accept(-30, 100, NO_TIME);
+        accumulator.accept(-80, 200, NO_TIME);
+        TrackStatistics stats = accumulator.result();
+        assertEquals(-30, stats.maxAltitude());
+        assertEquals(-80, stats.minAltitude());
+        assertEquals(50, stats.elevationRange());
+        assertEquals(-15, stats.averageGrade(), 1e-9);
+        
+        TrackStatistics empty = new StatisticsAccumulator().result();
+        assertEquals(0, empty.pointCount());
+        assertTrue(Double.isNaN(empty.maxAltitude()));
+        assertTrue(Double.isNaN(empty.minAltitude()));
+    }
+    
+    @Test
+    void movingTimeLeavesOutStopsAndCrawling() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        accumulator.accept(0, 0, 0);
+        accumulator.accept(0, 100, 10_000);  // 10 m/s
+        accumulator.accept(0, 100, 20_000);  // stopped
+        accumulator.accept(0, 101, NO_TIME); // untimed, measured on to the next timed point
+        accumulator.accept(0, 104, 30_000);  // 0.4 m/s, too slow to count
+        accumulator.accept(0, 154, 40_000);  // 5 m/s
+        accumulator.accept(0, 154, 40_000);  // repeated timestamp
+        TrackStatistics stats = accumulator.result();
+        assertTrue(stats.hasTime());
+        assertEquals(40_000, stats.elapsedTimeMillis());
+        assertEquals(20_000, stats.movingTimeMillis());
+        assertEquals(10, stats.maxSpeed(), 1e-9);
+        assertEquals(154, stats.totalDistance());
+        assertEquals(7, stats.pointCount());
+    }
+    
+    @Test
+    void untimedTrackHasNoTimes() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        for (int i = 0; i < 5; i++) {
+            accumulator.accept(200 + i, i * 50, NO_TIME);
+        }
+        TrackStatistics stats = accumulator.result();
+        assertFalse(stats.hasTime());
+        assertEquals(0, stats.elapsedTimeMillis());
+        assertEquals(0, stats.movingTimeMillis());
+        assertEquals(0, stats.maxSpeed());
+        assertEquals(200, stats.totalDistance());
+        
+        StatisticsAccumulator oneTime = new StatisticsAccumulator();
+        oneTime.accept(200, 0, NO_TIME);
+        oneTime.accept(201, 50, 5_000);
+        oneTime.accept(202, 100, NO_TIME);
+        assertFalse(oneTime.result().hasTime());
+        assertEquals(0, oneTime.result().maxSpeed());
+    }
+}
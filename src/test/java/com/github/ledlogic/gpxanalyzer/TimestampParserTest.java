@@ -0,0 +1,84 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The digit arithmetic fast path against Instant.parse
+ */
+class TimestampParserTest {
+    
+    @Test
+    void deviceTimestampsMatchInstantParse() {
+        String[] texts = {
+            "2026-01-11T14:37:12Z",
+            "2026-01-11T14:37:12.250Z",
+            "2026-01-11T14:37:12.1Z",
+            "2026-01-11T14:37:12.123456789Z",
+            "2026-01-11T14:37:12+01:00",
+            "2026-01-11T14:37:12.5-08:30",
+            "2024-02-29T23:59:59Z",
+            "2000-02-29T00:00:00Z",
+            "1969-12-31T23:59:59.999Z",
+            "0001-01-01T00:00:00Z",
+            "1900-03-01T12:00:00-17:59",
+        };
+        for (String text : texts) {
+            assertSameAsInstantParse(text);
+        }
+    }
+    
+    @Test
+    void randomInstantsRoundTrip() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long seconds = random.nextLong() % 10_000_000_000L;
+            Instant instant = Instant.ofEpochSecond(Math.abs(seconds),
+                                                    random.nextInt(1_000_000_000));
+            assertSameAsInstantParse(instant.toString());
+        }
+    }
+    
+    @Test
+    void otherLayoutsFallBackToInstantParse() {
+        // leap second, which Instant.parse moves back to :59
+        assertSameAsInstantParse("2016-12-31T23:59:60Z");
+        assertSameAsInstantParse("+12026-01-11T14:37:12Z");
+        assertSameAsInstantParse("2026-01-11T14:37:12+01:00:30");
+        assertSameAsInstantParse("2026-01-11T14:37:12.Z"); // empty fraction
+    }
+    
+    @Test
+    void invalidTimestampsAreRejectedLikeInstantParse() {
+        String[] texts = {
+            "2026-02-29T14:37:12Z",
+            "2026-13-11T14:37:12Z",
+            "2026-01-11T24:37:12Z",
+            "2026-01-11T14:37:12",
+            "2026-01-11T14:37:12.1234567890Z",
+            "2026-01-11T14:37:12+18:30",
+            "2026-01-11 14:37:12Z",
+            "2026-01-1xT14:37:12Z",
+            "2026-01-11T14:37:12Zjunk",
+        };
+        for (String text : texts) {
+            assertThrows(DateTimeParseException.class, () -> Instant.parse(text), text);
+            assertThrows(DateTimeParseException.class,
+                         () -> TimestampParser.parseEpochMillis(text), text);
+            assertThrows(DateTimeParseException.class,
+                         () -> TimestampParser.parseInstant(text), text);
+        }
+    }
+    
+    private static void assertSameAsInstantParse(String text) {
+        Instant expected = Instant.parse(text);
+        assertEquals(expected, TimestampParser.parseInstant(text), text);
+        assertEquals(expected.toEpochMilli(), TimestampParser.parseEpochMillis(text), text);
+    }
+}
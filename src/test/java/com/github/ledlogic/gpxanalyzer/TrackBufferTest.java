@@ -0,0 +1,104 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The columnar track against the TrackPoint path it replaces
+ */
+class TrackBufferTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void fromPointsKeepsEveryDistanceOfTheObjectPath() throws Exception {
+        File file = TestTracks.write(directory, "track.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 300, 200));
+        List<TrackPoint> points = GPXElevationProfile.parseGPX(file.getPath());
+        TrackBuffer track = TrackBuffer.fromPoints(points);
+        
+        assertEquals(points.size(), track.size());
+        for (int i = 0; i < points.size(); i++) {
+            TrackPoint point = points.get(i);
+            assertEquals(point.distanceFromStart, track.distanceFromStart(i), "point " + i);
+            assertEquals(point.distanceFromPrevious, track.distanceFromPrevious(i), "point " + i);
+            assertEquals(point.distanceFromPrevious, track.get(i).distanceFromPrevious);
+            assertEquals(point.timestamp, track.timestamp(i));
+        }
+    }
+    
+    @Test
+    void streamedStepsMatchTheObjectPath() throws Exception {
+        for (File sample : TestTracks.samples()) {
+            List<TrackPoint> points = GPXElevationProfile.parseGPX(sample.getPath());
+            TrackBuffer track = GPXElevationProfile.parseTrack(sample.getPath());
+            for (int i = 0; i < points.size(); i++) {
+                assertEquals(points.get(i).distanceFromPrevious, track.distanceFromPrevious(i),
+                             sample.getName() + " point " + i);
+            }
+        }
+    }
+    
+    @Test
+    void timestampsAreTruncatedToMilliseconds() {
+        TrackPoint point = new TrackPoint(45, -93, 200,
+                                          Instant.parse("2026-01-11T14:37:12.123456789Z"));
+        TrackBuffer track = TrackBuffer.fromPoints(List.of(point));
+        
+        assertEquals(Instant.parse("2026-01-11T14:37:12.123Z"), track.timestamp(0));
+    }
+    
+    @Test
+    void parallelDistancesMatchSerial() {
+        TrackBuffer serial = new TrackBuffer();
+        for (int i = 0; i < 300_000; i++) {
+            if (i % 70_000 == 0) {
+                serial.startSegment(0);
+            }
+            serial.add(44.98 + i * 1e-5, -93.25 + (i % 13) * 1e-5, 200 + i % 50, 1000L * i);
+        }
+        TrackBuffer parallel = new TrackBuffer();
+        parallel.append(serial);
+        
+        serial.computeDistances(DistanceMethod.HAVERSINE, SegmentPolicy.BRIDGE);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.computeDistances(DistanceMethod.HAVERSINE, SegmentPolicy.BRIDGE, pool);
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.distanceFromStart(i), parallel.distanceFromStart(i));
+            assertEquals(serial.distanceFromPrevious(i), parallel.distanceFromPrevious(i));
+        }
+        assertEquals(0.0, serial.distanceFromPrevious(70_000)); // bridged segment gap
+    }
+    
+    @Test
+    void segmentStartsFromZero() {
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i < 10; i++) {
+            if (i % 5 == 0) {
+                track.startSegment(i / 5);
+            }
+            track.add(45 + i * 1e-4, -93, 200, TrackBuffer.NO_TIME);
+        }
+        track.computeDistances(DistanceMethod.HAVERSINE, SegmentPolicy.CONNECT);
+        
+        TrackBuffer second = track.segment(1);
+        assertEquals(5, second.size());
+        assertEquals(0.0, second.distanceFromStart(0));
+        assertEquals(0.0, second.distanceFromPrevious(0));
+        assertEquals(track.distanceFromPrevious(6), second.distanceFromPrevious(1));
+        assertEquals(1, second.segmentTrack(0));
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips through the .gpxbin format
+ */
+class TrackCacheTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void roundTripKeepsEveryColumnAndSegment() throws Exception {
+        TrackBuffer track = parsedTrack();
+        File sidecar = directory.resolve("track.gpxbin").toFile();
+        TrackCache.write(track, sidecar, 1234, DistanceMethod.VINCENTY);
+        
+        assertSameTrack(track, TrackCache.read(sidecar, 1234, DistanceMethod.VINCENTY));
+    }
+    
+    @Test
+    void columnsReadInSmallWindowsAreTheSame() throws Exception {
+        TrackBuffer track = parsedTrack();
+        File sidecar = directory.resolve("track.gpxbin").toFile();
+        TrackCache.write(track, sidecar, 1234, DistanceMethod.VINCENTY);
+        
+        // Windows smaller than a column, and not a multiple of its values
+        for (long mapBytes : new long[] {8, 60, 1000}) {
+            assertSameTrack(track, TrackCache.read(sidecar, 1234, DistanceMethod.VINCENTY,
+                                                   mapBytes));
+        }
+    }
+    
+    @Test
+    void cacheOfAnotherSourceOrMethodIsStale() throws Exception {
+        File sidecar = directory.resolve("track.gpxbin").toFile();
+        TrackCache.write(parsedTrack(), sidecar, 1234, DistanceMethod.VINCENTY);
+        
+        assertNull(TrackCache.read(sidecar, 1235, DistanceMethod.VINCENTY));
+        assertNull(TrackCache.read(sidecar, 1234, DistanceMethod.HAVERSINE));
+    }
+    
+    @Test
+    void truncatedCacheIsRejected() throws Exception {
+        File sidecar = directory.resolve("track.gpxbin").toFile();
+        TrackCache.write(parsedTrack(), sidecar, 1234, DistanceMethod.VINCENTY);
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+        
+        assertThrows(IOException.class,
+                     () -> TrackCache.read(sidecar, 1234, DistanceMethod.VINCENTY));
+    }
+    
+    @Test
+    void loadOrParseParsesOnlyOnce() throws Exception {
+        File gpx = TestTracks.write(directory, "track.gpx",
+                                    TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 50));
+        gpx.setLastModified(System.currentTimeMillis() - 10_000);
+        AtomicInteger parses = new AtomicInteger();
+        
+        TrackBuffer first = null;
+        for (int run = 0; run < 3; run++) {
+            TrackBuffer track = TrackCache.loadOrParse(gpx, DistanceMethod.HAVERSINE, () -> {
+                parses.incrementAndGet();
+                return GPXElevationProfile.parseTrack(gpx.getPath());
+            });
+            if (first == null) {
+                first = track;
+            } else {
+                assertSameTrack(first, track);
+            }
+        }
+        assertEquals(1, parses.get());
+    }
+    
+    private TrackBuffer parsedTrack() throws Exception {
+        File file = TestTracks.write(directory, "track.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 120, 30, 77));
+        return GPXElevationProfile.parseTrack(file.getPath(), DistanceMethod.VINCENTY);
+    }
+    
+    private static void assertSameTrack(TrackBuffer expected, TrackBuffer actual) {
+        assertNotNull(actual);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.latitude(i), actual.latitude(i));
+            assertEquals(expected.longitude(i), actual.longitude(i));
+            assertEquals(expected.altitude(i), actual.altitude(i));
+            assertEquals(expected.distanceFromStart(i), actual.distanceFromStart(i));
+            assertEquals(expected.distanceFromPrevious(i), actual.distanceFromPrevious(i));
+            assertEquals(expected.epochMillis(i), actual.epochMillis(i));
+        }
+        assertEquals(expected.segmentCount(), actual.segmentCount());
+        for (int s = 0; s < expected.segmentCount(); s++) {
+            assertEquals(expected.segmentStart(s), actual.segmentStart(s));
+            assertEquals(expected.segmentTrack(s), actual.segmentTrack(s));
+        }
+        assertEquals(expected.statistics().ascent(), actual.statistics().ascent());
+    }
+}
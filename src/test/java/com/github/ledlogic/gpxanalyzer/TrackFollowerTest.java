@@ -0,0 +1,68 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Following a file written in pieces against parsing it whole
+ */
+class TrackFollowerTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void followsGarminFileWithExtensions() throws Exception {
+        assertFollowsLikeParse(TestTracks.gpx(TestTracks.GARMIN_ROOT, true, 40, 1, 25));
+    }
+    
+    @Test
+    void followsPlainFile() throws Exception {
+        assertFollowsLikeParse(TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 70, 30));
+    }
+    
+    /**
+     * Appends the document in pieces that cut through tags, including the root
+     * tag, polling after each, and checks the batches add up to the whole track
+     */
+    private void assertFollowsLikeParse(String gpx) throws Exception {
+        byte[] content = gpx.getBytes(StandardCharsets.UTF_8);
+        File file = TestTracks.write(directory, "live.gpx", "");
+        TrackFollower follower = new TrackFollower(file, DistanceMethod.HAVERSINE,
+                                                   SegmentPolicy.BRIDGE);
+        
+        TrackBuffer followed = new TrackBuffer();
+        int[] cuts = {60, 150, 151, 900, 2000, 2001, 4500, content.length};
+        int from = 0;
+        for (int cut : cuts) {
+            cut = Math.min(cut, content.length);
+            Files.write(file.toPath(), Arrays.copyOfRange(content, from, cut),
+                        StandardOpenOption.APPEND);
+            from = cut;
+            for (TrackBuffer batch; (batch = follower.poll()) != null; ) {
+                followed.append(batch);
+            }
+        }
+        
+        TrackBuffer parsed = GPXElevationProfile.parseTrack(file.getPath());
+        assertEquals(parsed.size(), followed.size());
+        assertEquals(parsed.segmentCount(), followed.segmentCount());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.latitude(i), followed.latitude(i), "point " + i);
+            assertEquals(parsed.altitude(i), followed.altitude(i), "point " + i);
+            assertEquals(parsed.epochMillis(i), followed.epochMillis(i), "point " + i);
+            assertEquals(parsed.distanceFromStart(i), followed.distanceFromStart(i), 1e-6,
+                         "point " + i);
+        }
+        assertEquals(parsed.size(), follower.statistics().pointCount());
+    }
+}
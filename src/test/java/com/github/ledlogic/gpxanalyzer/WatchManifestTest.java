@@ -0,0 +1,117 @@
+package com.github.ledlogic.gpxanalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Which files a watched directory processes again, as decided by its manifest
+ */
+class WatchManifestTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void manifestIsKeptOnlyForTheSameOptions() throws Exception {
+        File file = TestTracks.write(directory, "walk.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 20));
+        String hash = WatchManifest.hash(file);
+        assertEquals(64, hash.length());
+        
+        WatchManifest manifest = WatchManifest.load(directory.toFile(), "distance=haversine");
+        assertFalse(manifest.isCurrent("walk.gpx", file.length(), file.lastModified()));
+        manifest.put("walk.gpx", file.length(), file.lastModified(), hash);
+        manifest.save();
+        
+        WatchManifest same = WatchManifest.load(directory.toFile(), "distance=haversine");
+        assertTrue(same.isCurrent("walk.gpx", file.length(), file.lastModified()));
+        assertFalse(same.isCurrent("walk.gpx", file.length() + 1, file.lastModified()));
+        assertFalse(same.isCurrent("walk.gpx", file.length(), file.lastModified() + 1));
+        assertTrue(same.hasHash("walk.gpx", hash));
+        assertFalse(same.hasHash("other.gpx", hash));
+        
+        WatchManifest other = WatchManifest.load(directory.toFile(), "distance=vincenty");
+        assertFalse(other.isCurrent("walk.gpx", file.length(), file.lastModified()));
+        assertFalse(other.hasHash("walk.gpx", hash));
+        
+        Files.writeString(directory.resolve(WatchManifest.FILE_NAME), "not a manifest\n");
+        assertFalse(WatchManifest.load(directory.toFile(), "distance=haversine")
+                        .hasHash("walk.gpx", hash));
+    }
+    
+    @Test
+    void onlyChangedFilesAndChangedOptionsAreProcessedAgain() throws Exception {
+        File file = TestTracks.write(directory, "walk.gpx",
+                                     TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 30, 20));
+        Path csv = directory.resolve("walk.csv");
+        ProcessingOptions options = options();
+        
+        DirectoryWatcher watcher = new DirectoryWatcher(directory.toFile(), options);
+        watcher.process(file);
+        assertEquals(1, watcher.processed());
+        assertTrue(Files.isRegularFile(csv));
+        watcher.manifest().save();
+        
+        // Unchanged size and time: skipped without reading the file
+        Files.delete(csv);
+        watcher = new DirectoryWatcher(directory.toFile(), options);
+        watcher.process(file);
+        assertEquals(0, watcher.processed());
+        assertFalse(Files.exists(csv));
+        
+        // Touched with the same content: the hash matches, the new time is recorded
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        watcher.process(file);
+        assertEquals(0, watcher.processed());
+        assertTrue(watcher.manifest().isCurrent("walk.gpx", file.length(),
+                                                file.lastModified()));
+        
+        // New content of the same size
+        long size = file.length();
+        TestTracks.write(directory, "walk.gpx",
+                         TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 30, 20)
+                             .replace("creator=\"test\"", "creator=\"tset\""));
+        assertEquals(size, file.length());
+        assertTrue(file.setLastModified(file.lastModified() + 4000));
+        watcher.process(file);
+        assertEquals(1, watcher.processed());
+        assertEquals(51, Files.readAllLines(csv).size());
+        watcher.manifest().save();
+        
+        // Content of another size
+        TestTracks.write(directory, "walk.gpx", TestTracks.gpx(TestTracks.PLAIN_ROOT, false, 45));
+        watcher.process(file);
+        assertEquals(2, watcher.processed());
+        assertEquals(46, Files.readAllLines(csv).size());
+        watcher.manifest().save();
+        
+        // Options that change the outputs
+        Files.delete(csv);
+        watcher = new DirectoryWatcher(directory.toFile(), options);
+        watcher.process(file);
+        assertEquals(0, watcher.processed());
+        ProcessingOptions gzip = options();
+        gzip.gzipCsv = true;
+        watcher = new DirectoryWatcher(directory.toFile(), gzip);
+        watcher.process(file);
+        assertEquals(1, watcher.processed());
+        assertTrue(Files.isRegularFile(directory.resolve("walk.csv.gz")));
+        assertEquals(0, watcher.failed());
+    }
+    
+    private ProcessingOptions options() {
+        ProcessingOptions options = new ProcessingOptions();
+        options.showGui = false;
+        options.savePng = false;
+        options.outputDirectory = directory.toString();
+        return options;
+    }
+}